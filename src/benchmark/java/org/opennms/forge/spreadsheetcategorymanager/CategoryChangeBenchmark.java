@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.forge.spreadsheetcategorymanager;
+
+import org.opennms.forge.spreadsheetcategorymanager.utils.CategoryDelta;
+import org.opennms.forge.spreadsheetcategorymanager.utils.CategoryPlan;
+import org.opennms.forge.spreadsheetcategorymanager.utils.NodeToCategoryMapping;
+import org.opennms.netmgt.provision.persist.requisition.Requisition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>CategoryChangeBenchmark class.</p>
+ * <p/>
+ * Time to apply the node to category mappings of a spreadsheet on a requisition without any REST call. The
+ * invocations alternate between the even and the odd categories, so every invocation changes every node.
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-Dlogback.configurationFile=logback-benchmark.xml"})
+public class CategoryChangeBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int nodes;
+
+    @Param({"10", "100", "500"})
+    public int categories;
+
+    private Requisition m_requisition;
+
+    private Collection<NodeToCategoryMapping> m_evenMappings;
+
+    private Collection<NodeToCategoryMapping> m_oddMappings;
+
+    private boolean m_even;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        m_requisition = SyntheticRequisitions.createRequisition(nodes, categories);
+        m_evenMappings = SyntheticRequisitions.createMappings(nodes, categories, true);
+        m_oddMappings = SyntheticRequisitions.createMappings(nodes, categories, false);
+    }
+
+    @Benchmark
+    public List<CategoryDelta> changeNodeToCategoryMappings() {
+        m_even = !m_even;
+        return RestCategoryProvisioner.changeNodeToCategoryMappingsInManagedRequisition(m_even ? m_evenMappings : m_oddMappings, m_requisition, SyntheticRequisitions.FOREIGN_SOURCE, new CategoryPlan(), false);
+    }
+}
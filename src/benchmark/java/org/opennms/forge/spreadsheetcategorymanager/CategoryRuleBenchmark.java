@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.forge.spreadsheetcategorymanager;
+
+import org.opennms.forge.spreadsheetcategorymanager.utils.CategoryRuleSet;
+import org.opennms.forge.spreadsheetcategorymanager.utils.NodeToCategoryMapping;
+import org.opennms.netmgt.provision.persist.requisition.Requisition;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionAsset;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionInterface;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>CategoryRuleBenchmark class.</p>
+ * <p/>
+ * Time to match category rules on all nodes of a synthetic requisition. Every node gets one interface and one asset,
+ * the rules are evenly spread over label prefixes, foreign id regular expressions, CIDR ranges and asset values.
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-Dlogback.configurationFile=logback-benchmark.xml"})
+public class CategoryRuleBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int nodes;
+
+    @Param({"10", "100", "500"})
+    public int rules;
+
+    private Requisition m_requisition;
+
+    private CategoryRuleSet m_ruleSet;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        m_requisition = SyntheticRequisitions.createRequisition(nodes, 10);
+        int node = 0;
+        for (RequisitionNode reqNode : m_requisition.getNodes()) {
+            RequisitionInterface reqInterface = new RequisitionInterface();
+            reqInterface.setIpAddr("10." + (node % 256) + "." + (node / 256 % 256) + ".1");
+            reqNode.putInterface(reqInterface);
+            reqNode.putAsset(new RequisitionAsset("rack", "R" + (node % 1000)));
+            node++;
+        }
+
+        StringBuilder ruleText = new StringBuilder();
+        for (int rule = 0; rule < rules; rule++) {
+            switch (rule % 4) {
+                case 0:
+                    ruleText.append("match\tlabel\tprefix\tnode-0").append(rule % 100).append('\n');
+                    break;
+                case 1:
+                    ruleText.append("match\tip\tcidr\t10.").append(rule % 256).append(".0.0/").append(16 + rule % 9).append('\n');
+                    break;
+                case 2:
+                    ruleText.append("match\tforeign-id\tregex\t").append(rule % 10).append("$\n");
+                    break;
+                default:
+                    ruleText.append("match\tasset:rack\tequals\tR").append(rule).append('\n');
+            }
+            ruleText.append("add\tRule-").append(rule).append('\n');
+        }
+        m_ruleSet = CategoryRuleSet.read(new StringReader(ruleText.toString()), "benchmark");
+    }
+
+    @Benchmark
+    public List<NodeToCategoryMapping> matchRules() {
+        return m_ruleSet.getNodeToCategoryMappings(m_requisition);
+    }
+}
@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.forge.spreadsheetcategorymanager;
+
+import org.opennms.forge.spreadsheetcategorymanager.utils.NodeToCategoryMapping;
+import org.opennms.netmgt.provision.persist.requisition.Requisition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>SpreadsheetBenchmark class.</p>
+ * <p/>
+ * Time to write a synthetic requisition into an ODS file and to read the node to category mappings back, with the DOM
+ * and with the streaming implementation. The file read is written once per trial. The read times over the node
+ * counts show whether parsing grows linear with the rows, this is not checked by the unit tests as wall clock ratios
+ * are not stable on loaded machines.
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-Dlogback.configurationFile=logback-benchmark.xml"})
+public class SpreadsheetBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int nodes;
+
+    @Param({"10", "100", "500"})
+    public int categories;
+
+    @Param({"false", "true"})
+    public boolean streaming;
+
+    private Requisition m_requisition;
+
+    private File m_readOdsFile;
+
+    private File m_writeOdsFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        m_requisition = SyntheticRequisitions.createRequisition(nodes, categories);
+
+        m_readOdsFile = File.createTempFile("SpreadsheetBenchmarkRead", ".ods");
+        new SpreadsheetWriter(streaming).getSpreadsheetFromRequisition(m_requisition, m_readOdsFile.getAbsolutePath(), null);
+        m_writeOdsFile = File.createTempFile("SpreadsheetBenchmarkWrite", ".ods");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        m_readOdsFile.delete();
+        m_writeOdsFile.delete();
+    }
+
+    @Benchmark
+    public File writeSpreadsheet() {
+        return new SpreadsheetWriter(streaming).getSpreadsheetFromRequisition(m_requisition, m_writeOdsFile.getAbsolutePath(), null);
+    }
+
+    @Benchmark
+    public Collection<NodeToCategoryMapping> readSpreadsheet() throws IOException {
+        return new SpreadsheetReader(m_readOdsFile, streaming).getNodeToCategoryMappingsFromFile();
+    }
+}
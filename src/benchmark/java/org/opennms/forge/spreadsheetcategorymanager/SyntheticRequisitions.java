@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.forge.spreadsheetcategorymanager;
+
+import org.opennms.forge.spreadsheetcategorymanager.utils.CategoryDictionary;
+import org.opennms.forge.spreadsheetcategorymanager.utils.NodeToCategoryMapping;
+import org.opennms.netmgt.provision.persist.requisition.Requisition;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionCategory;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionNode;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <p>SyntheticRequisitions class.</p>
+ * <p/>
+ * Reproducible requisitions and spreadsheet mappings for the benchmarks. Every node gets a random quarter of the
+ * categories, the same seed always creates the same requisition.
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+public final class SyntheticRequisitions {
+
+    /**
+     * Foreign source of all synthetic requisitions
+     */
+    public static final String FOREIGN_SOURCE = "Benchmark";
+
+    private static final long SEED = 42L;
+
+    /** Suppress default constructor for noninstantiability */
+    private SyntheticRequisitions() {
+    }
+
+    /**
+     * <p>createRequisition</p>
+     *
+     * @param nodes      amount of nodes
+     * @param categories amount of surveillance categories
+     * @return Requisition with the nodes as {@link org.opennms.netmgt.provision.persist.requisition.Requisition}
+     */
+    public static Requisition createRequisition(int nodes, int categories) {
+        Random random = new Random(SEED);
+        List<RequisitionNode> reqNodes = new ArrayList<>(nodes);
+        for (int node = 0; node < nodes; node++) {
+            List<RequisitionCategory> reqCategories = new ArrayList<>();
+            for (int category = 0; category < categories; category++) {
+                if (random.nextInt(4) == 0) {
+                    reqCategories.add(new RequisitionCategory(getCategoryName(category)));
+                }
+            }
+
+            RequisitionNode reqNode = new RequisitionNode();
+            reqNode.setNodeLabel(getNodeLabel(node));
+            reqNode.setForeignId(getForeignId(node));
+            reqNode.setCategories(reqCategories);
+            reqNodes.add(reqNode);
+        }
+
+        Requisition requisition = new Requisition(FOREIGN_SOURCE);
+        requisition.setNodes(reqNodes);
+        return requisition;
+    }
+
+    /**
+     * <p>createMappings</p>
+     * <p/>
+     * Mappings for all nodes of a synthetic requisition which set either the even or the odd categories and remove
+     * the others, so the even and the odd mappings change every node.
+     *
+     * @param nodes      amount of nodes
+     * @param categories amount of surveillance categories
+     * @param even       true to set the even categories, false to set the odd ones
+     * @return Mappings of all nodes as {@link java.util.Collection}
+     */
+    public static Collection<NodeToCategoryMapping> createMappings(int nodes, int categories, boolean even) {
+        CategoryDictionary dictionary = new CategoryDictionary();
+        int[] categoryIds = new int[categories];
+        for (int category = 0; category < categories; category++) {
+            categoryIds[category] = dictionary.intern(getCategoryName(category));
+        }
+
+        List<NodeToCategoryMapping> mappings = new ArrayList<>(nodes);
+        for (int node = 0; node < nodes; node++) {
+            NodeToCategoryMapping mapping = new NodeToCategoryMapping(getNodeLabel(node), dictionary);
+            for (int category = 0; category < categories; category++) {
+                if ((category % 2 == 0) == even) {
+                    mapping.addCategory(categoryIds[category]);
+                } else {
+                    mapping.removeCategory(categoryIds[category]);
+                }
+            }
+            mappings.add(mapping);
+        }
+        return mappings;
+    }
+
+    private static String getNodeLabel(int node) {
+        return String.format("node-%06d", node);
+    }
+
+    private static String getForeignId(int node) {
+        return String.format("%06d", node);
+    }
+
+    private static String getCategoryName(int category) {
+        return String.format("Category-%03d", category);
+    }
+}
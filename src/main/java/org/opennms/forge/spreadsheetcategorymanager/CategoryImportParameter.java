@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.forge.spreadsheetcategorymanager;
+
+import org.opennms.forge.spreadsheetcategorymanager.utils.RequisitionSnapshotCache;
+import org.opennms.forge.spreadsheetcategorymanager.utils.SynchronizeScheduler;
+
+import java.io.File;
+
+/**
+ * <p>CategoryImportParameter class.</p>
+ * <p/>
+ * Keeps the settings of a category import from a spreadsheet, so the import methods don't need a new overload for
+ * every setting.
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+public class CategoryImportParameter {
+
+    /**
+     * Default fraction of changed nodes up to which only the changes are sent
+     */
+    public static final double DEFAULT_DELTA_THRESHOLD = 0.1;
+
+    /**
+     * Read the spreadsheet row by row instead of loading the whole document
+     */
+    private boolean m_streaming = false;
+
+    /**
+     * Amount of spreadsheet tables parsed and remote calls made concurrently
+     */
+    private int m_threads = 1;
+
+    /**
+     * Send the category changes of the changed nodes instead of the whole requisition
+     */
+    private boolean m_deltaPush = false;
+
+    /**
+     * Fraction of changed nodes above which the whole requisition is sent even in delta mode
+     */
+    private double m_deltaThreshold = DEFAULT_DELTA_THRESHOLD;
+
+    /**
+     * Write the exact changes into this file instead of sending them
+     */
+    private File m_planFile = null;
+
+    /**
+     * Snapshots of the changed foreign sources are dropped from this cache, null without cache
+     */
+    private RequisitionSnapshotCache m_requisitionCache = null;
+
+    /**
+     * The first column of the spreadsheet holds foreign ids instead of node labels
+     */
+    private boolean m_foreignIdKey = false;
+
+    /**
+     * Skip spreadsheet rows which still match the fingerprint written on export
+     */
+    private boolean m_skipUnchangedRows = false;
+
+    /**
+     * Coalesces and limits the synchronizes, null synchronizes right after sending the changes
+     */
+    private SynchronizeScheduler m_synchronizeScheduler = null;
+
+    public boolean isStreaming() {
+        return m_streaming;
+    }
+
+    public void setStreaming(boolean streaming) {
+        this.m_streaming = streaming;
+    }
+
+    public int getThreads() {
+        return m_threads;
+    }
+
+    public void setThreads(int threads) {
+        this.m_threads = Math.max(1, threads);
+    }
+
+    public boolean isDeltaPush() {
+        return m_deltaPush;
+    }
+
+    public void setDeltaPush(boolean deltaPush) {
+        this.m_deltaPush = deltaPush;
+    }
+
+    public double getDeltaThreshold() {
+        return m_deltaThreshold;
+    }
+
+    public void setDeltaThreshold(double deltaThreshold) {
+        this.m_deltaThreshold = deltaThreshold;
+    }
+
+    public File getPlanFile() {
+        return m_planFile;
+    }
+
+    public void setPlanFile(File planFile) {
+        this.m_planFile = planFile;
+    }
+
+    public boolean isForeignIdKey() {
+        return m_foreignIdKey;
+    }
+
+    public void setForeignIdKey(boolean foreignIdKey) {
+        this.m_foreignIdKey = foreignIdKey;
+    }
+
+    public boolean isSkipUnchangedRows() {
+        return m_skipUnchangedRows;
+    }
+
+    public void setSkipUnchangedRows(boolean skipUnchangedRows) {
+        this.m_skipUnchangedRows = skipUnchangedRows;
+    }
+
+    public RequisitionSnapshotCache getRequisitionCache() {
+        return m_requisitionCache;
+    }
+
+    public void setRequisitionCache(RequisitionSnapshotCache requisitionCache) {
+        this.m_requisitionCache = requisitionCache;
+    }
+
+    public SynchronizeScheduler getSynchronizeScheduler() {
+        return m_synchronizeScheduler;
+    }
+
+    public void setSynchronizeScheduler(SynchronizeScheduler synchronizeScheduler) {
+        this.m_synchronizeScheduler = synchronizeScheduler;
+    }
+}
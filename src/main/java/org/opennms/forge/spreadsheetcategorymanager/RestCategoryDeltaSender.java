@@ -0,0 +1,197 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.forge.spreadsheetcategorymanager;
+
+import org.opennms.forge.restclient.utils.RestConnectionParameter;
+import org.opennms.forge.spreadsheetcategorymanager.utils.CategoryDelta;
+import org.opennms.forge.spreadsheetcategorymanager.utils.PhaseMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * <p>RestCategoryDeltaSender class.</p>
+ * <p/>
+ * Sends the category changes of single requisition nodes to OpenNMS. Every added category is a POST to the categories
+ * of the node, every removed category a DELETE of the category resource, so the server only has to touch the changed
+ * nodes instead of replacing the whole requisition.
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+public class RestCategoryDeltaSender {
+
+    /**
+     * Logging
+     */
+    private static Logger logger = LoggerFactory.getLogger(RestCategoryDeltaSender.class);
+
+    private final RestConnectionParameter m_restConnectionParameter;
+
+    private final String m_foreignSource;
+
+    private final RestClientFactory m_restClientFactory;
+
+    /**
+     * @param restConnectionParameter helper that keeps base URL, username, password and so on for rest communication with OpenNMS
+     * @param foreignSource           name of the foreign source of the changed nodes
+     */
+    public RestCategoryDeltaSender(RestConnectionParameter restConnectionParameter, String foreignSource) {
+        this(restConnectionParameter, foreignSource, RestClientFactory.getDefault());
+    }
+
+    /**
+     * @param restConnectionParameter helper that keeps base URL, username, password and so on for rest communication with OpenNMS
+     * @param foreignSource           name of the foreign source of the changed nodes
+     * @param restClientFactory       factory for the connections as {@link RestClientFactory}
+     */
+    public RestCategoryDeltaSender(RestConnectionParameter restConnectionParameter, String foreignSource, RestClientFactory restClientFactory) {
+        this.m_restConnectionParameter = restConnectionParameter;
+        this.m_foreignSource = foreignSource;
+        this.m_restClientFactory = restClientFactory;
+    }
+
+    /**
+     * <p>sendCategoryDeltas</p>
+     * <p/>
+     * Send the deltas of all changed nodes, the nodes are sent concurrently and the categories of one node in order.
+     *
+     * @param categoryDeltas Category changes of the changed nodes
+     * @param threads        amount of nodes sent concurrently
+     * @throws IOException if at least one of the deltas was not accepted by OpenNMS
+     */
+    public void sendCategoryDeltas(Collection<CategoryDelta> categoryDeltas, int threads) throws IOException {
+        if (categoryDeltas.isEmpty()) {
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, categoryDeltas.size())));
+        try {
+            List<Future<Void>> deltasSent = new ArrayList<>();
+            for (final CategoryDelta categoryDelta : categoryDeltas) {
+                deltasSent.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        sendCategoryDelta(categoryDelta);
+                        return null;
+                    }
+                }));
+            }
+
+            int failedDeltas = 0;
+            Throwable firstFailure = null;
+            for (Future<Void> deltaSent : deltasSent) {
+                try {
+                    deltaSent.get();
+                } catch (ExecutionException e) {
+                    failedDeltas++;
+                    if (firstFailure == null) {
+                        firstFailure = e.getCause();
+                    }
+                }
+            }
+            if (firstFailure != null) {
+                throw new IOException(failedDeltas + " of " + categoryDeltas.size() + " node deltas for '" + m_foreignSource + "' failed", firstFailure);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Sending node deltas for '" + m_foreignSource + "' was interrupted", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Send the added and removed categories of one node.
+     */
+    private void sendCategoryDelta(CategoryDelta categoryDelta) throws IOException {
+        String categoriesPath = "rest/requisitions/" + encode(m_foreignSource) + "/nodes/" + encode(categoryDelta.getForeignId()) + "/categories";
+        for (String category : categoryDelta.getAddedCategories()) {
+            request("POST", categoriesPath, "<category name=\"" + escapeXml(category) + "\"/>");
+        }
+        for (String category : categoryDelta.getRemovedCategories()) {
+            request("DELETE", categoriesPath + "/" + encode(category), null);
+        }
+        logger.info("RequisitionNode '{}' sent with {} added and {} removed categories", categoryDelta.getNodeLabel(), categoryDelta.getAddedCategories().size(), categoryDelta.getRemovedCategories().size());
+    }
+
+    private void request(String method, String path, String body) throws IOException {
+        HttpURLConnection connection = m_restClientFactory.openConnection(m_restConnectionParameter, path, method);
+        URL url = connection.getURL();
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/xml; charset=UTF-8");
+            byte[] bodyBytes = body.getBytes("UTF-8");
+            try (OutputStream output = connection.getOutputStream()) {
+                output.write(bodyBytes);
+            }
+            PhaseMetrics.getDefault().increment(PhaseMetrics.BYTES_SENT, bodyBytes.length);
+        }
+
+        int responseCode = connection.getResponseCode();
+        // Read the response to the end, so the connection can be reused for the next request
+        try (InputStream response = responseCode < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (response != null) {
+                byte[] buffer = new byte[4096];
+                long responseBytes = 0;
+                for (int read = response.read(buffer); read != -1; read = response.read(buffer)) {
+                    responseBytes += read;
+                }
+                PhaseMetrics.getDefault().increment(PhaseMetrics.BYTES_RECEIVED, responseBytes);
+            }
+        }
+        if (responseCode >= 300) {
+            throw new IOException(method + " " + url + " failed with HTTP status " + responseCode);
+        }
+        logger.debug("{} '{}' returned HTTP status {}", method, url, responseCode);
+    }
+
+    private static String encode(String pathSegment) throws IOException {
+        return URLEncoder.encode(pathSegment, "UTF-8").replace("+", "%20");
+    }
+
+    private static String escapeXml(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
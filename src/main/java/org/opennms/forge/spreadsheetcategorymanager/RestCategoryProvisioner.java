@@ -22,8 +22,18 @@ package org.opennms.forge.spreadsheetcategorymanager;
 
 import org.opennms.forge.provisioningrestclient.api.RequisitionManager;
 import org.opennms.forge.restclient.utils.RestConnectionParameter;
+import org.opennms.forge.spreadsheetcategorymanager.utils.CategoryDelta;
+import org.opennms.forge.spreadsheetcategorymanager.utils.CategoryDictionary;
+import org.opennms.forge.spreadsheetcategorymanager.utils.CategoryPlan;
+import org.opennms.forge.spreadsheetcategorymanager.utils.CategoryRuleSet;
 import org.opennms.forge.spreadsheetcategorymanager.utils.NodeToCategoryMapping;
+import org.opennms.forge.spreadsheetcategorymanager.utils.PhaseMetrics;
+import org.opennms.forge.spreadsheetcategorymanager.utils.RequisitionNodeIndex;
+import org.opennms.forge.spreadsheetcategorymanager.utils.RequisitionSnapshotCache;
+import org.opennms.forge.spreadsheetcategorymanager.utils.SynchronizeScheduler;
+import org.opennms.netmgt.provision.persist.requisition.Requisition;
 import org.opennms.netmgt.provision.persist.requisition.RequisitionCategory;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionCollection;
 import org.opennms.netmgt.provision.persist.requisition.RequisitionNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,8 +41,17 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * <p>RestCategoryProvisioner class.</p>
@@ -61,6 +80,55 @@ public class RestCategoryProvisioner {
      * @param filename                Spreadsheet in ODS format
      */
     public static void importCategoriesFromOds(RestConnectionParameter restConnectionParameter, String foreignSource, Boolean synchronize, String filename) {
+        importCategoriesFromOds(restConnectionParameter, foreignSource, synchronize, filename, false);
+    }
+
+    /**
+     * <p>importCategoriesFromOds</p>
+     * <p/>
+     * Import nodes with spreadsheet provisioned surveillance categories into OpenNMS.
+     *
+     * @param restConnectionParameter helper that keeps base URL, username, password and so on for rest communication with OpenNMS
+     * @param foreignSource           name of the foreign source to update note to category mappings
+     * @param synchronize             changes will not just be send to the remote system, they will also be synchronized.
+     * @param filename                Spreadsheet in ODS format
+     * @param streaming               read the spreadsheet row by row instead of loading the whole document
+     */
+    public static void importCategoriesFromOds(RestConnectionParameter restConnectionParameter, String foreignSource, Boolean synchronize, String filename, boolean streaming) {
+        importCategoriesFromOds(restConnectionParameter, foreignSource, synchronize, filename, streaming, 1);
+    }
+
+    /**
+     * <p>importCategoriesFromOds</p>
+     * <p/>
+     * Import nodes with spreadsheet provisioned surveillance categories into OpenNMS.
+     *
+     * @param restConnectionParameter helper that keeps base URL, username, password and so on for rest communication with OpenNMS
+     * @param foreignSource           name of the foreign source to update note to category mappings
+     * @param synchronize             changes will not just be send to the remote system, they will also be synchronized.
+     * @param filename                Spreadsheet in ODS format
+     * @param streaming               read the spreadsheet row by row instead of loading the whole document
+     * @param threads                 amount of spreadsheet tables parsed concurrently
+     */
+    public static void importCategoriesFromOds(RestConnectionParameter restConnectionParameter, String foreignSource, Boolean synchronize, String filename, boolean streaming, int threads) {
+        CategoryImportParameter importParameter = new CategoryImportParameter();
+        importParameter.setStreaming(streaming);
+        importParameter.setThreads(threads);
+        importCategoriesFromOds(restConnectionParameter, foreignSource, synchronize, filename, importParameter);
+    }
+
+    /**
+     * <p>importCategoriesFromOds</p>
+     * <p/>
+     * Import nodes with spreadsheet provisioned surveillance categories into OpenNMS.
+     *
+     * @param restConnectionParameter helper that keeps base URL, username, password and so on for rest communication with OpenNMS
+     * @param foreignSource           name of the foreign source to update note to category mappings
+     * @param synchronize             changes will not just be send to the remote system, they will also be synchronized.
+     * @param filename                Spreadsheet in ODS format
+     * @param importParameter         settings for reading the spreadsheet and sending the changes
+     */
+    public static void importCategoriesFromOds(RestConnectionParameter restConnectionParameter, String foreignSource, Boolean synchronize, String filename, CategoryImportParameter importParameter) {
         File odsFile = new File(filename);
 
         // Check if the ODS file can be read
@@ -68,16 +136,414 @@ public class RestCategoryProvisioner {
             logger.error("Cannot read ODS file for import in '{}'.", filename);
         }
 
-        RequisitionManager requisitionManager = new RequisitionManager(restConnectionParameter, foreignSource);
-
         logger.debug("ODS file '{}' for import is readable", odsFile.getAbsoluteFile());
-        Collection<NodeToCategoryMapping> nodeToCategoryMappings = readNodeToCategoryMappingsFromOdsFile(odsFile);
+        Collection<NodeToCategoryMapping> nodeToCategoryMappings = readNodeToCategoryMappingsFromOdsFile(odsFile, importParameter);
+
+        CategoryPlan categoryPlan = new CategoryPlan();
+        importNodeToCategoryMappings(restConnectionParameter, foreignSource, synchronize, nodeToCategoryMappings, importParameter, categoryPlan);
+        writePlan(categoryPlan, importParameter);
+    }
+
+    /**
+     * <p>importCategoriesFromOdsForAllForeignSources</p>
+     * <p/>
+     * Import one workbook which covers several requisitions. The first cell of every sheet names the foreign source of
+     * the sheet, sheets of the same foreign source are merged. Every foreign source runs its own fetch, apply, send
+     * and synchronize pipeline on a bounded pool, a failing foreign source doesn't stop the others.
+     *
+     * @param restConnectionParameter helper that keeps base URL, username, password and so on for rest communication with OpenNMS
+     * @param synchronize             changes will not just be send to the remote system, they will also be synchronized.
+     * @param filename                Spreadsheet in ODS format
+     * @param streaming               read the spreadsheet row by row instead of loading the whole document
+     * @param threads                 amount of spreadsheet tables parsed and foreign sources imported concurrently
+     */
+    public static void importCategoriesFromOdsForAllForeignSources(RestConnectionParameter restConnectionParameter, Boolean synchronize, String filename, boolean streaming, int threads) {
+        CategoryImportParameter importParameter = new CategoryImportParameter();
+        importParameter.setStreaming(streaming);
+        importParameter.setThreads(threads);
+        importCategoriesFromOdsForAllForeignSources(restConnectionParameter, synchronize, filename, importParameter);
+    }
+
+    /**
+     * <p>importCategoriesFromOdsForAllForeignSources</p>
+     * <p/>
+     * Import one workbook which covers several requisitions, the foreign source of every sheet is read from its first
+     * cell.
+     *
+     * @param restConnectionParameter helper that keeps base URL, username, password and so on for rest communication with OpenNMS
+     * @param synchronize             changes will not just be send to the remote system, they will also be synchronized.
+     * @param filename                Spreadsheet in ODS format
+     * @param importParameter         settings for reading the spreadsheet and sending the changes
+     */
+    public static void importCategoriesFromOdsForAllForeignSources(final RestConnectionParameter restConnectionParameter, final Boolean synchronize, String filename, final CategoryImportParameter importParameter) {
+        File odsFile = new File(filename);
+        int threads = importParameter.getThreads();
+
+        Map<String, Collection<NodeToCategoryMapping>> nodeToCategoryMappingsByForeignSource = new LinkedHashMap<>();
+        try {
+            long parseStart = System.nanoTime();
+            nodeToCategoryMappingsByForeignSource = new SpreadsheetReader(odsFile, importParameter.isStreaming(), threads, importParameter.isSkipUnchangedRows()).getNodeToCategoryMappingsByForeignSource();
+            PhaseMetrics.getDefault().recordPhase(PhaseMetrics.PARSE, parseStart);
+            for (Collection<NodeToCategoryMapping> nodeToCategoryMappings : nodeToCategoryMappingsByForeignSource.values()) {
+                PhaseMetrics.getDefault().increment(PhaseMetrics.ROWS_PARSED, nodeToCategoryMappings.size());
+            }
+        } catch (IOException e) {
+            logger.error("Error on reading spreadsheet with from '{}'.", odsFile.getAbsoluteFile(), e);
+        }
+        logger.info("ODS file '{}' covers the foreign sources {}", odsFile.getAbsoluteFile(), nodeToCategoryMappingsByForeignSource.keySet());
+
+        final CategoryPlan categoryPlan = new CategoryPlan();
+        Map<String, Callable<Void>> imports = new LinkedHashMap<>();
+        for (final Map.Entry<String, Collection<NodeToCategoryMapping>> entry : nodeToCategoryMappingsByForeignSource.entrySet()) {
+            imports.put(entry.getKey(), new Callable<Void>() {
+                @Override
+                public Void call() {
+                    importNodeToCategoryMappings(restConnectionParameter, entry.getKey(), synchronize, entry.getValue(), importParameter, categoryPlan);
+                    return null;
+                }
+            });
+        }
+        runPerForeignSource(imports, threads, "Import");
+        writePlan(categoryPlan, importParameter);
+    }
+
+    /**
+     * <p>applyCategoryPlan</p>
+     * <p/>
+     * Apply a plan written by an import with a plan file, the spreadsheet is not read again. The planned categories
+     * are added to and removed from the nodes of the current requisitions, nodes removed from a requisition since the
+     * plan was made are skipped.
+     *
+     * @param restConnectionParameter helper that keeps base URL, username, password and so on for rest communication with OpenNMS
+     * @param synchronize             changes will not just be send to the remote system, they will also be synchronized.
+     * @param planFile                Plan written by an import as {@link java.io.File}
+     * @param importParameter         settings for sending the changes
+     */
+    public static void applyCategoryPlan(final RestConnectionParameter restConnectionParameter, final Boolean synchronize, File planFile, final CategoryImportParameter importParameter) {
+        final CategoryPlan categoryPlan;
+        try {
+            categoryPlan = CategoryPlan.read(planFile);
+        } catch (IOException e) {
+            logger.error("Error on reading plan from '{}'.", planFile.getAbsoluteFile(), e);
+            return;
+        }
 
-        changeNodeToCategoryMappingsInManagedRequisition(nodeToCategoryMappings, requisitionManager);
-        requisitionManager.sendManagedRequisitionToOpenNMS();
+        Map<String, Callable<Void>> applies = new LinkedHashMap<>();
+        for (final String foreignSource : categoryPlan.getForeignSources()) {
+            applies.put(foreignSource, new Callable<Void>() {
+                @Override
+                public Void call() {
+                    applyPlannedChanges(restConnectionParameter, foreignSource, synchronize, categoryPlan, importParameter);
+                    return null;
+                }
+            });
+        }
+        runPerForeignSource(applies, importParameter.getThreads(), "Apply");
+    }
+
+    /**
+     * <p>importCategoriesFromRules</p>
+     * <p/>
+     * Change the categories of all nodes of the foreign sources matching the rules of a rule file. The rules are
+     * matched on the fetched requisition and the resulting mappings take the same path as the rows of a spreadsheet,
+     * including delta push, plan file and synchronize.
+     *
+     * @param restConnectionParameter helper that keeps base URL, username, password and so on for rest communication with OpenNMS
+     * @param foreignSources          names of the foreign sources to apply the rules on
+     * @param synchronize             changes will not just be send to the remote system, they will also be synchronized.
+     * @param ruleFile                Category rules as {@link java.io.File}
+     * @param importParameter         settings for sending the changes
+     */
+    public static void importCategoriesFromRules(final RestConnectionParameter restConnectionParameter, Collection<String> foreignSources, final Boolean synchronize, File ruleFile, final CategoryImportParameter importParameter) {
+        final CategoryRuleSet ruleSet;
+        try {
+            ruleSet = CategoryRuleSet.read(ruleFile);
+        } catch (IOException e) {
+            logger.error("Error on reading category rules from '{}'.", ruleFile.getAbsoluteFile(), e);
+            return;
+        }
+        logger.info("Read {} category rules from '{}'", ruleSet.getRuleCount(), ruleFile.getAbsoluteFile());
+
+        final CategoryPlan categoryPlan = new CategoryPlan();
+        Map<String, Callable<Void>> imports = new LinkedHashMap<>();
+        for (final String foreignSource : foreignSources) {
+            imports.put(foreignSource, new Callable<Void>() {
+                @Override
+                public Void call() {
+                    RequisitionManager requisitionManager = fetchManagedRequisition(restConnectionParameter, foreignSource);
+                    long rulesStart = System.nanoTime();
+                    List<NodeToCategoryMapping> nodeToCategoryMappings = ruleSet.getNodeToCategoryMappings(requisitionManager.getRequisition());
+                    PhaseMetrics.getDefault().recordPhase(PhaseMetrics.RULES, rulesStart);
+                    logger.info("Category rules match {} nodes of '{}'", nodeToCategoryMappings.size(), foreignSource);
+                    importNodeToCategoryMappings(restConnectionParameter, foreignSource, synchronize, requisitionManager, nodeToCategoryMappings, true, importParameter, categoryPlan);
+                    return null;
+                }
+            });
+        }
+        runPerForeignSource(imports, importParameter.getThreads(), "Rules");
+        writePlan(categoryPlan, importParameter);
+    }
+
+    /**
+     * <p>getForeignSources</p>
+     *
+     * <p/>
+     * The REST API of OpenNMS has no list of the requisition names, so the names are taken from the cached requisitions.
+     * Only if the cache has no fresh snapshot all requisitions are downloaded, and the cache is filled for the next run.
+     *
+     * @param restConnectionParameter helper that keeps base URL, username, password and so on for rest communication with OpenNMS
+     * @param requisitionCache        local snapshots of already fetched requisitions, null to always fetch from OpenNMS
+     * @return Names of all foreign sources of the OpenNMS
+     */
+    public static List<String> getForeignSources(RestConnectionParameter restConnectionParameter, RequisitionSnapshotCache requisitionCache) {
+        List<String> foreignSources = new ArrayList<>();
+        RequisitionCollection allRequisitions = RestCategoryReader.getAllRequisitions(restConnectionParameter, requisitionCache);
+        if (allRequisitions != null) {
+            for (Requisition requisition : allRequisitions) {
+                foreignSources.add(requisition.getForeignSource());
+            }
+        }
+        return foreignSources;
+    }
+
+    /**
+     * Run one pipeline per foreign source on a bounded pool, a failing foreign source doesn't stop the others.
+     */
+    private static void runPerForeignSource(Map<String, Callable<Void>> pipelines, int threads, String action) {
+        if (pipelines.isEmpty()) {
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, pipelines.size())));
+        try {
+            Map<String, Future<Void>> results = new LinkedHashMap<>();
+            for (Map.Entry<String, Callable<Void>> entry : pipelines.entrySet()) {
+                results.put(entry.getKey(), executor.submit(entry.getValue()));
+            }
+
+            for (Map.Entry<String, Future<Void>> entry : results.entrySet()) {
+                try {
+                    entry.getValue().get();
+                    logger.info("{} of foreign source '{}' done", action, entry.getKey());
+                } catch (ExecutionException e) {
+                    logger.error("{} of foreign source '{}' went wrong", action, entry.getKey(), e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.error("{} of the foreign sources was interrupted", action, e);
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Write the plan of an import if a plan file is set.
+     */
+    private static void writePlan(CategoryPlan categoryPlan, CategoryImportParameter importParameter) {
+        if (importParameter.getPlanFile() == null) {
+            return;
+        }
+        try {
+            categoryPlan.write(importParameter.getPlanFile());
+            logger.info("Plan written to '{}'", importParameter.getPlanFile().getAbsoluteFile());
+        } catch (IOException e) {
+            logger.error("Error on writing plan to '{}'.", importParameter.getPlanFile().getAbsoluteFile(), e);
+        }
+    }
+
+    /**
+     * <p>importNodeToCategoryMappings</p>
+     * <p/>
+     * Fetch the requisition of the foreign source, apply the node to category mappings and send it back to OpenNMS.
+     *
+     * @param restConnectionParameter helper that keeps base URL, username, password and so on for rest communication with OpenNMS
+     * @param foreignSource           name of the foreign source to update note to category mappings
+     * @param synchronize             changes will not just be send to the remote system, they will also be synchronized.
+     * @param nodeToCategoryMappings  Node to category mappings from the spreadsheet
+     * @param importParameter         settings for sending the changes
+     * @param categoryPlan            Plan the changes are recorded in
+     */
+    private static void importNodeToCategoryMappings(RestConnectionParameter restConnectionParameter, String foreignSource, Boolean synchronize, Collection<NodeToCategoryMapping> nodeToCategoryMappings, CategoryImportParameter importParameter, CategoryPlan categoryPlan) {
+        RequisitionManager requisitionManager = fetchManagedRequisition(restConnectionParameter, foreignSource);
+        importNodeToCategoryMappings(restConnectionParameter, foreignSource, synchronize, requisitionManager, nodeToCategoryMappings, importParameter.isForeignIdKey(), importParameter, categoryPlan);
+    }
+
+    /**
+     * Apply the node to category mappings on the fetched requisition, send the changes and synchronize.
+     */
+    private static void importNodeToCategoryMappings(RestConnectionParameter restConnectionParameter, String foreignSource, Boolean synchronize, RequisitionManager requisitionManager, Collection<NodeToCategoryMapping> nodeToCategoryMappings, boolean foreignIdKey, CategoryImportParameter importParameter, CategoryPlan categoryPlan) {
+        long diffStart = System.nanoTime();
+        List<CategoryDelta> categoryDeltas = changeNodeToCategoryMappingsInManagedRequisition(nodeToCategoryMappings, requisitionManager.getRequisition(), foreignSource, categoryPlan, foreignIdKey);
+        PhaseMetrics.getDefault().recordPhase(PhaseMetrics.DIFF, diffStart);
+        recordChanges(categoryDeltas);
+        if (categoryDeltas.isEmpty()) {
+            logger.info("No node of '{}' has category changes, nothing is sent or synchronized", foreignSource);
+            return;
+        }
+        if (importParameter.getPlanFile() != null) {
+            logger.info("Planned changes for {} nodes of '{}', nothing is sent", categoryDeltas.size(), foreignSource);
+            return;
+        }
+        sendChanges(restConnectionParameter, foreignSource, requisitionManager, categoryDeltas, importParameter);
 
         if (synchronize) {
+            synchronizeManagedRequisition(foreignSource, requisitionManager, importParameter.getSynchronizeScheduler());
+        }
+    }
+
+    /**
+     * <p>applyPlannedChanges</p>
+     * <p/>
+     * Fetch the requisition of the foreign source, apply the planned changes and send it back to OpenNMS. Only
+     * categories which still have to be added or removed are sent.
+     *
+     * @param restConnectionParameter helper that keeps base URL, username, password and so on for rest communication with OpenNMS
+     * @param foreignSource           name of the foreign source to apply the plan on
+     * @param synchronize             changes will not just be send to the remote system, they will also be synchronized.
+     * @param categoryPlan            Plan with the changes of the foreign source
+     * @param importParameter         settings for sending the changes
+     */
+    private static void applyPlannedChanges(RestConnectionParameter restConnectionParameter, String foreignSource, Boolean synchronize, CategoryPlan categoryPlan, CategoryImportParameter importParameter) {
+        RequisitionManager requisitionManager = fetchManagedRequisition(restConnectionParameter, foreignSource);
+        long diffStart = System.nanoTime();
+        RequisitionNodeIndex nodeIndex = new RequisitionNodeIndex(requisitionManager.getRequisition());
+
+        List<CategoryDelta> categoryDeltas = new ArrayList<>();
+        for (CategoryDelta plannedDelta : categoryPlan.getChanges(foreignSource)) {
+            RequisitionNode requisitionNode = nodeIndex.getByForeignId(plannedDelta.getForeignId());
+            if (requisitionNode == null) {
+                logger.warn("RequisitionNode '{}' of the plan is unknown on the system", plannedDelta.getNodeLabel());
+                continue;
+            }
+
+            CategoryDelta categoryDelta = new CategoryDelta(requisitionNode.getForeignId(), requisitionNode.getNodeLabel());
+            for (String category : plannedDelta.getAddedCategories()) {
+                if (requisitionNode.getCategory(category) == null) {
+                    requisitionNode.putCategory(new RequisitionCategory(category));
+                    categoryDelta.addCategory(category);
+                }
+            }
+            for (String category : plannedDelta.getRemovedCategories()) {
+                if (requisitionNode.getCategory(category) != null) {
+                    requisitionNode.deleteCategory(category);
+                    categoryDelta.removeCategory(category);
+                }
+            }
+
+            if (categoryDelta.isEmpty()) {
+                logger.info("RequisitionNode '{}' has no updates", requisitionNode.getNodeLabel());
+            } else {
+                logger.info("RequisitionNode '{}' has updates", requisitionNode.getNodeLabel());
+                categoryDeltas.add(categoryDelta);
+            }
+        }
+        for (String nodeLabel : categoryPlan.getUnknownNodes(foreignSource)) {
+            logger.info("RequisitionNode '{}' was unknown on the system when the plan was made", nodeLabel);
+        }
+        PhaseMetrics.getDefault().recordPhase(PhaseMetrics.DIFF, diffStart);
+        recordChanges(categoryDeltas);
+        if (categoryDeltas.isEmpty()) {
+            logger.info("No node of '{}' has category changes, nothing is sent or synchronized", foreignSource);
+            return;
+        }
+
+        sendChanges(restConnectionParameter, foreignSource, requisitionManager, categoryDeltas, importParameter);
+
+        if (synchronize) {
+            synchronizeManagedRequisition(foreignSource, requisitionManager, importParameter.getSynchronizeScheduler());
+        }
+    }
+
+    /**
+     * Create the manager of a requisition and fetch the requisition.
+     */
+    private static RequisitionManager fetchManagedRequisition(RestConnectionParameter restConnectionParameter, String foreignSource) {
+        long downloadStart = System.nanoTime();
+        RequisitionManager requisitionManager = RestClientFactory.getDefault().createRequisitionManager(restConnectionParameter, foreignSource);
+        requisitionManager.getRequisition();
+        PhaseMetrics.getDefault().recordPhase(PhaseMetrics.DOWNLOAD, downloadStart);
+        return requisitionManager;
+    }
+
+    /**
+     * Synchronize right away without scheduler, otherwise the scheduler coalesces the request with the requests of
+     * other foreign source workers and invocations and retries failed synchronizes.
+     */
+    private static void synchronizeManagedRequisition(String foreignSource, final RequisitionManager requisitionManager, SynchronizeScheduler synchronizeScheduler) {
+        long synchronizeStart = System.nanoTime();
+        if (synchronizeScheduler == null) {
             requisitionManager.synchronizeManagedRequisitionOnOpenNMS();
+        } else {
+            try {
+                synchronizeScheduler.synchronize(foreignSource, new SynchronizeScheduler.Synchronizer() {
+                    @Override
+                    public void synchronize(String foreignSource) {
+                        requisitionManager.synchronizeManagedRequisitionOnOpenNMS();
+                    }
+                });
+            } catch (IOException e) {
+                logger.error("Schedule of the synchronize of '{}' not usable, synchronizing right away", foreignSource, e);
+                requisitionManager.synchronizeManagedRequisitionOnOpenNMS();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warn("Synchronize of '{}' was interrupted", foreignSource);
+            }
+        }
+        PhaseMetrics.getDefault().recordPhase(PhaseMetrics.SYNCHRONIZE, synchronizeStart);
+    }
+
+    private static void recordChanges(List<CategoryDelta> categoryDeltas) {
+        int addedCategories = 0;
+        int removedCategories = 0;
+        for (CategoryDelta categoryDelta : categoryDeltas) {
+            addedCategories += categoryDelta.getAddedCategories().size();
+            removedCategories += categoryDelta.getRemovedCategories().size();
+        }
+        PhaseMetrics metrics = PhaseMetrics.getDefault();
+        metrics.increment(PhaseMetrics.NODES_CHANGED, categoryDeltas.size());
+        metrics.increment(PhaseMetrics.CATEGORIES_ADDED, addedCategories);
+        metrics.increment(PhaseMetrics.CATEGORIES_REMOVED, removedCategories);
+    }
+
+    /**
+     * <p>sendChanges</p>
+     * <p/>
+     * In delta mode only the category changes of the changed nodes are sent, as long as the fraction of changed nodes
+     * stays below the threshold. Above the threshold, or if a delta is not accepted, the whole managed requisition is
+     * uploaded, it already contains all changes. A cached snapshot of the requisition is dropped.
+     *
+     * @param restConnectionParameter helper that keeps base URL, username, password and so on for rest communication with OpenNMS
+     * @param foreignSource           name of the foreign source of the managed requisition
+     * @param requisitionManager      Manager of the changed requisition
+     * @param categoryDeltas          Category changes of the changed nodes
+     * @param importParameter         settings for sending the changes
+     */
+    private static void sendChanges(RestConnectionParameter restConnectionParameter, String foreignSource, RequisitionManager requisitionManager, List<CategoryDelta> categoryDeltas, CategoryImportParameter importParameter) {
+        long uploadStart = System.nanoTime();
+        try {
+            // The requisition on the server changes, a cached snapshot of it is outdated
+            if (importParameter.getRequisitionCache() != null) {
+                importParameter.getRequisitionCache().invalidate(restConnectionParameter.getBaseUrl().toString(), foreignSource);
+            }
+
+            if (importParameter.isDeltaPush()) {
+                int nodeCount = requisitionManager.getRequisition().getNodes().size();
+                if (categoryDeltas.size() <= importParameter.getDeltaThreshold() * nodeCount) {
+                    logger.info("Sending {} of {} nodes of '{}' as delta", categoryDeltas.size(), nodeCount, foreignSource);
+                    try {
+                        new RestCategoryDeltaSender(restConnectionParameter, foreignSource).sendCategoryDeltas(categoryDeltas, importParameter.getThreads());
+                        return;
+                    } catch (IOException e) {
+                        logger.error("Sending deltas of '{}' went wrong, falling back to the upload of the whole requisition", foreignSource, e);
+                    }
+                } else {
+                    logger.info("{} of {} nodes of '{}' changed, above the delta threshold of {}, uploading the whole requisition", categoryDeltas.size(), nodeCount, foreignSource, importParameter.getDeltaThreshold());
+                }
+            }
+            requisitionManager.sendManagedRequisitionToOpenNMS();
+        } finally {
+            PhaseMetrics.getDefault().recordPhase(PhaseMetrics.UPLOAD, uploadStart);
         }
     }
 
@@ -86,10 +552,11 @@ public class RestCategoryProvisioner {
      * <p/>
      * Get a collection of all Node to category mappings from the ODS file.
      *
-     * @param odsFile the ODS File to read node to category mappings from
+     * @param odsFile         the ODS File to read node to category mappings from
+     * @param importParameter settings for reading the spreadsheet
      * @return Collection of NodeToCategoryMappings from ODS File
      */
-    private static Collection<NodeToCategoryMapping> readNodeToCategoryMappingsFromOdsFile(File odsFile) {
+    private static Collection<NodeToCategoryMapping> readNodeToCategoryMappingsFromOdsFile(File odsFile, CategoryImportParameter importParameter) {
 
         Collection<NodeToCategoryMapping> nodeToCategoryMappings = new ArrayList<>();
 
@@ -97,8 +564,11 @@ public class RestCategoryProvisioner {
         SpreadsheetReader spreadsheetReader;
 
         try {
-            spreadsheetReader = new SpreadsheetReader(odsFile);
+            long parseStart = System.nanoTime();
+            spreadsheetReader = new SpreadsheetReader(odsFile, importParameter.isStreaming(), importParameter.getThreads(), importParameter.isSkipUnchangedRows());
             nodeToCategoryMappings = spreadsheetReader.getNodeToCategoryMappingsFromFile();
+            PhaseMetrics.getDefault().recordPhase(PhaseMetrics.PARSE, parseStart);
+            PhaseMetrics.getDefault().increment(PhaseMetrics.ROWS_PARSED, nodeToCategoryMappings.size());
 
         } catch (IOException e) {
             logger.error("Error on reading spreadsheet with from '{}'.", odsFile.getAbsoluteFile(), e);
@@ -107,36 +577,79 @@ public class RestCategoryProvisioner {
         return nodeToCategoryMappings;
     }
 
-    private static void changeNodeToCategoryMappingsInManagedRequisition(Collection<NodeToCategoryMapping> nodeToCategoryMappings, RequisitionManager requisitionManager) {
+    /**
+     * <p>changeNodeToCategoryMappingsInManagedRequisition</p>
+     * <p/>
+     * Apply add and remove categories to the nodes of the managed requisition. The current categories of a node are
+     * translated into the bits of the mapping dictionary, so the new state is computed with word-wide bit operations:
+     * (current | add) & ~remove. Categories unknown to the dictionary are not touched. A node has updates if the new
+     * category set differs from the current one, so swapping one category for another is an update as well.
+     *
+     * @param nodeToCategoryMappings Node to category mappings from the spreadsheet
+     * @param requisition            Managed requisition to change
+     * @param foreignSource          name of the foreign source of the requisition
+     * @param categoryPlan           Plan the changes and unknown nodes are recorded in
+     * @param foreignIdKey           true if the first column of the spreadsheet holds foreign ids instead of node labels
+     * @return Category changes of all changed nodes
+     */
+    static List<CategoryDelta> changeNodeToCategoryMappingsInManagedRequisition(Collection<NodeToCategoryMapping> nodeToCategoryMappings, Requisition requisition, String foreignSource, CategoryPlan categoryPlan, boolean foreignIdKey) {
+        categoryPlan.addForeignSource(foreignSource);
+        List<CategoryDelta> categoryDeltas = new ArrayList<>();
+
+        // One index per managed requisition, every row is resolved without scanning the nodes
+        RequisitionNodeIndex nodeIndex = new RequisitionNodeIndex(requisition);
+        if (!foreignIdKey && !nodeIndex.getDuplicateLabels().isEmpty()) {
+            logger.warn("Node labels {} of '{}' are used by more than one node, rows with these labels are skipped. Use foreign ids as keys to change them.", nodeIndex.getDuplicateLabels(), foreignSource);
+        }
 
         for (NodeToCategoryMapping nodeToCategoryMapping : nodeToCategoryMappings) {
-            RequisitionNode requisitionNode = requisitionManager.getRequisitionNode(nodeToCategoryMapping.getNodeLabel());
+            RequisitionNode requisitionNode = nodeIndex.get(nodeToCategoryMapping.getNodeLabel(), foreignIdKey);
             if (requisitionNode != null) {
+                CategoryDictionary dictionary = nodeToCategoryMapping.getDictionary();
 
-                //add all set categories
-                Integer initialAmountOfCategories = requisitionNode.getCategories().size();
-                for (RequisitionCategory addCategory : nodeToCategoryMapping.getAddCategories()) {
-                    requisitionNode.putCategory(addCategory);
+                BitSet currentCategories = new BitSet();
+                for (RequisitionCategory category : requisitionNode.getCategories()) {
+                    int categoryId = dictionary.getId(category.getName());
+                    if (categoryId != CategoryDictionary.UNKNOWN) {
+                        currentCategories.set(categoryId);
+                    }
                 }
 
-                //remove all not set categories
-                Integer afterAddingAmountOfCategories = requisitionNode.getCategories().size();
-                for (RequisitionCategory removeCategory : nodeToCategoryMapping.getRemoveCategories()) {
-                    requisitionNode.deleteCategory(removeCategory);
-                }
-                Integer afterRemoveAmountOfCategories = requisitionNode.getCategories().size();
+                //add all set categories, remove all not set categories
+                BitSet newCategories = (BitSet) currentCategories.clone();
+                newCategories.or(nodeToCategoryMapping.getAddCategoryIds());
+                newCategories.andNot(nodeToCategoryMapping.getRemoveCategoryIds());
 
-                //compare amount of categories per step to identify changed requisition nodes
-                if (initialAmountOfCategories.equals(afterAddingAmountOfCategories) && afterAddingAmountOfCategories.equals(afterRemoveAmountOfCategories)) {
+                if (newCategories.equals(currentCategories)) {
                     logger.info("RequisitionNode '{}' has no updates", requisitionNode.getNodeLabel());
                 } else {
+                    CategoryDelta categoryDelta = new CategoryDelta(requisitionNode.getForeignId(), requisitionNode.getNodeLabel());
+                    BitSet addedCategories = (BitSet) newCategories.clone();
+                    addedCategories.andNot(currentCategories);
+                    for (int categoryId = addedCategories.nextSetBit(0); categoryId >= 0; categoryId = addedCategories.nextSetBit(categoryId + 1)) {
+                        requisitionNode.putCategory(dictionary.getCategory(categoryId));
+                        categoryDelta.addCategory(dictionary.getName(categoryId));
+                    }
+
+                    BitSet removedCategories = currentCategories;
+                    removedCategories.andNot(newCategories);
+                    for (int categoryId = removedCategories.nextSetBit(0); categoryId >= 0; categoryId = removedCategories.nextSetBit(categoryId + 1)) {
+                        requisitionNode.deleteCategory(dictionary.getCategory(categoryId));
+                        categoryDelta.removeCategory(dictionary.getName(categoryId));
+                    }
+
                     logger.info("RequisitionNode '{}' has updates", requisitionNode.getNodeLabel());
-                    requisitionManager.getRequisition().putNode(requisitionNode);
+                    categoryDeltas.add(categoryDelta);
+                    categoryPlan.addChange(foreignSource, categoryDelta);
                 }
 
+            } else if (!foreignIdKey && nodeIndex.isDuplicateLabel(nodeToCategoryMapping.getNodeLabel())) {
+                logger.warn("RequisitionNode '{}' is ambiguous and is skipped", nodeToCategoryMapping.getNodeLabel());
             } else {
                 logger.info("RequisitionNode '{}' is unknown on the system", nodeToCategoryMapping.getNodeLabel());
+                categoryPlan.addUnknownNode(foreignSource, nodeToCategoryMapping.getNodeLabel());
             }
         }
+        return categoryDeltas;
     }
-}
\ No newline at end of file
+}
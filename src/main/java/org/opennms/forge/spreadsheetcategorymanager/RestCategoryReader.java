@@ -21,14 +21,27 @@
 package org.opennms.forge.spreadsheetcategorymanager;
 
 import org.opennms.forge.restclient.api.RestRequisitionProvider;
+import org.opennms.forge.spreadsheetcategorymanager.utils.ExportSnapshotStore;
+import org.opennms.forge.spreadsheetcategorymanager.utils.PhaseMetrics;
+import org.opennms.forge.spreadsheetcategorymanager.utils.PreparedTemplate;
+import org.opennms.forge.spreadsheetcategorymanager.utils.RequisitionSnapshotCache;
 import org.opennms.netmgt.provision.persist.requisition.Requisition;
 import org.opennms.netmgt.provision.persist.requisition.RequisitionCollection;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.opennms.forge.restclient.utils.RestConnectionParameter;
 
 /**
@@ -63,20 +76,142 @@ public final class RestCategoryReader {
      * @return The generated OdsFile for the foreignSource of the remote OpenNMS defined in the connectionParameter.
      */
     public static File generateOdsFile(String foreignSource, RestConnectionParameter connectionParameter, File templateOds) {
-        Requisition requisition = new RestRequisitionProvider(connectionParameter).getRequisition(foreignSource, "");
+        return generateOdsFile(foreignSource, connectionParameter, templateOds, false);
+    }
+
+    /**
+     * <p>generateOdsFile</p>
+     * <p/>
+     * Generate an ODS file from an OpenNMS provisioning requisition identified by foreignSource.
+     * <p/>
+     * @param foreignSource the name of the foreignSource to read into a ODS file.
+     * @param connectionParameter object that keeps baseUrl, user, password and so on for the rest calls
+     * @param streaming write the ODS file row by row instead of building the whole document in memory
+     * @return The generated OdsFile for the foreignSource of the remote OpenNMS defined in the connectionParameter.
+     */
+    public static File generateOdsFile(String foreignSource, RestConnectionParameter connectionParameter, File templateOds, boolean streaming) {
+        return generateOdsFile(foreignSource, connectionParameter, templateOds, new SpreadsheetWriter(streaming), null);
+    }
+
+    /**
+     * <p>generateOdsFile</p>
+     * <p/>
+     * Generate an ODS file from an OpenNMS provisioning requisition identified by foreignSource.
+     * <p/>
+     * @param foreignSource the name of the foreignSource to read into a ODS file.
+     * @param connectionParameter object that keeps baseUrl, user, password and so on for the rest calls
+     * @param spreadsheetWriter writer with the layout options for the ODS file
+     * @param requisitionCache local snapshots of already fetched requisitions, null to always fetch from OpenNMS
+     * @return The generated OdsFile for the foreignSource of the remote OpenNMS defined in the connectionParameter.
+     */
+    public static File generateOdsFile(String foreignSource, RestConnectionParameter connectionParameter, File templateOds, SpreadsheetWriter spreadsheetWriter, RequisitionSnapshotCache requisitionCache) {
+        return generateOdsFile(foreignSource, connectionParameter, templateOds, spreadsheetWriter, requisitionCache, null);
+    }
+
+    /**
+     * <p>generateOdsFile</p>
+     * <p/>
+     * Generate an ODS file from an OpenNMS provisioning requisition identified by foreignSource. With a snapshot store
+     * only the nodes changed since the last export are written.
+     * <p/>
+     * @param foreignSource the name of the foreignSource to read into a ODS file.
+     * @param connectionParameter object that keeps baseUrl, user, password and so on for the rest calls
+     * @param spreadsheetWriter writer with the layout options for the ODS file
+     * @param requisitionCache local snapshots of already fetched requisitions, null to always fetch from OpenNMS
+     * @param snapshotStore snapshots of the last exports, null to always export all nodes
+     * @return The generated OdsFile for the foreignSource of the remote OpenNMS defined in the connectionParameter,
+     * null if no node changed since the last export.
+     */
+    public static File generateOdsFile(String foreignSource, RestConnectionParameter connectionParameter, File templateOds, SpreadsheetWriter spreadsheetWriter, RequisitionSnapshotCache requisitionCache, ExportSnapshotStore snapshotStore) {
+        Requisition requisition = getRequisition(foreignSource, connectionParameter, requisitionCache);
+
+        File generatedOdsFile = writeOdsFile(spreadsheetWriter, requisition, checkTemplate(templateOds), connectionParameter.getBaseUrl().toString(), snapshotStore);
+
+        return generatedOdsFile;
+    }
+
+    /**
+     * <p>exportOdsFile</p>
+     * <p/>
+     * Write the spreadsheet of an OpenNMS provisioning requisition identified by foreignSource straight into a stream,
+     * e.g. stdout or a socket. No file is written, all nodes are exported.
+     * <p/>
+     * @param foreignSource the name of the foreignSource to export.
+     * @param connectionParameter object that keeps baseUrl, user, password and so on for the rest calls
+     * @param spreadsheetWriter writer with the layout options and the format of the spreadsheet
+     * @param requisitionCache local snapshots of already fetched requisitions, null to always fetch from OpenNMS
+     * @param output stream for the spreadsheet, it is flushed but not closed
+     * @throws IOException if the requisition doesn't exist or writing the spreadsheet went wrong
+     */
+    public static void exportOdsFile(String foreignSource, RestConnectionParameter connectionParameter, File templateOds, SpreadsheetWriter spreadsheetWriter, RequisitionSnapshotCache requisitionCache, OutputStream output) throws IOException {
+        Requisition requisition = getRequisition(foreignSource, connectionParameter, requisitionCache);
+        if (requisition == null) {
+            throw new IOException("Requisition '" + foreignSource + "' doesn't exist");
+        }
+        PreparedTemplate template = spreadsheetWriter.getPreparedTemplate(checkTemplate(templateOds));
+        if (template == null) {
+            throw new IOException("No readable ODS template");
+        }
+
+        long writeStart = System.nanoTime();
+        spreadsheetWriter.writeSpreadsheet(requisition, output, template);
+        PhaseMetrics.getDefault().recordPhase(PhaseMetrics.WRITE, writeStart);
+        PhaseMetrics.getDefault().increment(PhaseMetrics.NODES_EXPORTED, requisition.getNodes().size());
+    }
+
+    /**
+     * Requisition of a foreign source from the cache or from OpenNMS.
+     */
+    private static Requisition getRequisition(String foreignSource, RestConnectionParameter connectionParameter, RequisitionSnapshotCache requisitionCache) {
+        Requisition requisition = null;
+        String baseUrl = connectionParameter.getBaseUrl().toString();
+        if (requisitionCache != null) {
+            requisition = requisitionCache.getRequisition(baseUrl, foreignSource);
+        }
+        if (requisition == null) {
+            long downloadStart = System.nanoTime();
+            requisition = RestClientFactory.getDefault().getRequisitionProvider(connectionParameter).getRequisition(foreignSource, "");
+            PhaseMetrics.getDefault().recordPhase(PhaseMetrics.DOWNLOAD, downloadStart);
+            if (requisitionCache != null && requisition != null) {
+                requisitionCache.putRequisition(baseUrl, requisition);
+            }
+        }
+        return requisition;
+    }
+
+    /**
+     * All requisitions from the cache or from OpenNMS, a download fills the cache for the next invocations.
+     */
+    static RequisitionCollection getAllRequisitions(RestConnectionParameter connectionParameter, RequisitionSnapshotCache requisitionCache) {
+        RequisitionCollection allRequisitions = null;
+        String baseUrl = connectionParameter.getBaseUrl().toString();
+        if (requisitionCache != null) {
+            allRequisitions = requisitionCache.getAllRequisitions(baseUrl);
+        }
+        if (allRequisitions == null) {
+            long downloadStart = System.nanoTime();
+            RestRequisitionProvider requisitionProvider = RestClientFactory.getDefault().getRequisitionProvider(connectionParameter);
+            allRequisitions = requisitionProvider.getAllRequisitions("");
+            PhaseMetrics.getDefault().recordPhase(PhaseMetrics.DOWNLOAD, downloadStart);
+            if (requisitionCache != null && allRequisitions != null) {
+                requisitionCache.putAllRequisitions(baseUrl, allRequisitions);
+            }
+        }
+        return allRequisitions;
+    }
 
+    /**
+     * @return the template or null for the default template if it is not readable
+     */
+    private static File checkTemplate(File templateOds) {
         if (templateOds != null) {
             if (!(templateOds.exists() && templateOds.canRead())) {
                 logger.error("Ods template file '{}' dose not exist, or is not readable.", templateOds);
                 logger.error("Fallback to default ods template");
-                templateOds = null;
+                return null;
             }
         }
-
-        SpreadsheetWriter spreadsheetWriter = new SpreadsheetWriter();
-        File generatedOdsFile = spreadsheetWriter.getSpreadsheetFromRequisition(requisition, templateOds);
-
-        return generatedOdsFile;
+        return templateOds;
     }
 
     /**
@@ -85,23 +220,170 @@ public final class RestCategoryReader {
      * @return A List of generated OdsFiles for all foreignSources of the remote opennms defined in the connectionParameter.
      */
     public static List<File> generateAllOdsFiles(RestConnectionParameter connectionParameter, File templateOds) {
+        return generateAllOdsFiles(connectionParameter, templateOds, false);
+    }
+
+    /**
+     *
+     * @param connectionParameter object that keeps baseUrl, user, password and so on for the rest calls
+     * @param streaming write the ODS files row by row instead of building the whole documents in memory
+     * @return A List of generated OdsFiles for all foreignSources of the remote opennms defined in the connectionParameter.
+     */
+    public static List<File> generateAllOdsFiles(RestConnectionParameter connectionParameter, File templateOds, boolean streaming) {
+        return generateAllOdsFiles(connectionParameter, templateOds, streaming, 1);
+    }
+
+    /**
+     * Every requisition is rendered and saved on its own worker, a failing foreign source doesn't stop the others.
+     *
+     * @param connectionParameter object that keeps baseUrl, user, password and so on for the rest calls
+     * @param streaming write the ODS files row by row instead of building the whole documents in memory
+     * @param threads amount of requisitions exported concurrently
+     * @return A List of generated OdsFiles for all foreignSources of the remote opennms defined in the connectionParameter,
+     * in the order of the requisitions. Foreign sources which failed are left out.
+     */
+    public static List<File> generateAllOdsFiles(RestConnectionParameter connectionParameter, File templateOds, boolean streaming, int threads) {
+        return generateAllOdsFiles(connectionParameter, templateOds, new SpreadsheetWriter(streaming), threads, null);
+    }
+
+    /**
+     * Every requisition is rendered and saved on its own worker, a failing foreign source doesn't stop the others.
+     *
+     * @param connectionParameter object that keeps baseUrl, user, password and so on for the rest calls
+     * @param spreadsheetWriter writer with the layout options for the ODS files, it is shared by the workers
+     * @param threads amount of requisitions exported concurrently
+     * @param requisitionCache local snapshots of already fetched requisitions, null to always fetch from OpenNMS
+     * @return A List of generated OdsFiles for all foreignSources of the remote opennms defined in the connectionParameter,
+     * in the order of the requisitions. Foreign sources which failed are left out.
+     */
+    public static List<File> generateAllOdsFiles(RestConnectionParameter connectionParameter, File templateOds, SpreadsheetWriter spreadsheetWriter, int threads, RequisitionSnapshotCache requisitionCache) {
+        return generateAllOdsFiles(connectionParameter, templateOds, spreadsheetWriter, threads, requisitionCache, null);
+    }
+
+    /**
+     * Every requisition is rendered and saved on its own worker, a failing foreign source doesn't stop the others. With
+     * a snapshot store foreign sources without changes since the last export are skipped, the others get an ODS file
+     * with just the changed nodes.
+     *
+     * @param connectionParameter object that keeps baseUrl, user, password and so on for the rest calls
+     * @param spreadsheetWriter writer with the layout options for the ODS files, it is shared by the workers
+     * @param threads amount of requisitions exported concurrently
+     * @param requisitionCache local snapshots of already fetched requisitions, null to always fetch from OpenNMS
+     * @param snapshotStore snapshots of the last exports, null to always export all nodes
+     * @return A List of generated OdsFiles for all foreignSources of the remote opennms defined in the connectionParameter,
+     * in the order of the requisitions. Foreign sources which failed or didn't change are left out.
+     */
+    public static List<File> generateAllOdsFiles(RestConnectionParameter connectionParameter, File templateOds, final SpreadsheetWriter spreadsheetWriter, int threads, RequisitionSnapshotCache requisitionCache, final ExportSnapshotStore snapshotStore) {
         List<File> odsFiles = new ArrayList<>();
 
-        RestRequisitionProvider requisitionProvider = new RestRequisitionProvider(connectionParameter);
-        RequisitionCollection allRequisitions = requisitionProvider.getAllRequisitions("");
+        RequisitionCollection allRequisitions = getAllRequisitions(connectionParameter, requisitionCache);
+        final String baseUrl = connectionParameter.getBaseUrl().toString();
 
-        if (templateOds != null) {
-            if (!(templateOds.exists() && templateOds.canRead())) {
-                logger.error("Ods template file '{}' dose not exist, or is not readable.", templateOds);
-                logger.error("Fallback to default ods template");
-                templateOds = null;
+        final File template = checkTemplate(templateOds);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, allRequisitions.size())));
+        try {
+            // Futures are collected in requisition order, so the result order doesn't depend on the scheduling
+            List<Future<File>> generatedOdsFiles = new ArrayList<>();
+            List<String> foreignSources = new ArrayList<>();
+            for (final Requisition requisition : allRequisitions) {
+                foreignSources.add(requisition.getForeignSource());
+                generatedOdsFiles.add(executor.submit(new Callable<File>() {
+                    @Override
+                    public File call() {
+                        return writeOdsFile(spreadsheetWriter, requisition, template, baseUrl, snapshotStore);
+                    }
+                }));
             }
-        }
 
-        SpreadsheetWriter spreadsheetWriter = new SpreadsheetWriter();
-        for (Requisition requisition : allRequisitions) {
-            odsFiles.add(spreadsheetWriter.getSpreadsheetFromRequisition(requisition, templateOds));
+            for (int i = 0; i < generatedOdsFiles.size(); i++) {
+                try {
+                    File odsFile = generatedOdsFiles.get(i).get();
+                    if (odsFile != null) {
+                        odsFiles.add(odsFile);
+                    }
+                } catch (ExecutionException ex) {
+                    logger.error("Generating ODS file for foreign source '{}' went wrong", foreignSources.get(i), ex.getCause());
+                }
+            }
+        } catch (InterruptedException ex) {
+            logger.error("Generating ODS files was interrupted", ex);
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
         }
         return odsFiles;
     }
-}
\ No newline at end of file
+
+    /**
+     * Write the ODS file of the nodes changed since the last export and save the snapshot of the requisition. Without
+     * snapshot store or snapshot of the foreign source written with the same writer settings all nodes are written. The snapshot is only saved after the
+     * file was written, otherwise the next export would skip the nodes of the failed one.
+     *
+     * @return the ODS file or null if no node changed or the file couldn't be written
+     */
+    static File writeOdsFile(SpreadsheetWriter spreadsheetWriter, Requisition requisition, File templateOds, String baseUrl, ExportSnapshotStore snapshotStore) {
+        if (snapshotStore == null) {
+            return writeOdsFile(spreadsheetWriter, requisition, templateOds);
+        }
+
+        String writerSettings = spreadsheetWriter.getSettings(templateOds);
+        long diffStart = System.nanoTime();
+        ExportSnapshotStore.SnapshotDiff diff = snapshotStore.diff(baseUrl, requisition, spreadsheetWriter.isForeignIdKey(), writerSettings);
+        PhaseMetrics.getDefault().recordPhase(PhaseMetrics.DIFF, diffStart);
+
+        File odsFile = null;
+        if (diff == null) {
+            odsFile = writeOdsFile(spreadsheetWriter, requisition, templateOds);
+            if (odsFile == null) {
+                return null;
+            }
+        } else {
+            if (diff.getRemovedNodes() > 0) {
+                logger.info("{} nodes of '{}' were removed since the last export", diff.getRemovedNodes(), requisition.getForeignSource());
+            }
+            if (diff.getChangedNodes().isEmpty()) {
+                logger.info("No node of '{}' changed since the last export, no ODS file is written", requisition.getForeignSource());
+                PhaseMetrics.getDefault().increment(PhaseMetrics.SOURCES_UNCHANGED, 1);
+                if (diff.isUnchanged()) {
+                    return null;
+                }
+            } else {
+                logger.info("{} of {} nodes of '{}' changed since the last export", diff.getChangedNodes().size(), requisition.getNodes().size(), requisition.getForeignSource());
+                odsFile = writeOdsFile(spreadsheetWriter, getChangedRequisition(requisition, diff.getChangedNodes(), spreadsheetWriter.isForeignIdKey()), templateOds);
+                if (odsFile == null) {
+                    return null;
+                }
+            }
+        }
+        snapshotStore.put(baseUrl, requisition, spreadsheetWriter.isForeignIdKey(), writerSettings);
+        return odsFile;
+    }
+
+    /**
+     * Copy of the requisition with the changed nodes only.
+     */
+    private static Requisition getChangedRequisition(Requisition requisition, Set<String> changedNodes, boolean foreignIdKey) {
+        List<RequisitionNode> nodes = new ArrayList<>();
+        for (RequisitionNode node : requisition.getNodes()) {
+            if (changedNodes.contains(foreignIdKey ? node.getForeignId() : node.getNodeLabel())) {
+                nodes.add(node);
+            }
+        }
+        Requisition changedRequisition = new Requisition(requisition.getForeignSource());
+        changedRequisition.setNodes(nodes);
+        return changedRequisition;
+    }
+
+    /**
+     * Write the ODS file of a requisition and record the time and the exported nodes.
+     */
+    private static File writeOdsFile(SpreadsheetWriter spreadsheetWriter, Requisition requisition, File templateOds) {
+        long writeStart = System.nanoTime();
+        File odsFile = spreadsheetWriter.getSpreadsheetFromRequisition(requisition, templateOds);
+        PhaseMetrics.getDefault().recordPhase(PhaseMetrics.WRITE, writeStart);
+        if (odsFile != null) {
+            PhaseMetrics.getDefault().increment(PhaseMetrics.NODES_EXPORTED, requisition.getNodes().size());
+        }
+        return odsFile;
+    }
+}
@@ -0,0 +1,209 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.forge.spreadsheetcategorymanager;
+
+import org.opennms.forge.provisioningrestclient.api.RequisitionManager;
+import org.opennms.forge.restclient.api.RestRequisitionProvider;
+import org.opennms.forge.restclient.utils.RestConnectionParameter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.bind.DatatypeConverter;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>RestClientFactory class.</p>
+ * <p/>
+ * Single place where the REST clients for OpenNMS are created. One requisition provider and one authorization header
+ * are kept per base URL and user and shared by all exports and imports of the process. A requisition manager holds the
+ * requisition it changes and opens its own connections inside the REST client library, so it can't be pooled and every
+ * import gets a new one.
+ * <p/>
+ * The connections opened by the factory get its timeouts one by one. The keep alive pool of HttpURLConnection and the
+ * default timeouts used by the REST client library are settings of the whole JVM, the JDK reads them once with the
+ * first connection. The Starter sets them before the first request, they can't differ per base URL.
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+public class RestClientFactory {
+
+    private static Logger logger = LoggerFactory.getLogger(RestClientFactory.class);
+
+    /**
+     * Default amount of idle connections the JVM keeps alive per server, set once by the Starter
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS = 16;
+
+    /**
+     * Default time to connect to a server, ten seconds
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10 * 1000;
+
+    /**
+     * Default time to wait for data of a response, five minutes for the export of large requisitions
+     */
+    public static final int DEFAULT_READ_TIMEOUT = 5 * 60 * 1000;
+
+    private static RestClientFactory s_default;
+
+    private final int m_connectTimeout;
+
+    private final int m_readTimeout;
+
+    /**
+     * Requisition providers by base URL and user
+     */
+    private final Map<String, RestRequisitionProvider> m_requisitionProviders = new HashMap<>();
+
+    /**
+     * Basic authorization headers by credentials
+     */
+    private final Map<String, String> m_authorizations = new HashMap<>();
+
+    /**
+     * @param connectTimeout milliseconds to connect to a server, 0 waits forever
+     * @param readTimeout    milliseconds to wait for data of a response, 0 waits forever
+     */
+    public RestClientFactory(int connectTimeout, int readTimeout) {
+        this.m_connectTimeout = connectTimeout;
+        this.m_readTimeout = readTimeout;
+    }
+
+    /**
+     * <p>getDefault</p>
+     * <p/>
+     * Factory shared by the whole process, created with the default settings if none was set.
+     *
+     * @return Shared factory as {@link RestClientFactory}
+     */
+    public static synchronized RestClientFactory getDefault() {
+        if (s_default == null) {
+            s_default = new RestClientFactory(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+        }
+        return s_default;
+    }
+
+    /**
+     * <p>setDefault</p>
+     * <p/>
+     * Replace the factory shared by the whole process, call it before the first request.
+     *
+     * @param restClientFactory Shared factory as {@link RestClientFactory}
+     */
+    public static synchronized void setDefault(RestClientFactory restClientFactory) {
+        s_default = restClientFactory;
+    }
+
+    /**
+     * <p>getRequisitionProvider</p>
+     * <p/>
+     * Requisition provider of the server, created once per base URL and user.
+     *
+     * @param restConnectionParameter helper that keeps base URL, username, password and so on for rest communication with OpenNMS
+     * @return Shared provider as {@link org.opennms.forge.restclient.api.RestRequisitionProvider}
+     */
+    public synchronized RestRequisitionProvider getRequisitionProvider(RestConnectionParameter restConnectionParameter) {
+        String clientKey = getClientKey(restConnectionParameter);
+        RestRequisitionProvider requisitionProvider = m_requisitionProviders.get(clientKey);
+        if (requisitionProvider == null) {
+            logger.debug("Creating requisition provider for '{}'", restConnectionParameter.getBaseUrl());
+            requisitionProvider = new RestRequisitionProvider(restConnectionParameter);
+            m_requisitionProviders.put(clientKey, requisitionProvider);
+        }
+        return requisitionProvider;
+    }
+
+    /**
+     * <p>createRequisitionManager</p>
+     * <p/>
+     * A requisition manager holds the requisition it changes and opens its own connections, so every import gets a new
+     * one.
+     *
+     * @param restConnectionParameter helper that keeps base URL, username, password and so on for rest communication with OpenNMS
+     * @param foreignSource           name of the foreign source to manage
+     * @return New manager as {@link org.opennms.forge.provisioningrestclient.api.RequisitionManager}
+     */
+    public RequisitionManager createRequisitionManager(RestConnectionParameter restConnectionParameter, String foreignSource) {
+        return new RequisitionManager(restConnectionParameter, foreignSource);
+    }
+
+    /**
+     * <p>openConnection</p>
+     * <p/>
+     * Open a request on a path below the base URL with the timeouts of the factory and the authorization of the user.
+     *
+     * @param restConnectionParameter helper that keeps base URL, username, password and so on for rest communication with OpenNMS
+     * @param path                    path relative to the base URL as {@link java.lang.String}
+     * @param method                  HTTP method as {@link java.lang.String}
+     * @return Connection which is not connected yet as {@link java.net.HttpURLConnection}
+     * @throws IOException if the URL is invalid
+     */
+    public HttpURLConnection openConnection(RestConnectionParameter restConnectionParameter, String path, String method) throws IOException {
+        String baseUrl = restConnectionParameter.getBaseUrl().toString();
+        URL url = new URL(baseUrl.endsWith("/") ? baseUrl + path : baseUrl + "/" + path);
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(m_connectTimeout);
+        connection.setReadTimeout(m_readTimeout);
+        connection.setUseCaches(false);
+        connection.setRequestProperty("Authorization", getAuthorization(restConnectionParameter));
+        return connection;
+    }
+
+    public int getConnectTimeout() {
+        return m_connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return m_readTimeout;
+    }
+
+    private synchronized String getAuthorization(RestConnectionParameter restConnectionParameter) throws UnsupportedEncodingException {
+        String credentials = restConnectionParameter.getUsername() + ":" + restConnectionParameter.getPassword();
+        String authorization = m_authorizations.get(credentials);
+        if (authorization == null) {
+            authorization = "Basic " + DatatypeConverter.printBase64Binary(credentials.getBytes("UTF-8"));
+            m_authorizations.put(credentials, authorization);
+        }
+        return authorization;
+    }
+
+    private static String getClientKey(RestConnectionParameter restConnectionParameter) {
+        return restConnectionParameter.getUsername() + "@" + restConnectionParameter.getBaseUrl();
+    }
+}
@@ -22,19 +22,34 @@ package org.opennms.forge.spreadsheetcategorymanager;
 
 import org.odftoolkit.odfdom.doc.OdfSpreadsheetDocument;
 import org.odftoolkit.odfdom.doc.table.OdfTable;
-import org.odftoolkit.odfdom.doc.table.OdfTableColumn;
-import org.odftoolkit.odfdom.doc.table.OdfTableRow;
+import org.odftoolkit.odfdom.dom.element.table.TableTableCellElementBase;
+import org.odftoolkit.odfdom.dom.element.table.TableTableHeaderRowsElement;
+import org.odftoolkit.odfdom.dom.element.table.TableTableRowElement;
+import org.odftoolkit.odfdom.dom.element.table.TableTableRowGroupElement;
+import org.odftoolkit.odfdom.dom.element.table.TableTableRowsElement;
+import org.odftoolkit.odfdom.incubator.doc.text.OdfWhitespaceProcessor;
+import org.opennms.forge.spreadsheetcategorymanager.utils.CategoryDictionary;
+import org.opennms.forge.spreadsheetcategorymanager.utils.CategoryMatrix;
 import org.opennms.forge.spreadsheetcategorymanager.utils.NodeToCategoryMapping;
-import org.opennms.netmgt.provision.persist.requisition.RequisitionCategory;
+import org.opennms.forge.spreadsheetcategorymanager.utils.DelimitedTableStreamParser;
+import org.opennms.forge.spreadsheetcategorymanager.utils.OdsTableStreamParser;
+import org.opennms.forge.spreadsheetcategorymanager.utils.SparseRow;
+import org.opennms.forge.spreadsheetcategorymanager.utils.RowFingerprint;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.Node;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * <p>SpreadsheetReader class.</p>
@@ -53,8 +68,66 @@ public class SpreadsheetReader {
      */
     private final File m_odsFile;
 
+    /**
+     * Read content.xml with a pull parser instead of loading the whole document
+     */
+    private final boolean m_streaming;
+
+    /**
+     * Amount of tables read concurrently
+     */
+    private final int m_threads;
+
+    /**
+     * Skip rows whose fingerprint matches the marked categories, they are unchanged since the export
+     */
+    private final boolean m_skipUnchangedRows;
+
+    /**
+     * Category ids shared by all mappings of this reader
+     */
+    private final CategoryDictionary m_categoryDictionary = new CategoryDictionary();
+
+    /**
+     * Group of all tables if the mappings are not grouped by foreign source
+     */
+    private static final String ALL_TABLES = "";
+
     public SpreadsheetReader(File odsFile) throws IOException {
+        this(odsFile, false);
+    }
+
+    /**
+     * @param odsFile   Spreadsheet with nodes and category mapping as {@link java.io.File}
+     * @param streaming true to stream the rows of the content.xml, memory stays flat for large spreadsheets
+     * @throws IOException if the file doesn't exist or is not readable
+     */
+    public SpreadsheetReader(File odsFile, boolean streaming) throws IOException {
+        this(odsFile, streaming, 1);
+    }
+
+    /**
+     * @param odsFile   Spreadsheet with nodes and category mapping as {@link java.io.File}
+     * @param streaming true to stream the rows of the content.xml, memory stays flat for large spreadsheets
+     * @param threads   amount of tables read concurrently, the streaming mode reads the tables in document order
+     * @throws IOException if the file doesn't exist or is not readable
+     */
+    public SpreadsheetReader(File odsFile, boolean streaming, int threads) throws IOException {
+        this(odsFile, streaming, threads, false);
+    }
+
+    /**
+     * @param odsFile           Spreadsheet with nodes and category mapping as {@link java.io.File}
+     * @param streaming         true to stream the rows of the content.xml, memory stays flat for large spreadsheets
+     * @param threads           amount of tables read concurrently, the streaming mode reads the tables in document order
+     * @param skipUnchangedRows true to skip rows which still match the fingerprint written on export
+     * @throws IOException if the file doesn't exist or is not readable
+     */
+    public SpreadsheetReader(File odsFile, boolean streaming, int threads, boolean skipUnchangedRows) throws IOException {
         this.m_odsFile = odsFile;
+        this.m_streaming = streaming;
+        this.m_threads = Math.max(1, threads);
+        this.m_skipUnchangedRows = skipUnchangedRows;
 
         if (!(this.m_odsFile.exists() && this.m_odsFile.canRead())) {
             // The file does not exist and is not readable
@@ -64,59 +137,373 @@ public class SpreadsheetReader {
     }
 
     public Collection<NodeToCategoryMapping> getNodeToCategoryMappingsFromFile() {
-        Map<String, NodeToCategoryMapping> nodesToCategories = new HashMap<>();
+        Map<String, NodeToCategoryMapping> nodesToCategories = readNodeToCategoryMappings(false).get(ALL_TABLES);
+        return nodesToCategories != null ? nodesToCategories.values() : new ArrayList<NodeToCategoryMapping>();
+    }
+
+    /**
+     * <p>getNodeToCategoryMappingsByForeignSource</p>
+     * <p/>
+     * Group the tables of the workbook by the content of their first header cell, which names the foreign source of
+     * the table. Tables of the same foreign source are merged in table order, tables without a foreign source are
+     * skipped.
+     *
+     * @return NodeToCategoryMappings by foreign source in order of their first table as {@link java.util.Map}
+     */
+    public Map<String, Collection<NodeToCategoryMapping>> getNodeToCategoryMappingsByForeignSource() {
+        Map<String, Collection<NodeToCategoryMapping>> mappingsByForeignSource = new LinkedHashMap<>();
+        for (Map.Entry<String, Map<String, NodeToCategoryMapping>> entry : readNodeToCategoryMappings(true).entrySet()) {
+            mappingsByForeignSource.put(entry.getKey(), entry.getValue().values());
+        }
+        return mappingsByForeignSource;
+    }
+
+    /**
+     * Read all tables, the mappings are grouped by foreign source or collected under {@link #ALL_TABLES}.
+     */
+    private Map<String, Map<String, NodeToCategoryMapping>> readNodeToCategoryMappings(boolean groupByForeignSource) {
+        if (m_streaming || DelimitedTableStreamParser.isDelimited(this.m_odsFile.getName())) {
+            return getNodeToCategoryMappingsFromStream(groupByForeignSource);
+        }
+        Map<String, Map<String, NodeToCategoryMapping>> nodesToCategoriesByGroup = new LinkedHashMap<>();
+        ExecutorService executor = null;
 
         try {
             OdfSpreadsheetDocument spreadsheet = OdfSpreadsheetDocument.loadDocument(this.m_odsFile);
+            List<OdfTable> tables = spreadsheet.getTableList();
 
-            for (OdfTable table : spreadsheet.getTableList()) {
-                nodesToCategories = getNodeToCategoryMappingsFromTable(nodesToCategories, table);
+            // Every table is read into its own matrix on a worker. The matrices are merged in table order, so the result
+            // is the same as reading the tables one after another.
+            executor = Executors.newFixedThreadPool(Math.max(1, Math.min(m_threads, tables.size())));
+            List<Future<CategoryMatrix>> categoryMatrices = new ArrayList<>();
+            for (final OdfTable table : tables) {
+                categoryMatrices.add(executor.submit(new Callable<CategoryMatrix>() {
+                    @Override
+                    public CategoryMatrix call() {
+                        logger.info("Reading Nodes and Categories from '{}'", table.getTableName());
+                        return readCategoryMatrix(table);
+                    }
+                }));
+            }
+
+            for (Future<CategoryMatrix> categoryMatrixFuture : categoryMatrices) {
+                CategoryMatrix categoryMatrix = categoryMatrixFuture.get();
+                Map<String, NodeToCategoryMapping> nodesToCategories = getGroup(nodesToCategoriesByGroup, groupByForeignSource, categoryMatrix.getTableName(), categoryMatrix.getForeignSource());
+                if (nodesToCategories != null) {
+                    getNodeToCategoryMappingsFromMatrix(nodesToCategories, categoryMatrix);
+                }
             }
 
         } catch (Exception ex) {
             logger.error("Reading spreadsheet went wrong", ex);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
         }
 
-        return nodesToCategories.values();
+        return nodesToCategoriesByGroup;
     }
 
-    private Map<String, NodeToCategoryMapping> getNodeToCategoryMappingsFromTable(Map<String, NodeToCategoryMapping> nodesToCategories, OdfTable table) {
-        logger.info("Reading Nodes and Categories from '{}'", table.getTableName());
-        OdfTableColumn nodeColumn = table.getColumnByIndex(0);
-        OdfTableRow categoryRow = table.getRowByIndex(0);
-        NodeToCategoryMapping nodeToCategoryMapping;
-
-        //Build a list of all Categories
-        List<String> categories = new LinkedList<>();
-        int categoryIndex = 1;
-        while (!categoryRow.getCellByIndex(categoryIndex).getDisplayText().equals("")) {
-            categories.add(categoryRow.getCellByIndex(categoryIndex).getDisplayText().trim());
-            categoryIndex++;
+    /**
+     * Mappings of the group a table belongs to, null if the table has no foreign source to group by.
+     */
+    private static Map<String, NodeToCategoryMapping> getGroup(Map<String, Map<String, NodeToCategoryMapping>> nodesToCategoriesByGroup, boolean groupByForeignSource, String tableName, String foreignSource) {
+        String group = ALL_TABLES;
+        if (groupByForeignSource) {
+            if (foreignSource.isEmpty()) {
+                logger.warn("Table '{}' has no foreign source in its first cell and is skipped", tableName);
+                return null;
+            }
+            group = foreignSource;
         }
+        Map<String, NodeToCategoryMapping> nodesToCategories = nodesToCategoriesByGroup.get(group);
+        if (nodesToCategories == null) {
+            nodesToCategories = new LinkedHashMap<>();
+            nodesToCategoriesByGroup.put(group, nodesToCategories);
+        }
+        return nodesToCategories;
+    }
 
-        //Build a list of all Nodes with AddCategories and RemoveCategories
-        int rowIndex = 1;
-        while (!nodeColumn.getCellByIndex(rowIndex).getDisplayText().equals("")) {
-            //Use already existing nodeToCategoryMapping objects if possible
-            String nodeLabel = nodeColumn.getCellByIndex(rowIndex).getDisplayText().trim();
-            if (nodesToCategories.containsKey(nodeLabel)) {
-                nodeToCategoryMapping = nodesToCategories.get(nodeLabel);
+    /**
+     * <p>getNodeToCategoryMappingsFromStream</p>
+     * <p/>
+     * Same as the DOM based parsing, but rows are pulled one by one from the content.xml of the ODS file. CSV and TSV
+     * files are always read this way, as one table.
+     *
+     * @param groupByForeignSource true to group the mappings by the foreign source in the first cell of each table
+     * @return NodeToCategoryMappings of the ODS file by group as {@link java.util.Map}
+     */
+    private Map<String, Map<String, NodeToCategoryMapping>> getNodeToCategoryMappingsFromStream(final boolean groupByForeignSource) {
+        final Map<String, Map<String, NodeToCategoryMapping>> nodesToCategoriesByGroup = new LinkedHashMap<>();
+
+        try {
+            OdsTableStreamParser.RowHandler handler = new OdsTableStreamParser.RowHandler() {
+                private String tableName;
+                private List<String> categories;
+                private int[] categoryIds;
+                private BitSet tableCategoryIds;
+                private final BitSet rowCategoryIds = new BitSet();
+                private final BitSet rowRemoveIds = new BitSet();
+                private int fingerprintColumn;
+                private Map<String, NodeToCategoryMapping> nodesToCategories;
+
+                @Override
+                public void startTable(String tableName) {
+                    logger.info("Reading Nodes and Categories from '{}'", tableName);
+                    this.tableName = tableName;
+                    categories = null;
+                }
+
+                @Override
+                public boolean row(SparseRow cells) {
+                    if (categories == null) {
+                        //Build a list of all Categories
+                        categories = readCategories(cells);
+                        fingerprintColumn = findFingerprintColumn(cells, categories.size());
+                        categoryIds = internCategories(categories);
+                        tableCategoryIds = new BitSet();
+                        for (int categoryId : categoryIds) {
+                            tableCategoryIds.set(categoryId);
+                        }
+                        nodesToCategories = getGroup(nodesToCategoriesByGroup, groupByForeignSource, tableName, cells.isEmpty() ? "" : cells.get(0).trim());
+                        return nodesToCategories != null;
+                    }
+
+                    if (cells.isEmpty() || cells.get(0).equals("")) {
+                        //First row without a node label ends the table
+                        return false;
+                    }
+
+                    if (isUnchangedRow(cells, categories, fingerprintColumn)) {
+                        return true;
+                    }
+
+                    // Only the marked cells are visited, all other categories of the table are removed at once
+                    NodeToCategoryMapping nodeToCategoryMapping = getNodeToCategoryMapping(nodesToCategories, cells.get(0).trim());
+                    rowCategoryIds.clear();
+                    for (int cellIndex = 0; cellIndex < cells.getCellCount(); cellIndex++) {
+                        int cellId = cells.getColumn(cellIndex);
+                        if (cellId >= 1 && cellId <= categories.size()) {
+                            rowCategoryIds.set(categoryIds[cellId - 1]);
+                            nodeToCategoryMapping.addCategory(categoryIds[cellId - 1]);
+                            logger.debug("Node '{}' found addCategory    '{}'", nodeToCategoryMapping.getNodeLabel(), categories.get(cellId - 1));
+                        }
+                    }
+                    rowRemoveIds.clear();
+                    rowRemoveIds.or(tableCategoryIds);
+                    rowRemoveIds.andNot(rowCategoryIds);
+                    nodeToCategoryMapping.getRemoveCategoryIds().or(rowRemoveIds);
+                    return true;
+                }
+
+                @Override
+                public void endTable(String tableName) {
+                }
+            };
+
+            if (DelimitedTableStreamParser.isDelimited(this.m_odsFile.getName())) {
+                DelimitedTableStreamParser.parse(this.m_odsFile, handler);
             } else {
-                nodeToCategoryMapping = new NodeToCategoryMapping(nodeLabel);
-                nodesToCategories.put(nodeLabel, nodeToCategoryMapping);
+                OdsTableStreamParser.parse(this.m_odsFile, handler);
             }
+        } catch (Exception ex) {
+            logger.error("Reading spreadsheet went wrong", ex);
+        }
+
+        return nodesToCategoriesByGroup;
+    }
 
-            for (int cellId = 1; cellId <= categories.size(); cellId++) {
-                if (table.getRowByIndex(rowIndex).getCellByIndex(cellId).getDisplayText().equals("")) {
-                    nodeToCategoryMapping.getRemoveCategories().add(new RequisitionCategory(categories.get(cellId - 1).trim()));
-                    logger.debug("Node '{}' found removeCategory '{}'", nodeToCategoryMapping.getNodeLabel(), categories.get(cellId - 1));
+    /**
+     * Use already existing nodeToCategoryMapping objects if possible
+     */
+    private NodeToCategoryMapping getNodeToCategoryMapping(Map<String, NodeToCategoryMapping> nodesToCategories, String nodeLabel) {
+        NodeToCategoryMapping nodeToCategoryMapping = nodesToCategories.get(nodeLabel);
+        if (nodeToCategoryMapping == null) {
+            nodeToCategoryMapping = new NodeToCategoryMapping(nodeLabel, m_categoryDictionary);
+            nodesToCategories.put(nodeLabel, nodeToCategoryMapping);
+        }
+        return nodeToCategoryMapping;
+    }
+
+    private Map<String, NodeToCategoryMapping> getNodeToCategoryMappingsFromMatrix(Map<String, NodeToCategoryMapping> nodesToCategories, CategoryMatrix categoryMatrix) {
+        List<String> categories = categoryMatrix.getCategories();
+        int[] categoryIds = internCategories(categories);
+
+        //Build a list of all Nodes with AddCategories and RemoveCategories
+        for (int row = 0; row < categoryMatrix.getRowCount(); row++) {
+            NodeToCategoryMapping nodeToCategoryMapping = getNodeToCategoryMapping(nodesToCategories, categoryMatrix.getNodeLabels().get(row));
+
+            for (int categoryIndex = 0; categoryIndex < categories.size(); categoryIndex++) {
+                if (categoryMatrix.isSet(row, categoryIndex)) {
+                    nodeToCategoryMapping.addCategory(categoryIds[categoryIndex]);
+                    logger.debug("Node '{}' found addCategory    '{}'", nodeToCategoryMapping.getNodeLabel(), categories.get(categoryIndex));
                 } else {
-                    nodeToCategoryMapping.getAddCategories().add(new RequisitionCategory(categories.get(cellId - 1).trim()));
-                    logger.debug("Node '{}' found addCategory    '{}'", nodeToCategoryMapping.getNodeLabel(), categories.get(cellId - 1));
+                    nodeToCategoryMapping.removeCategory(categoryIds[categoryIndex]);
+                    logger.debug("Node '{}' found removeCategory '{}'", nodeToCategoryMapping.getNodeLabel(), categories.get(categoryIndex));
                 }
             }
-            rowIndex++;
         }
         return nodesToCategories;
     }
-}
\ No newline at end of file
+
+    /**
+     * Map the header categories of a table to the ids of the shared dictionary.
+     */
+    private int[] internCategories(List<String> categories) {
+        int[] categoryIds = new int[categories.size()];
+        for (int categoryIndex = 0; categoryIndex < categories.size(); categoryIndex++) {
+            categoryIds[categoryIndex] = m_categoryDictionary.intern(categories.get(categoryIndex));
+        }
+        return categoryIds;
+    }
+
+    /**
+     * <p>readCategoryMatrix</p>
+     * <p/>
+     * Read the table in a single pass over the row and cell elements into a {@link CategoryMatrix}. Resolving cells
+     * with getRowByIndex and getCellByIndex starts at the beginning of the table for every call, so the cost would
+     * grow quadratic with the table size. The table is only navigated by sibling links and attribute lookups, which
+     * don't touch state shared across the document, so different tables can be read concurrently.
+     *
+     * @param table Spreadsheet table as {@link org.odftoolkit.odfdom.doc.table.OdfTable}
+     * @return Categories, node labels and marked cells of the table as {@link CategoryMatrix}
+     */
+    CategoryMatrix readCategoryMatrix(OdfTable table) {
+        List<TableTableRowElement> rowElements = new ArrayList<>();
+        collectRowElements(table.getOdfElement(), rowElements);
+
+        CategoryMatrix categoryMatrix = null;
+        int fingerprintColumn = -1;
+        for (TableTableRowElement rowElement : rowElements) {
+            List<String> cells = readCells(rowElement, categoryMatrix == null ? Integer.MAX_VALUE : Math.max(categoryMatrix.getCategories().size(), fingerprintColumn) + 1);
+
+            if (categoryMatrix == null) {
+                //Build a list of all Categories
+                List<String> categories = readCategories(cells);
+                fingerprintColumn = findFingerprintColumn(cells, categories.size());
+                categoryMatrix = new CategoryMatrix(table.getTableName(), cells.isEmpty() ? "" : cells.get(0).trim(), categories);
+                continue;
+            }
+
+            //First row without a node label ends the table
+            if (cells.isEmpty() || cells.get(0).equals("")) {
+                break;
+            }
+
+            if (isUnchangedRow(cells, categoryMatrix.getCategories(), fingerprintColumn)) {
+                continue;
+            }
+
+            Integer rowsRepeated = rowElement.getTableNumberRowsRepeatedAttribute();
+            for (int repetition = 0; repetition < (rowsRepeated == null ? 1 : rowsRepeated); repetition++) {
+                int row = categoryMatrix.addRow(cells.get(0).trim());
+                for (int cellId = 1; cellId < cells.size() && cellId <= categoryMatrix.getCategories().size(); cellId++) {
+                    if (!cells.get(cellId).equals("")) {
+                        categoryMatrix.set(row, cellId - 1);
+                    }
+                }
+            }
+        }
+        return categoryMatrix != null ? categoryMatrix : new CategoryMatrix(table.getTableName(), new ArrayList<String>());
+    }
+
+    /**
+     * Categories of the header row from cell 1 up to the first empty cell or the fingerprint column.
+     */
+    private static List<String> readCategories(List<String> headerCells) {
+        List<String> categories = new ArrayList<>();
+        for (int categoryIndex = 1; categoryIndex < headerCells.size() && !headerCells.get(categoryIndex).equals("") && !headerCells.get(categoryIndex).trim().equals(RowFingerprint.HEADER); categoryIndex++) {
+            categories.add(headerCells.get(categoryIndex).trim());
+        }
+        return categories;
+    }
+
+    /**
+     * The fingerprint column directly follows the last category column, -1 if the table has no fingerprints.
+     */
+    private static int findFingerprintColumn(List<String> headerCells, int categoryCount) {
+        int fingerprintColumn = categoryCount + 1;
+        return fingerprintColumn < headerCells.size() && headerCells.get(fingerprintColumn).trim().equals(RowFingerprint.HEADER) ? fingerprintColumn : -1;
+    }
+
+    /**
+     * A row is unchanged since the export if its fingerprint matches the node key and the marked categories.
+     */
+    private boolean isUnchangedRow(List<String> cells, List<String> categories, int fingerprintColumn) {
+        if (!m_skipUnchangedRows || fingerprintColumn < 0 || fingerprintColumn >= cells.size()) {
+            return false;
+        }
+        List<String> markedCategories = new ArrayList<>();
+        for (int cellId = 1; cellId <= categories.size() && cellId < cells.size(); cellId++) {
+            if (!cells.get(cellId).equals("")) {
+                markedCategories.add(categories.get(cellId - 1));
+            }
+        }
+        return matchesFingerprint(cells, markedCategories, fingerprintColumn);
+    }
+
+    /**
+     * Same as for a dense row, but only the marked cells are visited.
+     */
+    private boolean isUnchangedRow(SparseRow cells, List<String> categories, int fingerprintColumn) {
+        if (!m_skipUnchangedRows || fingerprintColumn < 0 || fingerprintColumn >= cells.size()) {
+            return false;
+        }
+        List<String> markedCategories = new ArrayList<>();
+        for (int cellIndex = 0; cellIndex < cells.getCellCount(); cellIndex++) {
+            int cellId = cells.getColumn(cellIndex);
+            if (cellId >= 1 && cellId <= categories.size()) {
+                markedCategories.add(categories.get(cellId - 1));
+            }
+        }
+        return matchesFingerprint(cells, markedCategories, fingerprintColumn);
+    }
+
+    private boolean matchesFingerprint(List<String> cells, List<String> markedCategories, int fingerprintColumn) {
+        boolean unchanged = RowFingerprint.of(cells.get(0).trim(), markedCategories).equals(cells.get(fingerprintColumn).trim());
+        if (unchanged) {
+            logger.debug("Node '{}' is unchanged since the export", cells.get(0).trim());
+        }
+        return unchanged;
+    }
+
+    private static void collectRowElements(Node parent, List<TableTableRowElement> rowElements) {
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof TableTableRowElement) {
+                rowElements.add((TableTableRowElement) child);
+            } else if (child instanceof TableTableHeaderRowsElement || child instanceof TableTableRowsElement || child instanceof TableTableRowGroupElement) {
+                collectRowElements(child, rowElements);
+            }
+        }
+    }
+
+    /**
+     * Display text of the first cells of a row, trailing empty cells are dropped.
+     */
+    private static List<String> readCells(TableTableRowElement rowElement, int maxCells) {
+        OdfWhitespaceProcessor whitespaceProcessor = new OdfWhitespaceProcessor();
+        List<String> cells = new ArrayList<>();
+        int pendingEmptyCells = 0;
+        for (Node child = rowElement.getFirstChild(); child != null && cells.size() < maxCells; child = child.getNextSibling()) {
+            if (!(child instanceof TableTableCellElementBase)) {
+                continue;
+            }
+            TableTableCellElementBase cellElement = (TableTableCellElementBase) child;
+            Integer columnsRepeated = cellElement.getTableNumberColumnsRepeatedAttribute();
+            int repeated = columnsRepeated == null ? 1 : columnsRepeated;
+            String text = whitespaceProcessor.getText(cellElement);
+            if (text.equals("")) {
+                pendingEmptyCells += repeated;
+            } else {
+                for (; pendingEmptyCells > 0 && cells.size() < maxCells; pendingEmptyCells--) {
+                    cells.add("");
+                }
+                for (int repetition = 0; repetition < repeated && cells.size() < maxCells; repetition++) {
+                    cells.add(text);
+                }
+            }
+        }
+        return cells;
+    }
+}
@@ -30,21 +30,40 @@ package org.opennms.forge.spreadsheetcategorymanager;
 
 import org.odftoolkit.odfdom.doc.OdfSpreadsheetDocument;
 import org.odftoolkit.odfdom.doc.table.OdfTable;
-import org.odftoolkit.odfdom.doc.table.OdfTableColumn;
 import org.odftoolkit.odfdom.doc.table.OdfTableRow;
+import org.odftoolkit.odfdom.dom.OdfDocumentNamespace;
+import org.odftoolkit.odfdom.dom.element.table.TableTableColumnElement;
+import org.opennms.forge.spreadsheetcategorymanager.utils.DelimitedTableStreamParser;
+import org.opennms.forge.spreadsheetcategorymanager.utils.DelimitedTableStreamWriter;
+import org.opennms.forge.spreadsheetcategorymanager.utils.OdsTableStreamWriter;
+import org.opennms.forge.spreadsheetcategorymanager.utils.PreparedTemplate;
+import org.opennms.forge.spreadsheetcategorymanager.utils.RowFingerprint;
+import org.opennms.forge.spreadsheetcategorymanager.utils.SpreadsheetLayouter;
 import org.opennms.netmgt.provision.persist.requisition.Requisition;
 import org.opennms.netmgt.provision.persist.requisition.RequisitionCategory;
 import org.opennms.netmgt.provision.persist.requisition.RequisitionNode;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.NodeList;
 
+import javax.xml.stream.XMLStreamException;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * <p>SpreadsheetReader class.</p>
@@ -89,14 +108,101 @@ public class SpreadsheetWriter {
     private static final String MARK_APPLY_CATEGORY = "X";
 
     /**
-     * Character to mark if a node is not assigned to this surveillance category
+     * Concatenate tags and surveillance category names
      */
-    private static final String MARK_EMPTY_CATEGORY = "";
+    private static final String CONCATENATE_TAG = "-";
 
     /**
-     * Concatenate tags and surveillance category names
+     * Visibility of the fingerprint column
      */
-    private static final String CONCATENATE_TAG = "-";
+    private static final String HIDDEN_COLUMN = "collapse";
+
+    /**
+     * Write the content.xml row by row instead of filling an odfdom DOM
+     */
+    private final boolean m_streaming;
+
+    /**
+     * Write the foreign id instead of the node label into the first column
+     */
+    private final boolean m_foreignIdKey;
+
+    /**
+     * Write a hidden fingerprint column, so a re-import can skip the unchanged rows
+     */
+    private final boolean m_fingerprints;
+
+    /**
+     * Extension of the default output file to java.io.tmpdir, it selects ODS, CSV or TSV
+     */
+    private final String m_fileExtension;
+
+    /**
+     * Templates already read by this writer, keyed by path and modification of the template file
+     */
+    private final ConcurrentMap<String, PreparedTemplate> m_templates = new ConcurrentHashMap<>();
+
+    public SpreadsheetWriter() {
+        this(false);
+    }
+
+    /**
+     * @param streaming true to write the spreadsheet row by row into the zip, time and memory stay bounded for large requisitions
+     */
+    public SpreadsheetWriter(boolean streaming) {
+        this(streaming, false);
+    }
+
+    /**
+     * @param streaming    true to write the spreadsheet row by row into the zip, time and memory stay bounded for large requisitions
+     * @param foreignIdKey true to key the node rows by foreign id, which is unique in a requisition unlike the node label
+     */
+    public SpreadsheetWriter(boolean streaming, boolean foreignIdKey) {
+        this(streaming, foreignIdKey, false);
+    }
+
+    /**
+     * @param streaming    true to write the spreadsheet row by row into the zip, time and memory stay bounded for large requisitions
+     * @param foreignIdKey true to key the node rows by foreign id, which is unique in a requisition unlike the node label
+     * @param fingerprints true to write the fingerprint of every row into a hidden column after the categories
+     */
+    public SpreadsheetWriter(boolean streaming, boolean foreignIdKey, boolean fingerprints) {
+        this(streaming, foreignIdKey, fingerprints, ODS_EXTENSION);
+    }
+
+    /**
+     * @param streaming     true to write the spreadsheet row by row into the zip, time and memory stay bounded for large requisitions
+     * @param foreignIdKey  true to key the node rows by foreign id, which is unique in a requisition unlike the node label
+     * @param fingerprints  true to write the fingerprint of every row into a hidden column after the categories
+     * @param fileExtension Extension of the default output file, ".ods", ".csv" or ".tsv"
+     */
+    public SpreadsheetWriter(boolean streaming, boolean foreignIdKey, boolean fingerprints, String fileExtension) {
+        this.m_streaming = streaming;
+        this.m_foreignIdKey = foreignIdKey;
+        this.m_fingerprints = fingerprints;
+        this.m_fileExtension = fileExtension;
+    }
+
+    /**
+     * @return true if the node rows are keyed by foreign id instead of node label
+     */
+    public boolean isForeignIdKey() {
+        return m_foreignIdKey;
+    }
+
+    /**
+     * <p>getSettings</p>
+     * <p/>
+     * Settings which change the written file: format, node key, fingerprints and the template, which is identified by
+     * path, size and modification time. Streaming writes the same file and is left out.
+     *
+     * @param templateOds Ods template file, null for the default template
+     * @return Settings as {@link java.lang.String}
+     */
+    public String getSettings(File templateOds) {
+        String template = templateOds == null ? "default" : templateOds.getAbsolutePath() + ":" + templateOds.length() + ":" + templateOds.lastModified();
+        return "extension=" + m_fileExtension + ";foreignIdKey=" + m_foreignIdKey + ";fingerprints=" + m_fingerprints + ";template=" + template;
+    }
 
     /**
      * <p>getSpreadsheetFromRequisition</p>
@@ -108,7 +214,7 @@ public class SpreadsheetWriter {
      * @return ODS file with exported data from OpenNMS as {@link java.io.File}
      */
     public File getSpreadsheetFromRequisition(Requisition requisition, File templateOds) {
-        String outputFilename = System.getProperty("java.io.tmpdir") + File.separator + requisition.getForeignSource() + ODS_EXTENSION;
+        String outputFilename = System.getProperty("java.io.tmpdir") + File.separator + requisition.getForeignSource() + m_fileExtension;
         File odsOutput = getSpreadsheetFromRequisition(requisition, outputFilename, templateOds);
         return odsOutput;
     }
@@ -116,7 +222,8 @@ public class SpreadsheetWriter {
     /**
      * <p>getSpreadsheetFromRequisition</p>
      * <p/>
-     * Build spreadsheet file from a give OpenNMS requisition.
+     * Build spreadsheet file from a give OpenNMS requisition. A file name ending with ".csv" or ".tsv" is written as one
+     * delimited table without template.
      *
      * @param requisition    Requisition for generating the spreadsheet {@link org.opennms.netmgt.provision.persist.requisition.Requisition}
      * @param outputFilename User defined path and file name for output as {@link java.lang.String}
@@ -124,60 +231,96 @@ public class SpreadsheetWriter {
      * @return ODS file with exported data from OpenNMS as {@link java.io.File}
      */
     public File getSpreadsheetFromRequisition(Requisition requisition, String outputFilename, File templateOds) {
+        PreparedTemplate template = null;
+        if (!DelimitedTableStreamParser.isDelimited(outputFilename)) {
+            template = getPreparedTemplate(templateOds);
+            if (template == null) {
+                return null;
+            }
+        }
+        return writeSpreadsheet(requisition, outputFilename, template);
+    }
+
+    /**
+     * <p>writeSpreadsheet</p>
+     * <p/>
+     * Build spreadsheet file from a give OpenNMS requisition and an already read template. Batch exports read the
+     * template once with {@link #getPreparedTemplate(java.io.File)} and pass it to every export. A file name ending
+     * with ".csv" or ".tsv" is written as one delimited table without template.
+     *
+     * @param requisition    Requisition for generating the spreadsheet {@link org.opennms.netmgt.provision.persist.requisition.Requisition}
+     * @param outputFilename User defined path and file name for output as {@link java.lang.String}
+     * @param template       Ods template to use for output as {@link PreparedTemplate}, may be null for CSV and TSV
+     * @return ODS file with exported data from OpenNMS as {@link java.io.File} or null if the file couldn't be written
+     */
+    public File writeSpreadsheet(Requisition requisition, String outputFilename, PreparedTemplate template) {
         if (requisition == null) {
             logger.error("Requisition was null");
             return null;
         }
-        InputStream template = null;
-        if (templateOds != null) {
-            try {
-                template = new FileInputStream(templateOds);
-            } catch (FileNotFoundException ex) {
-                logger.error("Reading TemplateFile '{}' went wrong.", templateOds, ex);
-                logger.error("Fallback to default template");
-                template = this.getClass().getClassLoader().getResourceAsStream(DEFAUlT_ODS_TEMPLATE);
+
+        File outFile = new File(outputFilename);
+        try (OutputStream output = new BufferedOutputStream(new FileOutputStream(outFile))) {
+            if (DelimitedTableStreamParser.isDelimited(outputFilename)) {
+                writeDelimited(requisition, output, DelimitedTableStreamParser.getDelimiter(outputFilename));
+            } else {
+                writeOds(requisition, output, template);
+            }
+        } catch (IOException ex) {
+            logger.error("Building Spreadsheet went wrong", ex);
+            // a partly written file is no export
+            if (outFile.exists() && !outFile.delete()) {
+                logger.warn("Could not remove partly written '{}'", outFile);
             }
+            return null;
+        }
+        logger.info("saved '{}'", outFile);
+        return outFile;
+    }
+
+    /**
+     * <p>writeSpreadsheet</p>
+     * <p/>
+     * Write the spreadsheet of a requisition into any stream, e.g. stdout or a socket, without intermediate files.
+     * The format is the one of the file extension of this writer, the layout of the template is applied in the same
+     * pass.
+     *
+     * @param requisition Requisition for generating the spreadsheet {@link org.opennms.netmgt.provision.persist.requisition.Requisition}
+     * @param output      Stream for the spreadsheet as {@link java.io.OutputStream}, it is flushed but not closed
+     * @param template    Ods template to use for output as {@link PreparedTemplate}, may be null for CSV and TSV
+     * @throws IOException if building or writing the spreadsheet went wrong
+     */
+    public void writeSpreadsheet(Requisition requisition, OutputStream output, PreparedTemplate template) throws IOException {
+        if (DelimitedTableStreamParser.isDelimited(m_fileExtension)) {
+            writeDelimited(requisition, output, DelimitedTableStreamParser.getDelimiter(m_fileExtension));
         } else {
-            template = this.getClass().getClassLoader().getResourceAsStream(DEFAUlT_ODS_TEMPLATE);
+            writeOds(requisition, output, template);
         }
+        output.flush();
+    }
 
-        File odsOutFile = new File(outputFilename);
+    /**
+     * Write the ODS file row by row or with a DOM, depending on the streaming mode of this writer.
+     */
+    private void writeOds(Requisition requisition, OutputStream output, PreparedTemplate template) throws IOException {
+        if (m_streaming) {
+            writeOdsStreaming(requisition, output, template);
+            return;
+        }
         try {
-            OdfSpreadsheetDocument spreadsheet = OdfSpreadsheetDocument.loadDocument(template);
+            OdfSpreadsheetDocument spreadsheet = OdfSpreadsheetDocument.loadDocument(template.openStream());
             OdfTable thresholdTable = spreadsheet.getTableList().get(0);
             thresholdTable.setTableName(requisition.getForeignSource() + " " + THRESHOLD_TAG);
 
             OdfTable categoryTable = spreadsheet.getTableList().get(1);
             categoryTable.setTableName(requisition.getForeignSource() + " " + SURVEILLANCE_CATEGORIES);
 
+            //preset categories of the template
             Map<String, RequisitionNode> reqNodes = new TreeMap<>();
-            Set<String> categories = new TreeSet<>();
-            Set<String> thresholdCategories = new TreeSet<>();
-
-            //load preset categories from template and add to category lists
-            Integer thCatIndex = 1;
-            while (!thresholdTable.getRowByIndex(0).getCellByIndex(thCatIndex).getDisplayText().isEmpty()) {
-                thresholdCategories.add(thresholdTable.getRowByIndex(0).getCellByIndex(thCatIndex).getDisplayText().trim());
-                thCatIndex++;
-            }
-
-            Integer catIndex = 1;
-            while (!categoryTable.getRowByIndex(0).getCellByIndex(catIndex).getDisplayText().isEmpty()) {
-                categories.add(categoryTable.getRowByIndex(0).getCellByIndex(catIndex).getDisplayText().trim());
-                catIndex++;
-            }
+            Set<String> categories = new TreeSet<>(template.getCategories());
+            Set<String> thresholdCategories = new TreeSet<>(template.getThresholdCategories());
 
-            
-            for (RequisitionNode reqNode : requisition.getNodes()) {
-                reqNodes.put(reqNode.getNodeLabel(), reqNode);
-                for (RequisitionCategory reqCategory : reqNode.getCategories()) {
-                    if (reqCategory.getName().startsWith(THRESHOLD_TAG + CONCATENATE_TAG)) {
-                        thresholdCategories.add(reqCategory.getName());
-                    } else {
-                        categories.add(reqCategory.getName());
-                    }
-                }
-            }
+            addRequisitionCategories(requisition, reqNodes, thresholdCategories, categories);
 
             writeCategoriesIntoSheet(thresholdTable.getRowByIndex(0), thresholdCategories, requisition.getForeignSource());
             writeNodesIntoSheet(thresholdTable, reqNodes, thresholdCategories);
@@ -185,13 +328,131 @@ public class SpreadsheetWriter {
             writeCategoriesIntoSheet(categoryTable.getRowByIndex(0), categories, requisition.getForeignSource());
             writeNodesIntoSheet(categoryTable, reqNodes, categories);
 
-            spreadsheet.save(odsOutFile);
-            logger.info("saved '{}'", odsOutFile);
-
+            SpreadsheetLayouter.layoutSpreadsheet(spreadsheet);
+            spreadsheet.save(output);
+        } catch (IOException ex) {
+            throw ex;
         } catch (Exception ex) {
-            logger.error("Building Spreadsheet went wrong", ex);
+            throw new IOException("Building spreadsheet of '" + requisition.getForeignSource() + "' went wrong", ex);
+        }
+    }
+
+    /**
+     * <p>getPreparedTemplate</p>
+     * <p/>
+     * Read a template once, later calls for the unchanged template file get the same instance. The cache is shared by
+     * all threads using this writer.
+     *
+     * @param templateOds Ods template file, pass null to use default template.
+     * @return Template for any number of exports as {@link PreparedTemplate}, null if neither the template nor the
+     * default template can be read
+     */
+    public PreparedTemplate getPreparedTemplate(File templateOds) {
+        String templateKey = templateOds == null ? DEFAUlT_ODS_TEMPLATE : templateOds.getAbsolutePath() + "@" + templateOds.lastModified() + "@" + templateOds.length();
+        PreparedTemplate template = m_templates.get(templateKey);
+        if (template != null) {
+            return template;
+        }
+
+        try {
+            if (templateOds != null) {
+                try {
+                    template = PreparedTemplate.read(new FileInputStream(templateOds));
+                } catch (IOException ex) {
+                    logger.error("Reading TemplateFile '{}' went wrong.", templateOds, ex);
+                    logger.error("Fallback to default template");
+                    return getPreparedTemplate(null);
+                }
+            } else {
+                InputStream defaultTemplate = this.getClass().getClassLoader().getResourceAsStream(DEFAUlT_ODS_TEMPLATE);
+                if (defaultTemplate == null) {
+                    throw new IOException("Default template " + DEFAUlT_ODS_TEMPLATE + " is missing");
+                }
+                template = PreparedTemplate.read(defaultTemplate);
+            }
+        } catch (IOException ex) {
+            logger.error("Reading default template went wrong", ex);
+            return null;
+        }
+
+        PreparedTemplate cachedTemplate = m_templates.putIfAbsent(templateKey, template);
+        return cachedTemplate != null ? cachedTemplate : template;
+    }
+
+    /**
+     * <p>writeOdsStreaming</p>
+     * <p/>
+     * Build the spreadsheet without a DOM. The template entries are copied and the content.xml is written row by row
+     * into the zip, the column and row styles of the template are kept on the way.
+     *
+     * @param requisition Requisition for generating the spreadsheet {@link org.opennms.netmgt.provision.persist.requisition.Requisition}
+     * @param output      Stream for the ODS file as {@link java.io.OutputStream}
+     * @param template    Ods template as {@link PreparedTemplate}
+     * @throws IOException if writing the spreadsheet went wrong
+     */
+    private void writeOdsStreaming(Requisition requisition, OutputStream output, PreparedTemplate template) throws IOException {
+        Map<String, RequisitionNode> reqNodes = new TreeMap<>();
+        Set<String> thresholdCategories = new TreeSet<>(template.getThresholdCategories());
+        Set<String> categories = new TreeSet<>(template.getCategories());
+        addRequisitionCategories(requisition, reqNodes, thresholdCategories, categories);
+
+        List<OdsTableStreamWriter.TableSource> tables = new ArrayList<>();
+        tables.add(new CategoryTableSource(requisition.getForeignSource() + " " + THRESHOLD_TAG, requisition.getForeignSource(), reqNodes, thresholdCategories, m_fingerprints));
+        tables.add(new CategoryTableSource(requisition.getForeignSource() + " " + SURVEILLANCE_CATEGORIES, requisition.getForeignSource(), reqNodes, categories, m_fingerprints));
+
+        try {
+            OdsTableStreamWriter.write(template.openStream(), output, tables);
+        } catch (XMLStreamException ex) {
+            throw new IOException("Template content is not well formed", ex);
+        }
+    }
+
+    /**
+     * <p>writeDelimited</p>
+     * <p/>
+     * Write a CSV or TSV table with threshold and surveillance categories. The file has no template and no formatting,
+     * the fingerprint column can't be hidden and is the last visible column.
+     *
+     * @param requisition Requisition for generating the file {@link org.opennms.netmgt.provision.persist.requisition.Requisition}
+     * @param output      Stream for the delimited table as {@link java.io.OutputStream}
+     * @param delimiter   Separator of the cells
+     * @throws IOException if writing the table went wrong
+     */
+    private void writeDelimited(Requisition requisition, OutputStream output, char delimiter) throws IOException {
+        Map<String, RequisitionNode> reqNodes = new TreeMap<>();
+        Set<String> thresholdCategories = new TreeSet<>();
+        Set<String> categories = new TreeSet<>();
+        addRequisitionCategories(requisition, reqNodes, thresholdCategories, categories);
+        categories.addAll(thresholdCategories);
+
+        DelimitedTableStreamWriter.write(output, delimiter, new CategoryTableSource(requisition.getForeignSource(), requisition.getForeignSource(), reqNodes, categories, m_fingerprints));
+    }
+
+    /**
+     * <p>addRequisitionCategories</p>
+     * <p/>
+     * Collect all nodes sorted by node key and split their categories in threshold and surveillance categories. The
+     * key is the node label or the foreign id, nodes with a duplicate label can only be exported keyed by foreign id.
+     *
+     * @param requisition         Requisition with nodes and categories {@link org.opennms.netmgt.provision.persist.requisition.Requisition}
+     * @param reqNodes            Map to fill with node key and requisition node as {@link java.util.Map}
+     * @param thresholdCategories Set to fill with threshold categories as {@link java.util.Set}
+     * @param categories          Set to fill with all other surveillance categories as {@link java.util.Set}
+     */
+    private void addRequisitionCategories(Requisition requisition, Map<String, RequisitionNode> reqNodes, Set<String> thresholdCategories, Set<String> categories) {
+        for (RequisitionNode reqNode : requisition.getNodes()) {
+            String nodeKey = m_foreignIdKey ? reqNode.getForeignId() : reqNode.getNodeLabel();
+            if (reqNodes.put(nodeKey, reqNode) != null) {
+                logger.warn("Node label '{}' is used by more than one node, only one row is exported. Use foreign ids as keys to export all of them.", nodeKey);
+            }
+            for (RequisitionCategory reqCategory : reqNode.getCategories()) {
+                if (reqCategory.getName().startsWith(THRESHOLD_TAG + CONCATENATE_TAG)) {
+                    thresholdCategories.add(reqCategory.getName());
+                } else {
+                    categories.add(reqCategory.getName());
+                }
+            }
         }
-        return odsOutFile;
     }
 
     /**
@@ -213,33 +474,190 @@ public class SpreadsheetWriter {
             categoryRow.getCellByIndex(categoryCellIndex).setDisplayText(category);
             categoryCellIndex++;
         }
+
+        if (m_fingerprints) {
+            categoryRow.getCellByIndex(categoryCellIndex).setDisplayText(RowFingerprint.HEADER);
+            hideColumn(categoryRow.getTable(), categoryCellIndex);
+        }
+    }
+
+    /**
+     * <p>hideColumn</p>
+     * <p/>
+     * Collapse a single column of the table. A column inside a repeated column element is split out first, odfdom
+     * shares one element for all columns of the repetition.
+     *
+     * @param table       Table with the column as {@link org.odftoolkit.odfdom.doc.table.OdfTable}
+     * @param columnIndex Index of the column to hide as {@link java.lang.Integer}
+     */
+    private static void hideColumn(OdfTable table, int columnIndex) {
+        NodeList columns = table.getOdfElement().getElementsByTagNameNS(OdfDocumentNamespace.TABLE.getUri(), "table-column");
+        int firstIndex = 0;
+        for (int i = 0; i < columns.getLength(); i++) {
+            TableTableColumnElement column = (TableTableColumnElement) columns.item(i);
+            Integer repeatedAttribute = column.getTableNumberColumnsRepeatedAttribute();
+            int repeated = repeatedAttribute == null ? 1 : repeatedAttribute;
+            if (columnIndex < firstIndex + repeated) {
+                int before = columnIndex - firstIndex;
+                int after = repeated - before - 1;
+                if (before > 0) {
+                    TableTableColumnElement beforeColumn = (TableTableColumnElement) column.cloneNode(true);
+                    setRepeated(beforeColumn, before);
+                    column.getParentNode().insertBefore(beforeColumn, column);
+                }
+                if (after > 0) {
+                    TableTableColumnElement afterColumn = (TableTableColumnElement) column.cloneNode(true);
+                    setRepeated(afterColumn, after);
+                    column.getParentNode().insertBefore(afterColumn, column.getNextSibling());
+                }
+                setRepeated(column, 1);
+                column.setTableVisibilityAttribute(HIDDEN_COLUMN);
+                return;
+            }
+            firstIndex += repeated;
+        }
+        logger.warn("No column '{}' in table '{}' to hide", columnIndex, table.getTableName());
+    }
+
+    private static void setRepeated(TableTableColumnElement column, int repeated) {
+        if (repeated > 1) {
+            column.setTableNumberColumnsRepeatedAttribute(repeated);
+        } else {
+            column.removeAttributeNS(OdfDocumentNamespace.TABLE.getUri(), "number-columns-repeated");
+        }
     }
 
     /**
      * <p>writeNodesIntoSheet</p>
      * <p/>
-     * Fill first column with node labels. To create the nodes and assign all categories we need the whole table and not just a column
+     * Fill first column with node keys. To create the nodes and assign all categories we need the whole table and not just a column.
+     * The column of every category is looked up once per table and the category names once per node, only the cells of
+     * assigned categories are marked.
      *
      * @param table      Table which has to be filled as {@link org.odftoolkit.odfdom.doc.table.OdfTable}
-     * @param reqNodes   Tree map with node label as key and the requisition node object as {@link java.util.Map}
+     * @param reqNodes   Tree map with node label or foreign id as key and the requisition node object as {@link java.util.Map}
      * @param categories Set of categories which has to be marked for the node as {@link java.lang.String}
      */
     private void writeNodesIntoSheet(OdfTable table, Map<String, RequisitionNode> reqNodes, Set<String> categories) {
-        OdfTableColumn nodeColumn = table.getColumnByIndex(0);
-        OdfTableRow categoryRow = table.getRowByIndex(0);
+        // Categories are written into the header row in set order, starting with cell 1
+        Map<String, Integer> categoryColumns = new HashMap<>();
+        int categoryCellIndex = 1;
+        for (String category : categories) {
+            categoryColumns.put(category, categoryCellIndex);
+            categoryCellIndex++;
+        }
+
         int nodeCellIndex = 1;
-        for (RequisitionNode reqNode : reqNodes.values()) {
-            nodeColumn.getCellByIndex(nodeCellIndex).setDisplayText(reqNode.getNodeLabel());
-            if (categories.size() > 0) {
-                for (int categoryIndex = 1; categoryIndex <= categories.size(); categoryIndex++) {
-                    if (reqNode.getCategories().contains(new RequisitionCategory(categoryRow.getCellByIndex(categoryIndex).getDisplayText()))) {
-                        table.getRowByIndex(nodeCellIndex).getCellByIndex(categoryIndex).setDisplayText(MARK_APPLY_CATEGORY);
-                    } else {
-                        table.getRowByIndex(nodeCellIndex).getCellByIndex(categoryIndex).setDisplayText(MARK_EMPTY_CATEGORY);
-                    }
+        for (Map.Entry<String, RequisitionNode> reqNodeEntry : reqNodes.entrySet()) {
+            RequisitionNode reqNode = reqNodeEntry.getValue();
+            OdfTableRow nodeRow = table.getRowByIndex(nodeCellIndex);
+            nodeRow.getCellByIndex(0).setDisplayText(reqNodeEntry.getKey());
+
+            Set<String> nodeCategories = new HashSet<>();
+            for (RequisitionCategory reqCategory : reqNode.getCategories()) {
+                nodeCategories.add(reqCategory.getName());
+            }
+            List<String> markedCategories = new ArrayList<>();
+            for (String nodeCategory : nodeCategories) {
+                Integer categoryColumn = categoryColumns.get(nodeCategory);
+                if (categoryColumn != null) {
+                    nodeRow.getCellByIndex(categoryColumn).setDisplayText(MARK_APPLY_CATEGORY);
+                    markedCategories.add(nodeCategory);
                 }
             }
+            if (m_fingerprints) {
+                nodeRow.getCellByIndex(categoryCellIndex).setDisplayText(RowFingerprint.of(reqNodeEntry.getKey(), markedCategories));
+            }
             nodeCellIndex++;
         }
     }
+
+    /**
+     * <p>CategoryTableSource class.</p>
+     * <p/>
+     * Streams one sheet: the foreign source and the categories in the first row, followed by one row per node.
+     */
+    private static class CategoryTableSource implements OdsTableStreamWriter.TableSource {
+
+        private final String m_tableName;
+        private final String m_foreignSource;
+        private final Map<String, RequisitionNode> m_reqNodes;
+        private final Set<String> m_categories;
+        private final boolean m_fingerprints;
+
+        private CategoryTableSource(String tableName, String foreignSource, Map<String, RequisitionNode> reqNodes, Set<String> categories, boolean fingerprints) {
+            this.m_tableName = tableName;
+            this.m_foreignSource = foreignSource;
+            this.m_reqNodes = reqNodes;
+            this.m_categories = categories;
+            this.m_fingerprints = fingerprints;
+        }
+
+        @Override
+        public String getTableName() {
+            return m_tableName;
+        }
+
+        @Override
+        public int getHiddenColumn() {
+            return m_fingerprints ? m_categories.size() + 1 : -1;
+        }
+
+        @Override
+        public void writeRows(OdsTableStreamWriter.TableRows rows) throws IOException {
+            rows.startRow();
+            rows.writeCell(m_foreignSource);
+            for (String category : m_categories) {
+                rows.writeCell(category);
+            }
+            if (m_fingerprints) {
+                rows.writeCell(RowFingerprint.HEADER);
+            }
+            rows.endRow();
+
+            // Columns of the categories, a node row only visits its own categories and skips the runs in between
+            Map<String, Integer> categoryColumns = new HashMap<>();
+            List<String> categoryNames = new ArrayList<>(m_categories);
+            for (int column = 0; column < categoryNames.size(); column++) {
+                categoryColumns.put(categoryNames.get(column), column);
+            }
+
+            List<String> markedCategories = new ArrayList<>();
+            int[] markedColumns = new int[8];
+            for (Map.Entry<String, RequisitionNode> reqNodeEntry : m_reqNodes.entrySet()) {
+                int markedCount = 0;
+                for (RequisitionCategory reqCategory : reqNodeEntry.getValue().getCategories()) {
+                    Integer column = categoryColumns.get(reqCategory.getName());
+                    if (column != null) {
+                        if (markedCount == markedColumns.length) {
+                            markedColumns = Arrays.copyOf(markedColumns, markedCount * 2);
+                        }
+                        markedColumns[markedCount++] = column;
+                    }
+                }
+                Arrays.sort(markedColumns, 0, markedCount);
+
+                rows.startRow();
+                rows.writeCell(reqNodeEntry.getKey());
+                markedCategories.clear();
+                int nextColumn = 0;
+                for (int marked = 0; marked < markedCount; marked++) {
+                    int column = markedColumns[marked];
+                    if (column < nextColumn) {
+                        // category assigned twice
+                        continue;
+                    }
+                    rows.skipCells(column - nextColumn);
+                    rows.writeCell(MARK_APPLY_CATEGORY);
+                    markedCategories.add(categoryNames.get(column));
+                    nextColumn = column + 1;
+                }
+                rows.skipCells(categoryNames.size() - nextColumn);
+                if (m_fingerprints) {
+                    rows.writeCell(RowFingerprint.of(reqNodeEntry.getKey(), markedCategories));
+                }
+                rows.endRow();
+            }
+        }
+    }
 }
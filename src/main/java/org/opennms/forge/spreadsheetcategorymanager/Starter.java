@@ -25,16 +25,27 @@ import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 import org.opennms.forge.restclient.utils.OnmsRestConnectionParameter;
 import org.opennms.forge.restclient.utils.RestConnectionParameter;
+import org.opennms.forge.spreadsheetcategorymanager.utils.ExportSnapshotStore;
+import org.opennms.forge.spreadsheetcategorymanager.utils.OdsFolderWatcher;
+import org.opennms.forge.spreadsheetcategorymanager.utils.PhaseMetrics;
+import org.opennms.forge.spreadsheetcategorymanager.utils.RequisitionSnapshotCache;
+import org.opennms.forge.spreadsheetcategorymanager.utils.SynchronizeScheduler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.swing.text.DateFormatter;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.net.MalformedURLException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 /**
  * This starter just provides the command line parameter handling.
@@ -54,7 +65,7 @@ public class Starter {
     @Option(name = "--password", aliases = {"-p"}, required = true, usage = "password to work with the system")
     private String m_password = "admin";
 
-    @Option(name = "--ods-file-source", aliases = {"-odssrc"}, required = false, usage = "path to the odsFile to read from")
+    @Option(name = "--ods-file-source", aliases = {"-odssrc"}, required = false, usage = "path to the odsFile to read from, files ending with .csv or .tsv are read as one comma or tab separated table")
     private String m_odsFileSource;
 
     @Option(name = "--foreign-source", aliases = {"-fs"}, required = false, usage = "name of the foreign source to work with")
@@ -63,12 +74,84 @@ public class Starter {
     @Option(name = "--synchronize", aliases = {"-sync"}, required = false, usage = "changes will not just be send to the remote system, they will also be synchronized.")
     private boolean m_synchronize = false;
 
+    @Option(name = "--sync-window", aliases = {"-sw"}, required = false, usage = "seconds synchronize requests for the same foreign source are collected, also across invocations, and served by one synchronize")
+    private long m_syncWindow = SynchronizeScheduler.DEFAULT_WINDOW / 1000L;
+
+    @Option(name = "--sync-concurrency", aliases = {"-sc"}, required = false, usage = "amount of synchronizes running at the same time on the OpenNMS server, also across invocations")
+    private int m_syncConcurrency = SynchronizeScheduler.DEFAULT_MAX_CONCURRENT;
+
+    @Option(name = "--sync-attempts", aliases = {"-sa"}, required = false, usage = "amount of attempts of a failed synchronize, the wait between attempts doubles every time")
+    private int m_syncAttempts = SynchronizeScheduler.DEFAULT_MAX_ATTEMPTS;
+
     @Option(name = "--generateOds", aliases = {"-genods"}, required = false, usage = "if this option is set, just a ods file with the data from the remote system will be created in temp folder.")
     private boolean m_generateOds = false;
 
     @Option(name = "--all-foreign-source", aliases = {"-afs"}, required = false, usage = "runs the command for all foreign-sources")
     private boolean allForeignSources = false;
 
+    @Option(name = "--streaming", aliases = {"-stream"}, required = false, usage = "read and write ods files row by row instead of loading the whole document, keeps memory flat for large spreadsheets")
+    private boolean m_streaming = false;
+
+    @Option(name = "--threads", aliases = {"-th"}, required = false, usage = "amount of worker threads to export foreign sources and to parse spreadsheet tables concurrently")
+    private int m_threads = 1;
+
+    @Option(name = "--delta", aliases = {"-d"}, required = false, usage = "send only the category changes of changed nodes instead of uploading the whole requisition")
+    private boolean m_deltaPush = false;
+
+    @Option(name = "--delta-threshold", aliases = {"-dt"}, required = false, usage = "fraction of changed nodes between 0 and 1 above which the whole requisition is uploaded even with --delta")
+    private double m_deltaThreshold = CategoryImportParameter.DEFAULT_DELTA_THRESHOLD;
+
+    @Option(name = "--plan", aliases = {"-plan"}, required = false, usage = "write the exact category changes of the import into this file instead of sending them")
+    private String m_planFile = null;
+
+    @Option(name = "--apply-plan", aliases = {"-ap"}, required = false, usage = "apply the category changes of a plan file written with --plan, no ODS file is read")
+    private String m_applyPlanFile = null;
+
+    @Option(name = "--rules", aliases = {"-rules"}, required = false, usage = "add and remove categories on all nodes matching the rules of this file instead of reading an ODS file, the format is described in the README")
+    private String m_ruleFile = null;
+
+    @Option(name = "--cache", aliases = {"-cache"}, required = false, usage = "use local snapshots of already fetched requisitions instead of always fetching them from the remote system")
+    private boolean m_cache = false;
+
+    @Option(name = "--cache-ttl", aliases = {"-ttl"}, required = false, usage = "minutes a locally cached requisition snapshot is used with --cache before it is fetched again, changes made on the remote system in the meantime are not seen, so exported sheets can be stale")
+    private long m_cacheTtl = RequisitionSnapshotCache.DEFAULT_TTL / 60000L;
+
+    @Option(name = "--foreign-id-key", aliases = {"-fid"}, required = false, usage = "the first column of the ods file holds foreign ids instead of node labels, unambiguous for nodes with the same label")
+    private boolean m_foreignIdKey = false;
+
+    @Option(name = "--fingerprint", aliases = {"-fp"}, required = false, usage = "write a hidden fingerprint of every row on export and skip rows which still match it on import")
+    private boolean m_fingerprint = false;
+
+    @Option(name = "--watch", aliases = {"-w"}, required = false, usage = "stay running and import every ODS, CSV or TSV file written into this folder, the sheets are routed by the foreign source in their first cell")
+    private String m_watchDirectory = null;
+
+    @Option(name = "--watch-debounce", aliases = {"-wd"}, required = false, usage = "milliseconds a watched ODS file has to stay unchanged before it is imported")
+    private long m_watchDebounce = OdsFolderWatcher.DEFAULT_DEBOUNCE;
+
+    @Option(name = "--max-connections", aliases = {"-mc"}, required = false, usage = "amount of idle connections the JVM keeps alive per server, one setting for the whole process")
+    private int m_maxConnections = RestClientFactory.DEFAULT_MAX_CONNECTIONS;
+
+    @Option(name = "--connect-timeout", aliases = {"-ct"}, required = false, usage = "milliseconds to connect to the OpenNMS server, 0 waits forever")
+    private int m_connectTimeout = RestClientFactory.DEFAULT_CONNECT_TIMEOUT;
+
+    @Option(name = "--read-timeout", aliases = {"-rt"}, required = false, usage = "milliseconds to wait for data of a response of the OpenNMS server, 0 waits forever")
+    private int m_readTimeout = RestClientFactory.DEFAULT_READ_TIMEOUT;
+
+    @Option(name = "--metrics-json", aliases = {"-mj"}, required = false, usage = "write the time of every import and export phase and the counters of rows, nodes, categories and bytes as JSON into this file at exit")
+    private String m_metricsJsonFile = null;
+
+    @Option(name = "--metrics-prometheus", aliases = {"-mp"}, required = false, usage = "write the metrics in the Prometheus text format into this file at exit, e.g. for the node_exporter textfile collector")
+    private String m_metricsPrometheusFile = null;
+
+    @Option(name = "--incremental", aliases = {"-inc"}, required = false, usage = "compare every requisition with the snapshot of its last export, skip unchanged foreign sources and export only the changed nodes")
+    private boolean m_incremental = false;
+
+    @Option(name = "--extension", aliases = {"-ext"}, required = false, usage = "format of generated files: ods, csv or tsv. CSV and TSV files hold one table without template and formatting")
+    private String m_extension = "ods";
+
+    @Option(name = "--output", aliases = {"-out"}, required = false, usage = "write the generated file of the foreign source into this path instead of the temp folder, - writes to stdout and the log to stderr")
+    private String m_outputPath = null;
+
     @Option(name = "--OdsTemplate", aliases = {"-t"}, required = false, usage = "path to a odsFile as template for generation")
     private String m_tempateOdsPath = null;
 
@@ -81,6 +164,11 @@ public class Starter {
 
     private final String DATE_FORMAT = "yyyy-MM-dd_HH:mm:ss";
 
+    /**
+     * Output path for stdout
+     */
+    private static final String STDOUT = "-";
+
     public static void main(String[] args) throws IOException {
         new Starter().doMain(args);
     }
@@ -99,8 +187,90 @@ public class Starter {
             System.exit(1);
         }
 
+        // The console log shares stdout, it is moved to stderr to keep the exported file clean
+        PrintStream stdout = System.out;
+        if (STDOUT.equals(m_outputPath)) {
+            System.setOut(System.err);
+        }
+
+        if (m_threads < 1) {
+            logger.error("The amount of threads has to be at least 1, but was '{}'", m_threads);
+            parser.printUsage(System.err);
+            System.exit(1);
+        }
+
+        if (m_deltaThreshold < 0 || m_deltaThreshold > 1) {
+            logger.error("The delta threshold has to be between 0 and 1, but was '{}'", m_deltaThreshold);
+            parser.printUsage(System.err);
+            System.exit(1);
+        }
+
+        if (m_maxConnections < 1) {
+            logger.error("The amount of connections has to be at least 1, but was '{}'", m_maxConnections);
+            parser.printUsage(System.err);
+            System.exit(1);
+        }
+
+        if (m_connectTimeout < 0 || m_readTimeout < 0) {
+            logger.error("Timeouts can't be negative, but were '{}' and '{}'", m_connectTimeout, m_readTimeout);
+            parser.printUsage(System.err);
+            System.exit(1);
+        }
+
+        if (m_watchDebounce < 0) {
+            logger.error("The watch debounce can't be negative, but was '{}'", m_watchDebounce);
+            parser.printUsage(System.err);
+            System.exit(1);
+        }
+
+        if (!m_extension.equalsIgnoreCase("ods") && !m_extension.equalsIgnoreCase("csv") && !m_extension.equalsIgnoreCase("tsv")) {
+            logger.error("The extension has to be ods, csv or tsv, but was '{}'", m_extension);
+            parser.printUsage(System.err);
+            System.exit(1);
+        }
+
+        if (m_cacheTtl < 0) {
+            logger.error("The cache time to live can't be negative, but was '{}'", m_cacheTtl);
+            parser.printUsage(System.err);
+            System.exit(1);
+        }
+
+        if (m_syncWindow < 0) {
+            logger.error("The synchronize window can't be negative, but was '{}'", m_syncWindow);
+            parser.printUsage(System.err);
+            System.exit(1);
+        }
+
+        if (m_syncConcurrency < 1) {
+            logger.error("At least one synchronize has to run at the same time, but the concurrency was '{}'", m_syncConcurrency);
+            parser.printUsage(System.err);
+            System.exit(1);
+        }
+
+        if (m_syncAttempts < 1) {
+            logger.error("A synchronize needs at least one attempt, but the attempts were '{}'", m_syncAttempts);
+            parser.printUsage(System.err);
+            System.exit(1);
+        }
+
+        if (m_outputPath != null && m_incremental) {
+            logger.error("An output path can't be combined with --incremental, the snapshot is only saved for files in the temp folder");
+            parser.printUsage(System.err);
+            System.exit(1);
+        }
+
         logger.info("OpenNMS Category Provisioning");
 
+        if (m_metricsJsonFile != null || m_metricsPrometheusFile != null) {
+            // Also covers the exits on errors and the end of the watch mode
+            Runtime.getRuntime().addShutdownHook(new Thread("metrics-writer") {
+                @Override
+                public void run() {
+                    writeMetrics();
+                }
+            });
+        }
+
         try {
             connParm = new OnmsRestConnectionParameter(m_baseUrl, m_username, m_password);
         } catch (MalformedURLException ex) {
@@ -110,6 +280,14 @@ public class Starter {
             System.exit(1);
         }
 
+        configureHttpConnections();
+        RestClientFactory.setDefault(new RestClientFactory(m_connectTimeout, m_readTimeout));
+
+        RequisitionSnapshotCache requisitionCache = null;
+        if (m_cache) {
+            requisitionCache = new RequisitionSnapshotCache(RequisitionSnapshotCache.getDefaultDirectory(), m_cacheTtl * 60000L, RequisitionSnapshotCache.DEFAULT_MAX_BYTES);
+        }
+
         if (m_generateOds) {
             File templateOdsFile = null;
             if (m_tempateOdsPath != null) {
@@ -122,20 +300,67 @@ public class Starter {
                 logger.info("Using default ODS template");
             }
 
+            SpreadsheetWriter spreadsheetWriter = new SpreadsheetWriter(m_streaming, m_foreignIdKey, m_fingerprint, "." + m_extension.toLowerCase());
+            ExportSnapshotStore snapshotStore = m_incremental ? new ExportSnapshotStore(ExportSnapshotStore.getDefaultDirectory()) : null;
             if (allForeignSources) {
-                RestCategoryReader.generateAllOdsFiles(connParm, templateOdsFile);
+                if (m_outputPath != null) {
+                    logger.error("An output path can only be used for a single foreign source");
+                    System.exit(1);
+                }
+                RestCategoryReader.generateAllOdsFiles(connParm, templateOdsFile, spreadsheetWriter, m_threads, requisitionCache, snapshotStore);
             } else {
                 if (m_foreignSource != null && !m_foreignSource.isEmpty()) {
-                    RestCategoryReader.generateOdsFile(m_foreignSource, connParm, templateOdsFile);
+                    if (m_outputPath != null) {
+                        exportOdsFile(connParm, templateOdsFile, spreadsheetWriter, requisitionCache, stdout);
+                    } else {
+                        RestCategoryReader.generateOdsFile(m_foreignSource, connParm, templateOdsFile, spreadsheetWriter, requisitionCache, snapshotStore);
+                    }
                 } else {
                     logger.error("To generate an ods file a foreignsource is required");
                     parser.printUsage(System.err);
                 }
             }
+        } else {
+            CategoryImportParameter importParameter = new CategoryImportParameter();
+            importParameter.setStreaming(m_streaming);
+            importParameter.setThreads(m_threads);
+            importParameter.setDeltaPush(m_deltaPush);
+            importParameter.setDeltaThreshold(m_deltaThreshold);
+            importParameter.setRequisitionCache(requisitionCache);
+            importParameter.setForeignIdKey(m_foreignIdKey);
+            importParameter.setSkipUnchangedRows(m_fingerprint);
+            if (m_synchronize) {
+                importParameter.setSynchronizeScheduler(new SynchronizeScheduler(SynchronizeScheduler.getDefaultDirectory(), connParm.getBaseUrl().toString(),
+                        m_syncWindow * 1000L, m_syncConcurrency, m_syncAttempts, SynchronizeScheduler.DEFAULT_RETRY_DELAY));
+            }
+            if (m_planFile != null) {
+                importParameter.setPlanFile(new File(m_planFile));
+            }
+            if (m_applyPlanFile != null) {
+                RestCategoryProvisioner.applyCategoryPlan(connParm, m_synchronize, new File(m_applyPlanFile), importParameter);
+            } else if (m_ruleFile != null) {
+                importCategoriesFromRules(parser, connParm, importParameter);
+            } else if (m_watchDirectory != null) {
+                watchCategories(connParm, importParameter);
+            } else {
+                importCategories(parser, connParm, importParameter);
+            }
+        }
+        logger.info("Thanks for computing with OpenNMS!");
+    }
+
+    private void importCategories(CmdLineParser parser, RestConnectionParameter connParm, CategoryImportParameter importParameter) {
+        if (allForeignSources) {
+            if (m_odsFileSource != null && !m_odsFileSource.isEmpty()) {
+                RestCategoryProvisioner.importCategoriesFromOdsForAllForeignSources(connParm, m_synchronize, m_odsFileSource, importParameter);
+            } else {
+                logger.error("To change categories on nodes from a ODS file, a ODS file is required");
+                parser.printUsage(System.err);
+            }
         } else {
             if (m_foreignSource != null && !m_foreignSource.isEmpty()) {
                 if (m_odsFileSource != null && !m_odsFileSource.isEmpty()) {
-                    RestCategoryProvisioner.importCategoriesFromOds(connParm, m_foreignSource, m_synchronize, m_odsFileSource);
+                    RestCategoryProvisioner.importCategoriesFromOds(connParm, m_foreignSource, m_synchronize, m_odsFileSource, importParameter);
                 } else {
                     logger.error("To change categories on nodes from a ODS file, a ODS file is required");
                     parser.printUsage(System.err);
@@ -145,7 +370,85 @@ public class Starter {
                 parser.printUsage(System.err);
             }
         }
-        logger.info("Thanks for computing with OpenNMS!");
+    }
+
+    /**
+     * The keep alive pool and the default timeouts of HttpURLConnection are read once by the JDK with the first
+     * connection and apply to the whole JVM, the REST client library included. So they are set here before any request.
+     */
+    private void configureHttpConnections() {
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", Integer.toString(m_maxConnections));
+        System.setProperty("sun.net.client.defaultConnectTimeout", Integer.toString(m_connectTimeout));
+        System.setProperty("sun.net.client.defaultReadTimeout", Integer.toString(m_readTimeout));
+    }
+
+    private void importCategoriesFromRules(CmdLineParser parser, RestConnectionParameter connParm, CategoryImportParameter importParameter) {
+        List<String> foreignSources;
+        if (allForeignSources) {
+            foreignSources = RestCategoryProvisioner.getForeignSources(connParm, importParameter.getRequisitionCache());
+        } else if (m_foreignSource != null && !m_foreignSource.isEmpty()) {
+            foreignSources = Collections.singletonList(m_foreignSource);
+        } else {
+            logger.error("To change categories on nodes by rules, a foreignsource is required.");
+            parser.printUsage(System.err);
+            return;
+        }
+        RestCategoryProvisioner.importCategoriesFromRules(connParm, foreignSources, m_synchronize, new File(m_ruleFile), importParameter);
+    }
+
+    private void watchCategories(final RestConnectionParameter connParm, final CategoryImportParameter importParameter) {
+        File watchDirectory = new File(m_watchDirectory);
+        if (!watchDirectory.isDirectory()) {
+            logger.error("Cant watch folder '{}', it is not a directory", m_watchDirectory);
+            System.exit(1);
+        }
+
+        try (OdsFolderWatcher watcher = new OdsFolderWatcher(watchDirectory, m_watchDebounce, new OdsFolderWatcher.OdsFileHandler() {
+            @Override
+            public void handle(File odsFile) {
+                RestCategoryProvisioner.importCategoriesFromOdsForAllForeignSources(connParm, m_synchronize, odsFile.getAbsolutePath(), importParameter);
+            }
+        })) {
+            watcher.run();
+        } catch (IOException e) {
+            logger.error("Error on watching folder '{}'", m_watchDirectory, e);
+            System.exit(1);
+        }
+    }
+
+    private void exportOdsFile(RestConnectionParameter connParm, File templateOdsFile, SpreadsheetWriter spreadsheetWriter, RequisitionSnapshotCache requisitionCache, PrintStream stdout) {
+        try {
+            if (STDOUT.equals(m_outputPath)) {
+                RestCategoryReader.exportOdsFile(m_foreignSource, connParm, templateOdsFile, spreadsheetWriter, requisitionCache, stdout);
+            } else {
+                try (OutputStream output = new BufferedOutputStream(new FileOutputStream(m_outputPath))) {
+                    RestCategoryReader.exportOdsFile(m_foreignSource, connParm, templateOdsFile, spreadsheetWriter, requisitionCache, output);
+                }
+                logger.info("saved '{}'", m_outputPath);
+            }
+        } catch (IOException e) {
+            logger.error("Error on exporting '{}' to '{}'", m_foreignSource, m_outputPath, e);
+            System.exit(1);
+        }
+    }
+
+    private void writeMetrics() {
+        PhaseMetrics metrics = PhaseMetrics.getDefault();
+        if (m_metricsJsonFile != null) {
+            try {
+                metrics.writeJson(new File(m_metricsJsonFile));
+            } catch (IOException e) {
+                logger.error("Error on writing metrics to '{}'", m_metricsJsonFile, e);
+            }
+        }
+        if (m_metricsPrometheusFile != null) {
+            try {
+                metrics.writePrometheus(new File(m_metricsPrometheusFile));
+            } catch (IOException e) {
+                logger.error("Error on writing metrics to '{}'", m_metricsPrometheusFile, e);
+            }
+        }
     }
 
     @Deprecated
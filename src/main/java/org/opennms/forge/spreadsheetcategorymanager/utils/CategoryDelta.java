@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.forge.spreadsheetcategorymanager.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>CategoryDelta class.</p>
+ * <p/>
+ * Categories added to and removed from one requisition node by an import. A delta is all that has to be sent to
+ * OpenNMS for a changed node, the rest of the requisition stays untouched.
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+public class CategoryDelta {
+
+    private final String m_foreignId;
+    private final String m_nodeLabel;
+    private final List<String> m_addedCategories = new ArrayList<>();
+    private final List<String> m_removedCategories = new ArrayList<>();
+
+    /**
+     * @param foreignId Foreign id of the requisition node as {@link java.lang.String}
+     * @param nodeLabel Label of the requisition node as {@link java.lang.String}
+     */
+    public CategoryDelta(String foreignId, String nodeLabel) {
+        this.m_foreignId = foreignId;
+        this.m_nodeLabel = nodeLabel;
+    }
+
+    public String getForeignId() {
+        return m_foreignId;
+    }
+
+    public String getNodeLabel() {
+        return m_nodeLabel;
+    }
+
+    public List<String> getAddedCategories() {
+        return Collections.unmodifiableList(m_addedCategories);
+    }
+
+    public List<String> getRemovedCategories() {
+        return Collections.unmodifiableList(m_removedCategories);
+    }
+
+    public void addCategory(String category) {
+        m_addedCategories.add(category);
+    }
+
+    public void removeCategory(String category) {
+        m_removedCategories.add(category);
+    }
+
+    public boolean isEmpty() {
+        return m_addedCategories.isEmpty() && m_removedCategories.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "CategoryDelta{" + "foreignId=" + m_foreignId + ", nodeLabel=" + m_nodeLabel + ", added=" + m_addedCategories + ", removed=" + m_removedCategories + '}';
+    }
+}
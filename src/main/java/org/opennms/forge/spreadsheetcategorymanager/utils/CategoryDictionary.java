@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.forge.spreadsheetcategorymanager.utils;
+
+import org.opennms.netmgt.provision.persist.requisition.RequisitionCategory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>CategoryDictionary class.</p>
+ * <p/>
+ * Interns category names to dense int ids. Node to category mappings sharing a dictionary keep their categories as bits
+ * indexed by these ids, so one {@link RequisitionCategory} per category exists instead of one per spreadsheet cell.
+ * The dictionary is safe to be shared across threads.
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+public class CategoryDictionary {
+
+    /**
+     * Id returned for category names which are not part of the dictionary
+     */
+    public static final int UNKNOWN = -1;
+
+    private final Map<String, Integer> m_ids = new HashMap<>();
+    private final List<RequisitionCategory> m_categories = new ArrayList<>();
+
+    /**
+     * Get the id of a category name, unknown names are added to the dictionary.
+     *
+     * @param name Name of the category as {@link java.lang.String}
+     * @return Id of the category
+     */
+    public synchronized int intern(String name) {
+        Integer id = m_ids.get(name);
+        if (id == null) {
+            id = m_categories.size();
+            m_ids.put(name, id);
+            m_categories.add(new RequisitionCategory(name));
+        }
+        return id;
+    }
+
+    /**
+     * @param name Name of the category as {@link java.lang.String}
+     * @return Id of the category or {@link #UNKNOWN} if the name is not part of the dictionary
+     */
+    public synchronized int getId(String name) {
+        Integer id = m_ids.get(name);
+        return id == null ? UNKNOWN : id;
+    }
+
+    /**
+     * @param id Id of the category
+     * @return Shared category object for the id as {@link org.opennms.netmgt.provision.persist.requisition.RequisitionCategory}
+     */
+    public synchronized RequisitionCategory getCategory(int id) {
+        return m_categories.get(id);
+    }
+
+    /**
+     * @param id Id of the category
+     * @return Name of the category as {@link java.lang.String}
+     */
+    public synchronized String getName(int id) {
+        return m_categories.get(id).getName();
+    }
+
+    /**
+     * @return Amount of interned categories
+     */
+    public synchronized int size() {
+        return m_categories.size();
+    }
+}
@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.forge.spreadsheetcategorymanager.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>CategoryMatrix class.</p>
+ * <p/>
+ * Compact copy of one spreadsheet table: the category names of the header row, the node labels of the first column and
+ * a row-major bit matrix which marks the not empty node to category cells. The table is read once into the matrix,
+ * all further processing runs on the matrix instead of the spreadsheet document.
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+public class CategoryMatrix {
+
+    private final String m_tableName;
+    private final String m_foreignSource;
+    private final List<String> m_categories;
+    private final int m_wordsPerRow;
+
+    private final List<String> m_nodeLabels = new ArrayList<>();
+    private long[] m_cells;
+
+    /**
+     * @param tableName  Name of the spreadsheet table as {@link java.lang.String}
+     * @param categories Category names of the header row in column order as {@link java.util.List}
+     */
+    public CategoryMatrix(String tableName, List<String> categories) {
+        this(tableName, "", categories);
+    }
+
+    /**
+     * @param tableName     Name of the spreadsheet table as {@link java.lang.String}
+     * @param foreignSource Content of the first header cell, the foreign source of the table as {@link java.lang.String}
+     * @param categories    Category names of the header row in column order as {@link java.util.List}
+     */
+    public CategoryMatrix(String tableName, String foreignSource, List<String> categories) {
+        this.m_tableName = tableName;
+        this.m_foreignSource = foreignSource;
+        this.m_categories = Collections.unmodifiableList(new ArrayList<>(categories));
+        this.m_wordsPerRow = (categories.size() + 63) >>> 6;
+        this.m_cells = new long[m_wordsPerRow * 16];
+    }
+
+    public String getTableName() {
+        return m_tableName;
+    }
+
+    public String getForeignSource() {
+        return m_foreignSource;
+    }
+
+    public List<String> getCategories() {
+        return m_categories;
+    }
+
+    public List<String> getNodeLabels() {
+        return Collections.unmodifiableList(m_nodeLabels);
+    }
+
+    public int getRowCount() {
+        return m_nodeLabels.size();
+    }
+
+    /**
+     * Append a node row with all cells empty.
+     *
+     * @param nodeLabel Label of the node as {@link java.lang.String}
+     * @return Index of the new row
+     */
+    public int addRow(String nodeLabel) {
+        int row = m_nodeLabels.size();
+        m_nodeLabels.add(nodeLabel);
+        int requiredWords = (row + 1) * m_wordsPerRow;
+        if (requiredWords > m_cells.length) {
+            m_cells = Arrays.copyOf(m_cells, Math.max(requiredWords, m_cells.length * 2));
+        }
+        return row;
+    }
+
+    /**
+     * Mark the cell of a node row and category column as not empty.
+     *
+     * @param row           Index of the node row
+     * @param categoryIndex Index of the category in {@link #getCategories()}
+     */
+    public void set(int row, int categoryIndex) {
+        checkCell(row, categoryIndex);
+        m_cells[row * m_wordsPerRow + (categoryIndex >>> 6)] |= 1L << categoryIndex;
+    }
+
+    /**
+     * @param row           Index of the node row
+     * @param categoryIndex Index of the category in {@link #getCategories()}
+     * @return true if the cell of the node row and category column is not empty
+     */
+    public boolean isSet(int row, int categoryIndex) {
+        checkCell(row, categoryIndex);
+        return (m_cells[row * m_wordsPerRow + (categoryIndex >>> 6)] & (1L << categoryIndex)) != 0;
+    }
+
+    private void checkCell(int row, int categoryIndex) {
+        if (row < 0 || row >= m_nodeLabels.size() || categoryIndex < 0 || categoryIndex >= m_categories.size()) {
+            throw new IndexOutOfBoundsException("Cell " + row + ":" + categoryIndex + " is outside of " + m_nodeLabels.size() + "x" + m_categories.size());
+        }
+    }
+}
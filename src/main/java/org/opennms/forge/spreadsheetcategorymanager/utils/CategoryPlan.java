@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.forge.spreadsheetcategorymanager.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>CategoryPlan class.</p>
+ * <p/>
+ * Exact category changes of an import by foreign source: the added and removed categories of every changed node and
+ * the labels of the spreadsheet nodes unknown to the requisition. A plan is written to a file for review and can be
+ * applied later without reading the spreadsheet again.
+ * <p/>
+ * The file is line based and UTF-8 encoded, the fields of a line are separated by tabs:
+ * <pre>
+ * foreign-source  name
+ * node            foreignId  nodeLabel
+ * add             category
+ * remove          category
+ * unknown         nodeLabel
+ * </pre>
+ * Category lines belong to the node line above, tabs, line breaks and backslashes in values are escaped with a
+ * backslash.
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+public class CategoryPlan {
+
+    private static final String FOREIGN_SOURCE = "foreign-source";
+    private static final String NODE = "node";
+    private static final String ADD = "add";
+    private static final String REMOVE = "remove";
+    private static final String UNKNOWN = "unknown";
+
+    private final Map<String, List<CategoryDelta>> m_changes = new LinkedHashMap<>();
+    private final Map<String, List<String>> m_unknownNodes = new LinkedHashMap<>();
+
+    /**
+     * Add a foreign source to the plan, a foreign source without changes stays in the plan.
+     *
+     * @param foreignSource name of the foreign source as {@link java.lang.String}
+     */
+    public synchronized void addForeignSource(String foreignSource) {
+        if (!m_changes.containsKey(foreignSource)) {
+            m_changes.put(foreignSource, new ArrayList<CategoryDelta>());
+            m_unknownNodes.put(foreignSource, new ArrayList<String>());
+        }
+    }
+
+    public synchronized void addChange(String foreignSource, CategoryDelta categoryDelta) {
+        addForeignSource(foreignSource);
+        m_changes.get(foreignSource).add(categoryDelta);
+    }
+
+    public synchronized void addUnknownNode(String foreignSource, String nodeLabel) {
+        addForeignSource(foreignSource);
+        m_unknownNodes.get(foreignSource).add(nodeLabel);
+    }
+
+    public synchronized Set<String> getForeignSources() {
+        return Collections.unmodifiableSet(m_changes.keySet());
+    }
+
+    public synchronized List<CategoryDelta> getChanges(String foreignSource) {
+        List<CategoryDelta> changes = m_changes.get(foreignSource);
+        return changes != null ? Collections.unmodifiableList(changes) : Collections.<CategoryDelta>emptyList();
+    }
+
+    public synchronized List<String> getUnknownNodes(String foreignSource) {
+        List<String> unknownNodes = m_unknownNodes.get(foreignSource);
+        return unknownNodes != null ? Collections.unmodifiableList(unknownNodes) : Collections.<String>emptyList();
+    }
+
+    /**
+     * <p>write</p>
+     * <p/>
+     * Write the plan into a file, an existing file is replaced.
+     *
+     * @param planFile File for the plan as {@link java.io.File}
+     * @throws IOException if the file can't be written
+     */
+    public synchronized void write(File planFile) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(planFile), "UTF-8"))) {
+            for (Map.Entry<String, List<CategoryDelta>> entry : m_changes.entrySet()) {
+                writeLine(writer, FOREIGN_SOURCE, entry.getKey());
+                for (CategoryDelta categoryDelta : entry.getValue()) {
+                    writeLine(writer, NODE, categoryDelta.getForeignId(), categoryDelta.getNodeLabel());
+                    for (String category : categoryDelta.getAddedCategories()) {
+                        writeLine(writer, ADD, category);
+                    }
+                    for (String category : categoryDelta.getRemovedCategories()) {
+                        writeLine(writer, REMOVE, category);
+                    }
+                }
+                for (String nodeLabel : m_unknownNodes.get(entry.getKey())) {
+                    writeLine(writer, UNKNOWN, nodeLabel);
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>read</p>
+     * <p/>
+     * Read a plan written by {@link #write(java.io.File)}.
+     *
+     * @param planFile File with the plan as {@link java.io.File}
+     * @return Plan of the file
+     * @throws IOException if the file can't be read or is not a plan
+     */
+    public static CategoryPlan read(File planFile) throws IOException {
+        CategoryPlan categoryPlan = new CategoryPlan();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(planFile), "UTF-8"))) {
+            String foreignSource = null;
+            CategoryDelta categoryDelta = null;
+            int lineNumber = 0;
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                lineNumber++;
+                if (line.isEmpty()) {
+                    continue;
+                }
+                List<String> fields = splitLine(line);
+                String type = fields.get(0);
+                if (FOREIGN_SOURCE.equals(type) && fields.size() == 2) {
+                    foreignSource = fields.get(1);
+                    categoryPlan.addForeignSource(foreignSource);
+                    categoryDelta = null;
+                } else if (foreignSource != null && NODE.equals(type) && fields.size() == 3) {
+                    categoryDelta = new CategoryDelta(fields.get(1), fields.get(2));
+                    categoryPlan.addChange(foreignSource, categoryDelta);
+                } else if (categoryDelta != null && ADD.equals(type) && fields.size() == 2) {
+                    categoryDelta.addCategory(fields.get(1));
+                } else if (categoryDelta != null && REMOVE.equals(type) && fields.size() == 2) {
+                    categoryDelta.removeCategory(fields.get(1));
+                } else if (foreignSource != null && UNKNOWN.equals(type) && fields.size() == 2) {
+                    categoryPlan.addUnknownNode(foreignSource, fields.get(1));
+                } else {
+                    throw new IOException("Invalid line " + lineNumber + " in plan " + planFile + ": " + line);
+                }
+            }
+        }
+        return categoryPlan;
+    }
+
+    private static void writeLine(BufferedWriter writer, String type, String... values) throws IOException {
+        writer.write(type);
+        for (String value : values) {
+            writer.write('\t');
+            writer.write(value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r"));
+        }
+        writer.newLine();
+    }
+
+    private static List<String> splitLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        for (int index = 0; index < line.length(); index++) {
+            char character = line.charAt(index);
+            if (character == '\t') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (character == '\\' && index + 1 < line.length()) {
+                char escaped = line.charAt(++index);
+                field.append(escaped == 't' ? '\t' : escaped == 'n' ? '\n' : escaped == 'r' ? '\r' : escaped);
+            } else {
+                field.append(character);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
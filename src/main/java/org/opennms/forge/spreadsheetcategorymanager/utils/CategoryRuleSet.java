@@ -0,0 +1,523 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.forge.spreadsheetcategorymanager.utils;
+
+import org.opennms.netmgt.provision.persist.requisition.Requisition;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionAsset;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionInterface;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionNode;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * <p>CategoryRuleSet class.</p>
+ * <p/>
+ * Rules which add and remove surveillance categories on all nodes matching a predicate on the node label, the foreign
+ * id, an interface IP address or an asset field. The rules are compiled into one matcher per field instead of
+ * testing every rule on every node: exact values are looked up in a hash map, prefixes in a character trie, CIDR
+ * ranges in a sorted table of disjoint address intervals. Only regular expressions are tested one by one, they are
+ * compiled once.
+ * <p/>
+ * The file is line based and UTF-8 encoded, the fields of a line are separated by tabs:
+ * <pre>
+ * match   field  operator  value
+ * add     category
+ * remove  category
+ * </pre>
+ * Fields are {@code label}, {@code foreign-id}, {@code ip} and {@code asset:name}, operators are {@code equals},
+ * {@code prefix} and {@code regex}, the ip field takes {@code cidr} like 10.1.0.0/16 or 2001:db8::/32. A regular
+ * expression matches anywhere in the value unless it is anchored. Category lines belong to the match line above,
+ * empty lines and lines starting with # are skipped. If one matching rule adds a category and another removes it,
+ * the category is removed.
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+public class CategoryRuleSet {
+
+    private static final String MATCH = "match";
+    private static final String ADD = "add";
+    private static final String REMOVE = "remove";
+
+    private static final String LABEL = "label";
+    private static final String FOREIGN_ID = "foreign-id";
+    private static final String IP = "ip";
+    private static final String ASSET_PREFIX = "asset:";
+
+    private static final String EQUALS = "equals";
+    private static final String PREFIX = "prefix";
+    private static final String REGEX = "regex";
+    private static final String CIDR = "cidr";
+
+    private static final Pattern IPV4_ADDRESS = Pattern.compile("\\d{1,3}(\\.\\d{1,3}){3}");
+
+    /**
+     * Prefix of IPv4 addresses mapped into the IPv6 address space, ::ffff:0:0/96
+     */
+    private static final byte[] IPV4_MAPPED_PREFIX = {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, (byte) 0xff, (byte) 0xff};
+
+    private final CategoryDictionary m_dictionary = new CategoryDictionary();
+    private final List<BitSet> m_addCategories = new ArrayList<>();
+    private final List<BitSet> m_removeCategories = new ArrayList<>();
+
+    private final FieldMatcher m_labelMatcher = new FieldMatcher();
+    private final FieldMatcher m_foreignIdMatcher = new FieldMatcher();
+    private final Map<String, FieldMatcher> m_assetMatchers = new HashMap<>();
+    private final CidrTable m_ipTable = new CidrTable();
+
+    /**
+     * <p>read</p>
+     * <p/>
+     * Read and compile the rules of a file.
+     *
+     * @param ruleFile File with the rules as {@link java.io.File}
+     * @return Compiled rules of the file
+     * @throws IOException if the file can't be read or has an invalid rule
+     */
+    public static CategoryRuleSet read(File ruleFile) throws IOException {
+        try (Reader reader = new InputStreamReader(new FileInputStream(ruleFile), "UTF-8")) {
+            return read(reader, ruleFile.getPath());
+        }
+    }
+
+    /**
+     * <p>read</p>
+     * <p/>
+     * Read and compile rules.
+     *
+     * @param reader Reader of the rules as {@link java.io.Reader}
+     * @param name   Name of the rules used in error messages as {@link java.lang.String}
+     * @return Compiled rules
+     * @throws IOException if the rules can't be read or a rule is invalid
+     */
+    public static CategoryRuleSet read(Reader reader, String name) throws IOException {
+        CategoryRuleSet ruleSet = new CategoryRuleSet();
+        BufferedReader lines = new BufferedReader(reader);
+        int ruleId = -1;
+        int lineNumber = 0;
+        for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+            lineNumber++;
+            if (line.trim().isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\t", -1);
+            try {
+                if (MATCH.equals(fields[0]) && fields.length == 4) {
+                    ruleId = ruleSet.addRule(fields[1], fields[2], fields[3]);
+                } else if (ruleId >= 0 && ADD.equals(fields[0]) && fields.length == 2) {
+                    ruleSet.m_addCategories.get(ruleId).set(ruleSet.m_dictionary.intern(fields[1]));
+                } else if (ruleId >= 0 && REMOVE.equals(fields[0]) && fields.length == 2) {
+                    ruleSet.m_removeCategories.get(ruleId).set(ruleSet.m_dictionary.intern(fields[1]));
+                } else {
+                    throw new IllegalArgumentException("unknown line type or wrong amount of fields");
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid line " + lineNumber + " in rules " + name + ": " + e.getMessage(), e);
+            }
+        }
+        ruleSet.m_ipTable.compile();
+        return ruleSet;
+    }
+
+    private int addRule(String field, String operator, String value) {
+        int ruleId = m_addCategories.size();
+        if (IP.equals(field)) {
+            if (!CIDR.equals(operator)) {
+                throw new IllegalArgumentException("the ip field only supports " + CIDR);
+            }
+            m_ipTable.add(value, ruleId);
+        } else {
+            FieldMatcher matcher;
+            if (LABEL.equals(field)) {
+                matcher = m_labelMatcher;
+            } else if (FOREIGN_ID.equals(field)) {
+                matcher = m_foreignIdMatcher;
+            } else if (field.startsWith(ASSET_PREFIX) && field.length() > ASSET_PREFIX.length()) {
+                String assetName = field.substring(ASSET_PREFIX.length());
+                matcher = m_assetMatchers.get(assetName);
+                if (matcher == null) {
+                    matcher = new FieldMatcher();
+                    m_assetMatchers.put(assetName, matcher);
+                }
+            } else {
+                throw new IllegalArgumentException("unknown field '" + field + "'");
+            }
+            matcher.add(operator, value, ruleId);
+        }
+        m_addCategories.add(new BitSet());
+        m_removeCategories.add(new BitSet());
+        return ruleId;
+    }
+
+    public int getRuleCount() {
+        return m_addCategories.size();
+    }
+
+    /**
+     * @return Dictionary of the categories of the rules, shared by all mappings of this rule set
+     */
+    public CategoryDictionary getDictionary() {
+        return m_dictionary;
+    }
+
+    /**
+     * <p>match</p>
+     *
+     * @param node Node to match the rules on as {@link org.opennms.netmgt.provision.persist.requisition.RequisitionNode}
+     * @return Ids of the matching rules in the order of the file as {@link java.util.BitSet}
+     */
+    public BitSet match(RequisitionNode node) {
+        BitSet rules = new BitSet();
+        m_labelMatcher.match(node.getNodeLabel(), rules);
+        m_foreignIdMatcher.match(node.getForeignId(), rules);
+        if (!m_ipTable.isEmpty()) {
+            for (RequisitionInterface requisitionInterface : node.getInterfaces()) {
+                byte[] address = parseAddress(requisitionInterface.getIpAddr());
+                if (address != null) {
+                    m_ipTable.match(address, rules);
+                }
+            }
+        }
+        if (!m_assetMatchers.isEmpty()) {
+            for (RequisitionAsset asset : node.getAssets()) {
+                FieldMatcher matcher = m_assetMatchers.get(asset.getName());
+                if (matcher != null) {
+                    matcher.match(asset.getValue(), rules);
+                }
+            }
+        }
+        return rules;
+    }
+
+    /**
+     * <p>getNodeToCategoryMappings</p>
+     * <p/>
+     * Match the rules on all nodes of a requisition. The mappings are keyed by foreign id, so nodes with the same
+     * label are changed unambiguously.
+     *
+     * @param requisition Requisition to match the rules on as {@link org.opennms.netmgt.provision.persist.requisition.Requisition}
+     * @return Mappings of the nodes with at least one matching rule
+     */
+    public List<NodeToCategoryMapping> getNodeToCategoryMappings(Requisition requisition) {
+        List<NodeToCategoryMapping> nodeToCategoryMappings = new ArrayList<>();
+        for (RequisitionNode node : requisition.getNodes()) {
+            BitSet rules = match(node);
+            if (rules.isEmpty()) {
+                continue;
+            }
+            NodeToCategoryMapping nodeToCategoryMapping = new NodeToCategoryMapping(node.getForeignId(), m_dictionary);
+            for (int ruleId = rules.nextSetBit(0); ruleId >= 0; ruleId = rules.nextSetBit(ruleId + 1)) {
+                nodeToCategoryMapping.getAddCategoryIds().or(m_addCategories.get(ruleId));
+                nodeToCategoryMapping.getRemoveCategoryIds().or(m_removeCategories.get(ruleId));
+            }
+            nodeToCategoryMappings.add(nodeToCategoryMapping);
+        }
+        return nodeToCategoryMappings;
+    }
+
+    /**
+     * Parse an IP address literal without name lookup into 16 bytes, IPv4 addresses are mapped into the IPv6 space.
+     *
+     * @return Address bytes or null if the text is not an IP address literal
+     */
+    static byte[] parseAddress(String text) {
+        if (text == null) {
+            return null;
+        }
+        String literal = text.trim();
+        int zone = literal.indexOf('%');
+        if (zone >= 0) {
+            literal = literal.substring(0, zone);
+        }
+        if (IPV4_ADDRESS.matcher(literal).matches()) {
+            byte[] mapped = Arrays.copyOf(IPV4_MAPPED_PREFIX, 16);
+            String[] octets = literal.split("\\.");
+            for (int octet = 0; octet < 4; octet++) {
+                int value = Integer.parseInt(octets[octet]);
+                if (value > 255) {
+                    return null;
+                }
+                mapped[12 + octet] = (byte) value;
+            }
+            return mapped;
+        }
+        // only IPv6 literals are passed on, a host name would be resolved
+        if (literal.indexOf(':') < 0) {
+            return null;
+        }
+        try {
+            byte[] address = InetAddress.getByName(literal).getAddress();
+            if (address.length == 4) {
+                byte[] mapped = Arrays.copyOf(IPV4_MAPPED_PREFIX, 16);
+                System.arraycopy(address, 0, mapped, 12, 4);
+                return mapped;
+            }
+            return address;
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Rules on one text field: exact values by hash, prefixes by trie, regular expressions one by one.
+     */
+    private static final class FieldMatcher {
+        private final Map<String, BitSet> m_values = new HashMap<>();
+        private final TrieNode m_prefixes = new TrieNode();
+        private final List<Pattern> m_patterns = new ArrayList<>();
+        private final List<Integer> m_patternRules = new ArrayList<>();
+        private boolean m_empty = true;
+
+        private void add(String operator, String value, int ruleId) {
+            if (EQUALS.equals(operator)) {
+                BitSet rules = m_values.get(value);
+                if (rules == null) {
+                    rules = new BitSet();
+                    m_values.put(value, rules);
+                }
+                rules.set(ruleId);
+            } else if (PREFIX.equals(operator)) {
+                m_prefixes.add(value, ruleId);
+            } else if (REGEX.equals(operator)) {
+                try {
+                    m_patterns.add(Pattern.compile(value));
+                } catch (PatternSyntaxException e) {
+                    throw new IllegalArgumentException("invalid regular expression '" + value + "'", e);
+                }
+                m_patternRules.add(ruleId);
+            } else {
+                throw new IllegalArgumentException("unknown operator '" + operator + "'");
+            }
+            m_empty = false;
+        }
+
+        private void match(String value, BitSet rules) {
+            if (m_empty || value == null) {
+                return;
+            }
+            BitSet valueRules = m_values.get(value);
+            if (valueRules != null) {
+                rules.or(valueRules);
+            }
+            m_prefixes.match(value, rules);
+            for (int pattern = 0; pattern < m_patterns.size(); pattern++) {
+                if (m_patterns.get(pattern).matcher(value).find()) {
+                    rules.set(m_patternRules.get(pattern));
+                }
+            }
+        }
+    }
+
+    /**
+     * Character trie of prefixes, the children are kept sorted by character for a binary search.
+     */
+    private static final class TrieNode {
+        private char[] m_keys = new char[0];
+        private TrieNode[] m_children = new TrieNode[0];
+        private BitSet m_rules;
+
+        private void add(String prefix, int ruleId) {
+            TrieNode node = this;
+            for (int index = 0; index < prefix.length(); index++) {
+                node = node.getOrCreateChild(prefix.charAt(index));
+            }
+            if (node.m_rules == null) {
+                node.m_rules = new BitSet();
+            }
+            node.m_rules.set(ruleId);
+        }
+
+        private TrieNode getOrCreateChild(char key) {
+            int position = Arrays.binarySearch(m_keys, key);
+            if (position >= 0) {
+                return m_children[position];
+            }
+            int insert = -position - 1;
+            char[] keys = new char[m_keys.length + 1];
+            TrieNode[] children = new TrieNode[m_children.length + 1];
+            System.arraycopy(m_keys, 0, keys, 0, insert);
+            System.arraycopy(m_children, 0, children, 0, insert);
+            System.arraycopy(m_keys, insert, keys, insert + 1, m_keys.length - insert);
+            System.arraycopy(m_children, insert, children, insert + 1, m_children.length - insert);
+            keys[insert] = key;
+            children[insert] = new TrieNode();
+            m_keys = keys;
+            m_children = children;
+            return children[insert];
+        }
+
+        /**
+         * Collect the rules of all prefixes of the value along one path through the trie.
+         */
+        private void match(String value, BitSet rules) {
+            TrieNode node = this;
+            for (int index = 0; ; index++) {
+                if (node.m_rules != null) {
+                    rules.or(node.m_rules);
+                }
+                if (index == value.length() || node.m_keys.length == 0) {
+                    return;
+                }
+                int position = Arrays.binarySearch(node.m_keys, value.charAt(index));
+                if (position < 0) {
+                    return;
+                }
+                node = node.m_children[position];
+            }
+        }
+    }
+
+    /**
+     * CIDR ranges split into disjoint address intervals, every interval knows all rules covering it. An address is
+     * looked up by a binary search over the interval starts.
+     */
+    private static final class CidrTable {
+        private static final Comparator<byte[]> ADDRESS_ORDER = new Comparator<byte[]>() {
+            @Override
+            public int compare(byte[] first, byte[] second) {
+                for (int index = 0; index < first.length; index++) {
+                    int difference = (first[index] & 0xff) - (second[index] & 0xff);
+                    if (difference != 0) {
+                        return difference;
+                    }
+                }
+                return 0;
+            }
+        };
+
+        private final List<byte[]> m_firstAddresses = new ArrayList<>();
+        private final List<byte[]> m_lastAddresses = new ArrayList<>();
+        private final List<Integer> m_rules = new ArrayList<>();
+
+        private byte[][] m_intervalStarts = new byte[0][];
+        private BitSet[] m_intervalRules = new BitSet[0];
+
+        private void add(String cidr, int ruleId) {
+            int slash = cidr.indexOf('/');
+            byte[] address = parseAddress(slash < 0 ? cidr : cidr.substring(0, slash));
+            if (address == null) {
+                throw new IllegalArgumentException("invalid address in '" + cidr + "'");
+            }
+            boolean ipv4 = slash < 0 ? cidr.indexOf(':') < 0 : cidr.substring(0, slash).indexOf(':') < 0;
+            int prefixLength = 128;
+            if (slash >= 0) {
+                try {
+                    prefixLength = Integer.parseInt(cidr.substring(slash + 1).trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("invalid prefix length in '" + cidr + "'", e);
+                }
+                if (prefixLength < 0 || prefixLength > (ipv4 ? 32 : 128)) {
+                    throw new IllegalArgumentException("invalid prefix length in '" + cidr + "'");
+                }
+                prefixLength += ipv4 ? 96 : 0;
+            }
+
+            byte[] first = address.clone();
+            byte[] last = address.clone();
+            for (int bit = prefixLength; bit < 128; bit++) {
+                first[bit / 8] &= (byte) ~(0x80 >>> (bit % 8));
+                last[bit / 8] |= (byte) (0x80 >>> (bit % 8));
+            }
+            m_firstAddresses.add(first);
+            m_lastAddresses.add(last);
+            m_rules.add(ruleId);
+        }
+
+        private boolean isEmpty() {
+            return m_rules.isEmpty();
+        }
+
+        /**
+         * Split the ranges at their first addresses and behind their last addresses into disjoint intervals.
+         */
+        private void compile() {
+            TreeSet<byte[]> starts = new TreeSet<>(ADDRESS_ORDER);
+            for (int range = 0; range < m_rules.size(); range++) {
+                starts.add(m_firstAddresses.get(range));
+                byte[] behindLast = increment(m_lastAddresses.get(range));
+                if (behindLast != null) {
+                    starts.add(behindLast);
+                }
+            }
+
+            m_intervalStarts = starts.toArray(new byte[starts.size()][]);
+            m_intervalRules = new BitSet[m_intervalStarts.length];
+            for (int range = 0; range < m_rules.size(); range++) {
+                int interval = Arrays.binarySearch(m_intervalStarts, m_firstAddresses.get(range), ADDRESS_ORDER);
+                for (; interval < m_intervalStarts.length && ADDRESS_ORDER.compare(m_intervalStarts[interval], m_lastAddresses.get(range)) <= 0; interval++) {
+                    if (m_intervalRules[interval] == null) {
+                        m_intervalRules[interval] = new BitSet();
+                    }
+                    m_intervalRules[interval].set(m_rules.get(range));
+                }
+            }
+        }
+
+        private void match(byte[] address, BitSet rules) {
+            int position = Arrays.binarySearch(m_intervalStarts, address, ADDRESS_ORDER);
+            int interval = position >= 0 ? position : -position - 2;
+            if (interval >= 0 && m_intervalRules[interval] != null) {
+                rules.or(m_intervalRules[interval]);
+            }
+        }
+
+        /**
+         * @return The next address or null behind the last address of the space
+         */
+        private static byte[] increment(byte[] address) {
+            byte[] next = address.clone();
+            for (int index = next.length - 1; index >= 0; index--) {
+                next[index]++;
+                if (next[index] != 0) {
+                    return next;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.forge.spreadsheetcategorymanager.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+/**
+ * <p>DelimitedTableStreamParser class.</p>
+ * <p/>
+ * Reader for CSV and TSV files with the layout of one ODS table: the foreign source in the first header cell, the
+ * category names in the header row, one row per node with marks for the assigned categories. The file is read record
+ * by record into the same {@link OdsTableStreamParser.RowHandler} as an ODS file, the whole file is one table named
+ * like the file. Cells may be quoted, quotes inside a quoted cell are doubled.
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+public final class DelimitedTableStreamParser {
+
+    /**
+     * File extension of comma separated files
+     */
+    public static final String CSV_EXTENSION = ".csv";
+
+    /**
+     * File extension of tab separated files
+     */
+    public static final String TSV_EXTENSION = ".tsv";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final char QUOTE = '"';
+
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+    /** Suppress default constructor for noninstantiability */
+    private DelimitedTableStreamParser() {
+    }
+
+    /**
+     * <p>isDelimited</p>
+     *
+     * @param fileName Name or path of a spreadsheet file as {@link java.lang.String}
+     * @return true if the file name ends with the CSV or TSV extension
+     */
+    public static boolean isDelimited(String fileName) {
+        String lowerCaseName = fileName.toLowerCase();
+        return lowerCaseName.endsWith(CSV_EXTENSION) || lowerCaseName.endsWith(TSV_EXTENSION);
+    }
+
+    /**
+     * <p>getDelimiter</p>
+     *
+     * @param fileName Name or path of a CSV or TSV file as {@link java.lang.String}
+     * @return Tab for TSV files, comma for all other files
+     */
+    public static char getDelimiter(String fileName) {
+        return fileName.toLowerCase().endsWith(TSV_EXTENSION) ? '\t' : ',';
+    }
+
+    /**
+     * <p>parse</p>
+     * <p/>
+     * Stream the table of a CSV or TSV file into the row handler, the delimiter is chosen by the file extension.
+     *
+     * @param delimitedFile CSV or TSV file in UTF-8 as {@link java.io.File}
+     * @param handler       Handler for the rows as {@link OdsTableStreamParser.RowHandler}
+     * @throws IOException if the file can't be read
+     */
+    public static void parse(File delimitedFile, OdsTableStreamParser.RowHandler handler) throws IOException {
+        try (Reader reader = new InputStreamReader(new FileInputStream(delimitedFile), "UTF-8")) {
+            parse(reader, getDelimiter(delimitedFile.getName()), delimitedFile.getName(), handler);
+        }
+    }
+
+    /**
+     * <p>parse</p>
+     * <p/>
+     * Stream the records of a delimited text into the row handler as one table.
+     *
+     * @param input     Delimited text as {@link java.io.Reader}
+     * @param delimiter Separator of the cells
+     * @param tableName Name of the table as {@link java.lang.String}
+     * @param handler   Handler for the rows as {@link OdsTableStreamParser.RowHandler}
+     * @throws IOException if the text can't be read
+     */
+    public static void parse(Reader input, char delimiter, String tableName, OdsTableStreamParser.RowHandler handler) throws IOException {
+        BufferedReader reader = new BufferedReader(input, BUFFER_SIZE);
+        reader.mark(1);
+        if (reader.read() != BYTE_ORDER_MARK) {
+            reader.reset();
+        }
+
+        handler.startTable(tableName);
+        SparseRow cells;
+        while ((cells = readRecord(reader, delimiter)) != null) {
+            if (!handler.row(cells)) {
+                break;
+            }
+        }
+        handler.endTable(tableName);
+    }
+
+    /**
+     * Read the not empty cells of the next record. A line break inside a quoted cell belongs to the cell.
+     *
+     * @return the cells or null at the end of the input
+     */
+    private static SparseRow readRecord(BufferedReader reader, char delimiter) throws IOException {
+        int c = reader.read();
+        if (c == -1) {
+            return null;
+        }
+
+        SparseRow cells = new SparseRow();
+        int column = 0;
+        StringBuilder cell = new StringBuilder();
+        boolean quoted = false;
+        while (true) {
+            if (quoted) {
+                if (c == -1) {
+                    throw new IOException("Quoted cell '" + cell + "' is not closed");
+                }
+                if (c == QUOTE) {
+                    c = reader.read();
+                    if (c == QUOTE) {
+                        cell.append(QUOTE);
+                        c = reader.read();
+                    } else {
+                        quoted = false;
+                    }
+                    continue;
+                }
+                cell.append((char) c);
+            } else if (c == -1 || c == '\n' || c == '\r') {
+                cells.append(column, cell.toString());
+                if (c == '\r') {
+                    reader.mark(1);
+                    if (reader.read() != '\n') {
+                        reader.reset();
+                    }
+                }
+                return cells;
+            } else if (c == delimiter) {
+                cells.append(column++, cell.toString());
+                cell.setLength(0);
+            } else if (c == QUOTE && cell.length() == 0) {
+                quoted = true;
+            } else {
+                cell.append((char) c);
+            }
+            c = reader.read();
+        }
+    }
+}
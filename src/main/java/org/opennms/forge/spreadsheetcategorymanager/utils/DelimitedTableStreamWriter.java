@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.forge.spreadsheetcategorymanager.utils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * <p>DelimitedTableStreamWriter class.</p>
+ * <p/>
+ * Writes one table as CSV or TSV in UTF-8, row by row straight into the output. Cells with the delimiter, quotes or
+ * line breaks are quoted, records end with CR LF. A CSV or TSV file can't hide a column, the hidden column of the
+ * table is written like all others.
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+public final class DelimitedTableStreamWriter implements OdsTableStreamWriter.TableRows {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String RECORD_SEPARATOR = "\r\n";
+
+    private final Writer m_writer;
+
+    private final char m_delimiter;
+
+    private boolean m_firstCell;
+
+    private DelimitedTableStreamWriter(Writer writer, char delimiter) {
+        this.m_writer = writer;
+        this.m_delimiter = delimiter;
+    }
+
+    /**
+     * <p>write</p>
+     *
+     * @param output    Stream for the CSV or TSV content as {@link java.io.OutputStream}, it is flushed but not closed
+     * @param delimiter Separator of the cells
+     * @param table     Content of the table as {@link OdsTableStreamWriter.TableSource}
+     * @throws IOException if writing went wrong
+     */
+    public static void write(OutputStream output, char delimiter, OdsTableStreamWriter.TableSource table) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, "UTF-8"), BUFFER_SIZE);
+        table.writeRows(new DelimitedTableStreamWriter(writer, delimiter));
+        writer.flush();
+    }
+
+    @Override
+    public void startRow() {
+        m_firstCell = true;
+    }
+
+    @Override
+    public void writeCell(String text) throws IOException {
+        if (!m_firstCell) {
+            m_writer.write(m_delimiter);
+        }
+        m_firstCell = false;
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        if (needsQuotes(text)) {
+            m_writer.write('"');
+            m_writer.write(text.replace("\"", "\"\""));
+            m_writer.write('"');
+        } else {
+            m_writer.write(text);
+        }
+    }
+
+    @Override
+    public void skipCells(int count) throws IOException {
+        for (int cell = 0; cell < count; cell++) {
+            writeCell(null);
+        }
+    }
+
+    @Override
+    public void endRow() throws IOException {
+        m_writer.write(RECORD_SEPARATOR);
+    }
+
+    private boolean needsQuotes(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == m_delimiter || c == '"' || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
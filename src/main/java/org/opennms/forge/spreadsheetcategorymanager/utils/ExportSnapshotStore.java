@@ -0,0 +1,406 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.forge.spreadsheetcategorymanager.utils;
+
+import org.opennms.netmgt.provision.persist.requisition.Requisition;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionCategory;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * <p>ExportSnapshotStore class.</p>
+ * <p/>
+ * Node to category matrix of the last export of every foreign source, keyed by base URL and foreign source. The next
+ * export diffs the live requisition against it to skip unchanged foreign sources or to export only the changed nodes.
+ * <p/>
+ * A snapshot is one binary file: a header with format version, key type and a hash of the writer settings like format,
+ * template and fingerprints, the sorted category names, a table with
+ * the offsets of the node keys sorted by their UTF-8 bytes, one bitset per node over the category indexes and the node
+ * keys. The file is memory mapped for the diff, node keys are found by binary search in the mapping and the bitsets
+ * are compared in place, so nothing but the category names is read onto the heap.
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+public class ExportSnapshotStore {
+
+    private static Logger logger = LoggerFactory.getLogger(ExportSnapshotStore.class);
+
+    private static final int MAGIC = 0x5353434D;
+
+    /**
+     * Format version, snapshots of another version are ignored and replaced by the next export
+     */
+    private static final int VERSION = 2;
+
+    private static final String SUFFIX = ".matrix";
+
+    private static final byte KEY_NODE_LABEL = 0;
+    private static final byte KEY_FOREIGN_ID = 1;
+
+    /**
+     * Orders node keys like the key table of a snapshot, by unsigned UTF-8 bytes
+     */
+    private static final Comparator<byte[]> KEY_ORDER = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] first, byte[] second) {
+            int length = Math.min(first.length, second.length);
+            for (int i = 0; i < length; i++) {
+                int difference = (first[i] & 0xff) - (second[i] & 0xff);
+                if (difference != 0) {
+                    return difference;
+                }
+            }
+            return first.length - second.length;
+        }
+    };
+
+    private final File m_directory;
+
+    /**
+     * Changes of a live requisition against its snapshot.
+     */
+    public static final class SnapshotDiff {
+
+        private final Set<String> m_changedNodes;
+        private final int m_removedNodes;
+
+        private SnapshotDiff(Set<String> changedNodes, int removedNodes) {
+            this.m_changedNodes = Collections.unmodifiableSet(changedNodes);
+            this.m_removedNodes = removedNodes;
+        }
+
+        /**
+         * @return Keys of the new nodes and of the nodes with other categories than in the snapshot
+         */
+        public Set<String> getChangedNodes() {
+            return m_changedNodes;
+        }
+
+        /**
+         * @return Amount of snapshot nodes which are not in the requisition anymore
+         */
+        public int getRemovedNodes() {
+            return m_removedNodes;
+        }
+
+        public boolean isUnchanged() {
+            return m_changedNodes.isEmpty() && m_removedNodes == 0;
+        }
+    }
+
+    /**
+     * @param directory Directory of the snapshot files as {@link java.io.File}, created if it doesn't exist
+     */
+    public ExportSnapshotStore(File directory) {
+        this.m_directory = directory;
+    }
+
+    /**
+     * @return Default directory of the snapshot files in the temp directory
+     */
+    public static File getDefaultDirectory() {
+        return new File(System.getProperty("java.io.tmpdir"), "SSCM_Exports");
+    }
+
+    /**
+     * <p>diff</p>
+     * <p/>
+     * Compare the nodes and categories of a requisition with the snapshot of its last export.
+     *
+     * @param baseUrl      Base URL of the OpenNMS as {@link java.lang.String}
+     * @param requisition  Live requisition as {@link org.opennms.netmgt.provision.persist.requisition.Requisition}
+     * @param foreignIdKey   true if the nodes are keyed by foreign id instead of node label
+     * @param writerSettings Settings of the writer which change the exported file as {@link java.lang.String}
+     * @return Changes of the requisition or null if there is no usable snapshot, the whole requisition has to be exported then
+     */
+    public SnapshotDiff diff(String baseUrl, Requisition requisition, boolean foreignIdKey, String writerSettings) {
+        File snapshotFile = getSnapshotFile(baseUrl, requisition.getForeignSource());
+        if (!snapshotFile.isFile()) {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer snapshot = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (snapshot.getInt() != MAGIC || snapshot.getInt() != VERSION) {
+                logger.info("Export snapshot '{}' has another format and is replaced by a full export", snapshotFile);
+                return null;
+            }
+            snapshot.getLong();
+            if (snapshot.get() != (foreignIdKey ? KEY_FOREIGN_ID : KEY_NODE_LABEL)) {
+                logger.info("Export snapshot of '{}' has other node keys and is replaced by a full export", requisition.getForeignSource());
+                return null;
+            }
+            if (snapshot.getLong() != getSettingsHash(writerSettings)) {
+                logger.info("Export snapshot of '{}' was written with other settings and is replaced by a full export", requisition.getForeignSource());
+                return null;
+            }
+            int categoryCount = snapshot.getInt();
+            int nodeCount = snapshot.getInt();
+            int wordsPerNode = snapshot.getInt();
+
+            Map<String, Integer> categoryIndexes = new HashMap<>();
+            for (int categoryIndex = 0; categoryIndex < categoryCount; categoryIndex++) {
+                byte[] category = new byte[snapshot.getInt()];
+                snapshot.get(category);
+                categoryIndexes.put(new String(category, StandardCharsets.UTF_8), categoryIndex);
+            }
+            int keyTable = snapshot.position();
+            int bitsets = keyTable + 4 * nodeCount;
+
+            Set<String> changedNodes = new LinkedHashSet<>();
+            BitSet seenNodes = new BitSet(nodeCount);
+            long[] liveBits = new long[wordsPerNode];
+            for (Map.Entry<String, RequisitionNode> node : getNodesByKey(requisition, foreignIdKey).entrySet()) {
+                int nodeIndex = findNode(snapshot, keyTable, nodeCount, node.getKey().getBytes(StandardCharsets.UTF_8));
+                if (nodeIndex < 0) {
+                    changedNodes.add(node.getKey());
+                    continue;
+                }
+                seenNodes.set(nodeIndex);
+                if (!hasSameCategories(snapshot, bitsets + nodeIndex * wordsPerNode * 8, node.getValue(), categoryIndexes, liveBits)) {
+                    changedNodes.add(node.getKey());
+                }
+            }
+            return new SnapshotDiff(changedNodes, nodeCount - seenNodes.cardinality());
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Export snapshot '{}' is unreadable and is replaced by a full export", snapshotFile, e);
+            return null;
+        }
+    }
+
+    /**
+     * <p>put</p>
+     * <p/>
+     * Replace the snapshot of a foreign source by the nodes and categories of an exported requisition. A failing write
+     * only means the next export of this foreign source is a full one.
+     *
+     * @param baseUrl      Base URL of the OpenNMS as {@link java.lang.String}
+     * @param requisition  Exported requisition as {@link org.opennms.netmgt.provision.persist.requisition.Requisition}
+     * @param foreignIdKey   true if the nodes are keyed by foreign id instead of node label
+     * @param writerSettings Settings of the writer which changed the exported file as {@link java.lang.String}
+     */
+    public void put(String baseUrl, Requisition requisition, boolean foreignIdKey, String writerSettings) {
+        Map<String, RequisitionNode> nodesByKey = getNodesByKey(requisition, foreignIdKey);
+        Set<String> categorySet = new TreeSet<>();
+        for (RequisitionNode node : nodesByKey.values()) {
+            for (RequisitionCategory category : node.getCategories()) {
+                categorySet.add(category.getName());
+            }
+        }
+        List<byte[]> categories = new ArrayList<>();
+        Map<String, Integer> categoryIndexes = new HashMap<>();
+        for (String category : categorySet) {
+            categoryIndexes.put(category, categories.size());
+            categories.add(category.getBytes(StandardCharsets.UTF_8));
+        }
+
+        Map<byte[], RequisitionNode> nodes = new TreeMap<>(KEY_ORDER);
+        for (Map.Entry<String, RequisitionNode> node : nodesByKey.entrySet()) {
+            nodes.put(node.getKey().getBytes(StandardCharsets.UTF_8), node.getValue());
+        }
+        int wordsPerNode = (categories.size() + 63) >>> 6;
+
+        int headerSize = 4 + 4 + 8 + 1 + 8 + 4 + 4 + 4;
+        for (byte[] category : categories) {
+            headerSize += 4 + category.length;
+        }
+        long keyOffset = headerSize + 4L * nodes.size() + 8L * wordsPerNode * nodes.size();
+
+        File snapshotFile = getSnapshotFile(baseUrl, requisition.getForeignSource());
+        File partFile = new File(m_directory, snapshotFile.getName() + "." + Thread.currentThread().getId() + ".part");
+        try {
+            if (!m_directory.isDirectory() && !m_directory.mkdirs()) {
+                throw new IOException("Cannot create snapshot directory " + m_directory);
+            }
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partFile), 64 * 1024))) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeLong(System.currentTimeMillis());
+                output.writeByte(foreignIdKey ? KEY_FOREIGN_ID : KEY_NODE_LABEL);
+                output.writeLong(getSettingsHash(writerSettings));
+                output.writeInt(categories.size());
+                output.writeInt(nodes.size());
+                output.writeInt(wordsPerNode);
+                for (byte[] category : categories) {
+                    output.writeInt(category.length);
+                    output.write(category);
+                }
+                for (byte[] key : nodes.keySet()) {
+                    if (keyOffset > Integer.MAX_VALUE) {
+                        throw new IOException("Snapshot of " + nodes.size() + " nodes is too large");
+                    }
+                    output.writeInt((int) keyOffset);
+                    keyOffset += 4 + key.length;
+                }
+                long[] bits = new long[wordsPerNode];
+                for (RequisitionNode node : nodes.values()) {
+                    setCategoryBits(node, categoryIndexes, bits);
+                    for (long word : bits) {
+                        output.writeLong(word);
+                    }
+                }
+                for (byte[] key : nodes.keySet()) {
+                    output.writeInt(key.length);
+                    output.write(key);
+                }
+            }
+            Files.move(partFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.debug("Saved export snapshot of '{}' with {} nodes", requisition.getForeignSource(), nodes.size());
+        } catch (IOException e) {
+            logger.warn("Saving export snapshot of '{}' from '{}' went wrong", requisition.getForeignSource(), baseUrl, e);
+            if (partFile.exists() && !partFile.delete()) {
+                logger.warn("Cannot delete '{}'", partFile);
+            }
+        }
+    }
+
+    /**
+     * Nodes by the key of their spreadsheet row, the last node wins for duplicate keys like on export.
+     */
+    private static Map<String, RequisitionNode> getNodesByKey(Requisition requisition, boolean foreignIdKey) {
+        Map<String, RequisitionNode> nodesByKey = new LinkedHashMap<>();
+        for (RequisitionNode node : requisition.getNodes()) {
+            nodesByKey.put(foreignIdKey ? node.getForeignId() : node.getNodeLabel(), node);
+        }
+        return nodesByKey;
+    }
+
+    /**
+     * @return false if the node has a category which isn't in the snapshot
+     */
+    private static boolean setCategoryBits(RequisitionNode node, Map<String, Integer> categoryIndexes, long[] bits) {
+        Arrays.fill(bits, 0L);
+        for (RequisitionCategory category : node.getCategories()) {
+            Integer categoryIndex = categoryIndexes.get(category.getName());
+            if (categoryIndex == null) {
+                return false;
+            }
+            bits[categoryIndex >>> 6] |= 1L << (categoryIndex & 63);
+        }
+        return true;
+    }
+
+    private static boolean hasSameCategories(ByteBuffer snapshot, int bitsetPosition, RequisitionNode node, Map<String, Integer> categoryIndexes, long[] liveBits) {
+        if (!setCategoryBits(node, categoryIndexes, liveBits)) {
+            return false;
+        }
+        for (int word = 0; word < liveBits.length; word++) {
+            if (snapshot.getLong(bitsetPosition + word * 8) != liveBits[word]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Binary search of a node key in the sorted key table of the mapped snapshot.
+     *
+     * @return Index of the node or -1 if the snapshot doesn't have it
+     */
+    private static int findNode(ByteBuffer snapshot, int keyTable, int nodeCount, byte[] key) {
+        int low = 0;
+        int high = nodeCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compareKey(snapshot, snapshot.getInt(keyTable + middle * 4), key);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private static int compareKey(ByteBuffer snapshot, int keyPosition, byte[] key) {
+        int snapshotLength = snapshot.getInt(keyPosition);
+        int length = Math.min(snapshotLength, key.length);
+        for (int i = 0; i < length; i++) {
+            int difference = (snapshot.get(keyPosition + 4 + i) & 0xff) - (key[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return snapshotLength - key.length;
+    }
+
+    private File getSnapshotFile(String baseUrl, String foreignSource) {
+        StringBuilder name = new StringBuilder();
+        for (byte hashByte : sha1(baseUrl + "\n" + foreignSource)) {
+            name.append(Character.forDigit((hashByte >> 4) & 0xf, 16)).append(Character.forDigit(hashByte & 0xf, 16));
+        }
+        return new File(m_directory, name.append(SUFFIX).toString());
+    }
+
+    private static long getSettingsHash(String writerSettings) {
+        return ByteBuffer.wrap(sha1(writerSettings)).getLong();
+    }
+
+    private static byte[] sha1(String value) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is required by every Java platform", e);
+        }
+    }
+}
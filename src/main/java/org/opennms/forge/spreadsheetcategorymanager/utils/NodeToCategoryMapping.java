@@ -29,25 +29,37 @@ package org.opennms.forge.spreadsheetcategorymanager.utils;
 
 import org.opennms.netmgt.provision.persist.requisition.RequisitionCategory;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.BitSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 /**
+ * Add and remove categories of a node. The categories are kept as bits indexed by the ids of a shared
+ * {@link CategoryDictionary}, the category lists are lazy read only views on these bits.
+ *
  * @author Markus@OpenNMS.com
  */
 public class NodeToCategoryMapping {
     String nodeLabel;
-    List<RequisitionCategory> addCategories = new ArrayList<>();
-    List<RequisitionCategory> removeCategories = new ArrayList<>();
+    final CategoryDictionary dictionary;
+    final BitSet addCategories = new BitSet();
+    final BitSet removeCategories = new BitSet();
 
     public NodeToCategoryMapping(String nodeLabel) {
+        this(nodeLabel, new CategoryDictionary());
+    }
+
+    public NodeToCategoryMapping(String nodeLabel, CategoryDictionary dictionary) {
         this.nodeLabel = nodeLabel;
+        this.dictionary = dictionary;
     }
 
     public NodeToCategoryMapping(String nodeLabel, List<RequisitionCategory> addCategories, List<RequisitionCategory> removeCategories) {
-        this.nodeLabel = nodeLabel;
-        this.addCategories = addCategories;
-        this.removeCategories = removeCategories;
+        this(nodeLabel);
+        setAddCategories(addCategories);
+        setRemoveCategories(removeCategories);
     }
 
     public String getNodeLabel() {
@@ -58,24 +70,121 @@ public class NodeToCategoryMapping {
         this.nodeLabel = nodeLabel;
     }
 
-    public List<RequisitionCategory> getAddCategories() {
+    public CategoryDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * @param categoryId Id of the category in the dictionary of this mapping
+     */
+    public void addCategory(int categoryId) {
+        addCategories.set(categoryId);
+    }
+
+    /**
+     * @param categoryId Id of the category in the dictionary of this mapping
+     */
+    public void removeCategory(int categoryId) {
+        removeCategories.set(categoryId);
+    }
+
+    /**
+     * @return Live bits of the add categories indexed by the dictionary ids as {@link java.util.BitSet}
+     */
+    public BitSet getAddCategoryIds() {
         return addCategories;
     }
 
+    /**
+     * @return Live bits of the remove categories indexed by the dictionary ids as {@link java.util.BitSet}
+     */
+    public BitSet getRemoveCategoryIds() {
+        return removeCategories;
+    }
+
+    public List<RequisitionCategory> getAddCategories() {
+        return new CategoryListView(addCategories);
+    }
+
     public void setAddCategories(List<RequisitionCategory> addCategories) {
-        this.addCategories = addCategories;
+        setCategories(this.addCategories, addCategories);
     }
 
     public List<RequisitionCategory> getRemoveCategories() {
-        return removeCategories;
+        return new CategoryListView(removeCategories);
     }
 
     public void setRemoveCategories(List<RequisitionCategory> removeCategories) {
-        this.removeCategories = removeCategories;
+        setCategories(this.removeCategories, removeCategories);
+    }
+
+    private void setCategories(BitSet categoryIds, List<RequisitionCategory> categories) {
+        categoryIds.clear();
+        for (RequisitionCategory category : categories) {
+            categoryIds.set(dictionary.intern(category.getName()));
+        }
     }
 
     @Override
     public String toString() {
-        return "NodeToCategoryMapping{" + "nodeLabel=" + nodeLabel + ", addCategories=" + addCategories + ", removeCategories=" + removeCategories + '}';
+        return "NodeToCategoryMapping{" + "nodeLabel=" + nodeLabel + ", addCategories=" + getAddCategories() + ", removeCategories=" + getRemoveCategories() + '}';
+    }
+
+    /**
+     * Read only list of the categories for the set bits, resolved through the dictionary on access.
+     */
+    private class CategoryListView extends AbstractList<RequisitionCategory> {
+        private final BitSet categoryIds;
+
+        private CategoryListView(BitSet categoryIds) {
+            this.categoryIds = categoryIds;
+        }
+
+        @Override
+        public RequisitionCategory get(int index) {
+            if (index < 0) {
+                throw new IndexOutOfBoundsException("Index: " + index);
+            }
+            int categoryId = categoryIds.nextSetBit(0);
+            for (int i = 0; i < index && categoryId >= 0; i++) {
+                categoryId = categoryIds.nextSetBit(categoryId + 1);
+            }
+            if (categoryId < 0) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+            }
+            return dictionary.getCategory(categoryId);
+        }
+
+        @Override
+        public int size() {
+            return categoryIds.cardinality();
+        }
+
+        @Override
+        public Iterator<RequisitionCategory> iterator() {
+            return new Iterator<RequisitionCategory>() {
+                private int nextId = categoryIds.nextSetBit(0);
+
+                @Override
+                public boolean hasNext() {
+                    return nextId >= 0;
+                }
+
+                @Override
+                public RequisitionCategory next() {
+                    if (nextId < 0) {
+                        throw new NoSuchElementException();
+                    }
+                    RequisitionCategory category = dictionary.getCategory(nextId);
+                    nextId = categoryIds.nextSetBit(nextId + 1);
+                    return category;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
     }
 }
@@ -0,0 +1,272 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.forge.spreadsheetcategorymanager.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>OdsFolderWatcher class.</p>
+ * <p/>
+ * Watches a folder for new and modified ODS files and hands every file to a handler once it stopped changing. A file
+ * counts as complete when neither a watch event arrived nor its size or modification time changed for the debounce
+ * time, so a spreadsheet which is still copied or saved is not read half written. Hidden files are ignored.
+ * <p/>
+ * Size and modification time of every handled file are kept, files which were already in the folder when the watch
+ * started count as handled. If events got lost, only files which changed since they were handled are handed over
+ * again, an old sheet is never applied over newer changes.
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+public class OdsFolderWatcher implements Closeable {
+
+    private static Logger logger = LoggerFactory.getLogger(OdsFolderWatcher.class);
+
+    /**
+     * Default time a file has to stay unchanged before it is handled, two seconds
+     */
+    public static final long DEFAULT_DEBOUNCE = 2000L;
+
+    /**
+     * Extension of the watched files besides CSV and TSV
+     */
+    private static final String ODS_EXTENSION = ".ods";
+
+    /**
+     * Callback for the complete ODS files of the folder.
+     */
+    public interface OdsFileHandler {
+
+        /**
+         * An ODS file was created or modified and is complete.
+         *
+         * @param odsFile ODS file to handle as {@link java.io.File}
+         */
+        void handle(File odsFile);
+    }
+
+    private final Path m_directory;
+
+    private final long m_debounce;
+
+    private final OdsFileHandler m_handler;
+
+    private final WatchService m_watchService;
+
+    /**
+     * Files with events which are not handled yet, in the order of their first event
+     */
+    private final Map<Path, PendingFile> m_pendingFiles = new LinkedHashMap<>();
+
+    /**
+     * Size and modification time of the files when they were handled
+     */
+    private final Map<Path, PendingFile> m_handledFiles = new HashMap<>();
+
+    /**
+     * @param directory Folder to watch as {@link java.io.File}
+     * @param debounce  Milliseconds a file has to stay unchanged before it is handled
+     * @param handler   Handler for the complete files as {@link OdsFileHandler}
+     * @throws IOException if the folder can't be watched
+     */
+    public OdsFolderWatcher(File directory, long debounce, OdsFileHandler handler) throws IOException {
+        this.m_directory = directory.toPath();
+        this.m_debounce = debounce;
+        this.m_handler = handler;
+        this.m_watchService = m_directory.getFileSystem().newWatchService();
+        m_directory.register(m_watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(m_directory)) {
+            for (Path file : files) {
+                PendingFile existingFile = new PendingFile();
+                existingFile.update(file.toFile(), now);
+                m_handledFiles.put(file, existingFile);
+            }
+        }
+    }
+
+    /**
+     * <p>run</p>
+     * <p/>
+     * Watch the folder until the watcher is closed or the thread is interrupted. The handler runs on the calling
+     * thread, one file after the other, a failing file doesn't stop the watcher.
+     */
+    public void run() {
+        logger.info("Watching '{}' for ODS files", m_directory.toAbsolutePath());
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey watchKey = m_pendingFiles.isEmpty() ? m_watchService.take() : m_watchService.poll(m_debounce / 4 + 1, TimeUnit.MILLISECONDS);
+                if (watchKey != null) {
+                    collectEvents(watchKey);
+                    if (!watchKey.reset()) {
+                        logger.error("Folder '{}' can't be watched anymore", m_directory.toAbsolutePath());
+                        return;
+                    }
+                }
+                handleCompleteFiles();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            logger.debug("Watch service of '{}' closed", m_directory.toAbsolutePath());
+        }
+        logger.info("Stopped watching '{}'", m_directory.toAbsolutePath());
+    }
+
+    /**
+     * Stop watching, a running {@link #run()} returns after the file it is handling.
+     */
+    @Override
+    public void close() throws IOException {
+        m_watchService.close();
+    }
+
+    private void collectEvents(WatchKey watchKey) {
+        long now = System.currentTimeMillis();
+        for (WatchEvent<?> event : watchKey.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // Events got lost, every ODS file of the folder could have changed
+                logger.warn("Lost events on '{}', checking all ODS files", m_directory.toAbsolutePath());
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(m_directory)) {
+                    for (Path file : files) {
+                        if (isChangedSinceHandled(file)) {
+                            addPendingFile(file, now);
+                        }
+                    }
+                } catch (IOException e) {
+                    logger.error("Error on listing folder '{}'", m_directory.toAbsolutePath(), e);
+                }
+            } else {
+                addPendingFile(m_directory.resolve((Path) event.context()), now);
+            }
+        }
+    }
+
+    /**
+     * @return false if the file has the size and modification time it had when it was handled
+     */
+    private boolean isChangedSinceHandled(Path file) {
+        PendingFile handledFile = m_handledFiles.get(file);
+        return handledFile == null || handledFile.m_size != file.toFile().length() || handledFile.m_lastModified != file.toFile().lastModified();
+    }
+
+    private void addPendingFile(Path file, long now) {
+        String fileName = file.getFileName().toString();
+        if (fileName.startsWith(".") || !(fileName.toLowerCase().endsWith(ODS_EXTENSION) || DelimitedTableStreamParser.isDelimited(fileName))) {
+            return;
+        }
+        PendingFile pendingFile = m_pendingFiles.get(file);
+        if (pendingFile == null) {
+            pendingFile = new PendingFile();
+            m_pendingFiles.put(file, pendingFile);
+        }
+        pendingFile.update(file.toFile(), now);
+        pendingFile.m_lastChange = now;
+    }
+
+    private void handleCompleteFiles() {
+        long now = System.currentTimeMillis();
+        List<Path> completeFiles = new ArrayList<>();
+        for (Map.Entry<Path, PendingFile> entry : m_pendingFiles.entrySet()) {
+            PendingFile pendingFile = entry.getValue();
+            if (now - pendingFile.m_lastChange < m_debounce) {
+                continue;
+            }
+            File file = entry.getKey().toFile();
+            if (pendingFile.update(file, now)) {
+                // Still written, wait another debounce time
+                continue;
+            }
+            completeFiles.add(entry.getKey());
+        }
+
+        for (Path completeFile : completeFiles) {
+            PendingFile pendingFile = m_pendingFiles.remove(completeFile);
+            File file = completeFile.toFile();
+            if (!file.isFile()) {
+                logger.debug("ODS file '{}' was removed before it was handled", file.getAbsoluteFile());
+                m_handledFiles.remove(completeFile);
+                continue;
+            }
+            m_handledFiles.put(completeFile, pendingFile);
+            logger.info("Handling ODS file '{}'", file.getAbsoluteFile());
+            try {
+                m_handler.handle(file);
+            } catch (RuntimeException e) {
+                logger.error("Handling ODS file '{}' went wrong", file.getAbsoluteFile(), e);
+            }
+        }
+    }
+
+    /**
+     * Size and modification time of a file with events or of a handled file, the time of the last change seen.
+     */
+    private static class PendingFile {
+        private long m_size = -1;
+        private long m_lastModified = -1;
+        private long m_lastChange;
+
+        /**
+         * @return true if size or modification time changed since the last update
+         */
+        private boolean update(File file, long now) {
+            long size = file.length();
+            long lastModified = file.lastModified();
+            boolean changed = size != m_size || lastModified != m_lastModified;
+            if (changed) {
+                m_size = size;
+                m_lastModified = lastModified;
+                m_lastChange = now;
+            }
+            return changed;
+        }
+    }
+}
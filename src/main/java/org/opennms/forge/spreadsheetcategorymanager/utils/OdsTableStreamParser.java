@@ -0,0 +1,331 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.forge.spreadsheetcategorymanager.utils;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * <p>OdsTableStreamParser class.</p>
+ * <p/>
+ * Pull parser for the content.xml of an ODS file. Instead of building a DOM for the whole document the rows of every
+ * table are handed one by one to a {@link RowHandler}. Repeated cells and rows are honored, trailing empty cells of a
+ * row are never materialized, so memory stays flat no matter how large the spreadsheet is.
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+public final class OdsTableStreamParser {
+
+    /**
+     * Name of the zip entry with the spreadsheet content
+     */
+    public static final String CONTENT_XML = "content.xml";
+
+    /**
+     * OpenDocument table namespace
+     */
+    public static final String TABLE_NS = "urn:oasis:names:tc:opendocument:xmlns:table:1.0";
+
+    /**
+     * OpenDocument text namespace
+     */
+    public static final String TEXT_NS = "urn:oasis:names:tc:opendocument:xmlns:text:1.0";
+
+    /**
+     * OpenDocument office namespace
+     */
+    public static final String OFFICE_NS = "urn:oasis:names:tc:opendocument:xmlns:office:1.0";
+
+    /**
+     * Configured once and shared, creating readers is thread safe and a long running process skips the factory lookup
+     */
+    static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    /**
+     * Callback for the rows of the tables in a spreadsheet.
+     */
+    public interface RowHandler {
+
+        /**
+         * A new table starts.
+         *
+         * @param tableName Name of the table as {@link java.lang.String}
+         */
+        void startTable(String tableName);
+
+        /**
+         * Called once for every row of the current table, repeated rows are reported once per repetition.
+         *
+         * @param cells Display text of the cells without trailing empty cells, only the not empty cells are stored,
+         *              as {@link SparseRow}
+         * @return false to skip all remaining rows of the current table
+         */
+        boolean row(SparseRow cells);
+
+        /**
+         * The current table is complete.
+         *
+         * @param tableName Name of the table as {@link java.lang.String}
+         */
+        void endTable(String tableName);
+    }
+
+    /** Suppress default constructor for noninstantiability */
+    private OdsTableStreamParser() {
+    }
+
+    /**
+     * <p>parse</p>
+     * <p/>
+     * Stream all tables of the given ODS file into the row handler.
+     *
+     * @param odsFile ODS file to read as {@link java.io.File}
+     * @param handler Handler for the rows as {@link RowHandler}
+     * @throws IOException        if the file is not a readable ODS zip
+     * @throws XMLStreamException if the content.xml is not well formed
+     */
+    public static void parse(File odsFile, RowHandler handler) throws IOException, XMLStreamException {
+        try (ZipFile zipFile = new ZipFile(odsFile)) {
+            ZipEntry contentEntry = zipFile.getEntry(CONTENT_XML);
+            if (contentEntry == null) {
+                throw new IOException("File " + odsFile.getName() + " has no " + CONTENT_XML);
+            }
+            try (InputStream content = new BufferedInputStream(zipFile.getInputStream(contentEntry))) {
+                parse(content, handler);
+            }
+        }
+    }
+
+    /**
+     * <p>parseOds</p>
+     * <p/>
+     * Stream all tables of an ODS zip stream into the row handler.
+     *
+     * @param odsStream ODS file content as {@link java.io.InputStream}
+     * @param handler   Handler for the rows as {@link RowHandler}
+     * @throws IOException        if the stream is not a readable ODS zip
+     * @throws XMLStreamException if the content.xml is not well formed
+     */
+    public static void parseOds(InputStream odsStream, RowHandler handler) throws IOException, XMLStreamException {
+        ZipInputStream odsZip = new ZipInputStream(odsStream);
+        ZipEntry entry;
+        while ((entry = odsZip.getNextEntry()) != null) {
+            if (CONTENT_XML.equals(entry.getName())) {
+                parse(odsZip, handler);
+                return;
+            }
+        }
+        throw new IOException("ODS stream has no " + CONTENT_XML);
+    }
+
+    /**
+     * <p>parse</p>
+     * <p/>
+     * Stream all tables of a content.xml into the row handler.
+     *
+     * @param contentXml Stream of the content.xml as {@link java.io.InputStream}
+     * @param handler    Handler for the rows as {@link RowHandler}
+     * @throws XMLStreamException if the content.xml is not well formed
+     */
+    public static void parse(InputStream contentXml, RowHandler handler) throws XMLStreamException {
+        XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(contentXml);
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && isElement(reader, TABLE_NS, "table")) {
+                    parseTable(reader, handler);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return inputFactory;
+    }
+
+    private static void parseTable(XMLStreamReader reader, RowHandler handler) throws XMLStreamException {
+        String tableName = reader.getAttributeValue(TABLE_NS, "name");
+        handler.startTable(tableName);
+
+        boolean readRows = true;
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (isElement(reader, TABLE_NS, "table-row")) {
+                    int rowsRepeated = getRepeated(reader, "number-rows-repeated");
+                    if (readRows) {
+                        SparseRow cells = parseRow(reader);
+                        for (int repetition = 0; repetition < rowsRepeated && readRows; repetition++) {
+                            readRows = handler.row(cells);
+                        }
+                    } else {
+                        skipElement(reader);
+                    }
+                } else {
+                    depth++;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        handler.endTable(tableName);
+    }
+
+    private static SparseRow parseRow(XMLStreamReader reader) throws XMLStreamException {
+        SparseRow cells = new SparseRow();
+        int column = 0;
+
+        while (true) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                return cells;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            if (isElement(reader, TABLE_NS, "table-cell") || isElement(reader, TABLE_NS, "covered-table-cell")) {
+                int cellsRepeated = getRepeated(reader, "number-columns-repeated");
+                String text = parseCellText(reader);
+                if (!text.isEmpty()) {
+                    for (int repetition = 0; repetition < cellsRepeated; repetition++) {
+                        cells.append(column + repetition, text);
+                    }
+                }
+                // A run of empty cells only moves the column, it is never expanded
+                column += cellsRepeated;
+            } else {
+                skipElement(reader);
+            }
+        }
+    }
+
+    private static String parseCellText(XMLStreamReader reader) throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+        boolean firstParagraph = true;
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (isElement(reader, TEXT_NS, "p")) {
+                    if (!firstParagraph) {
+                        text.append('\n');
+                    }
+                    firstParagraph = false;
+                    appendParagraphText(reader, text);
+                } else {
+                    // annotations, frames and other cell content are no display text
+                    skipElement(reader);
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        return text.toString();
+    }
+
+    private static void appendParagraphText(XMLStreamReader reader, StringBuilder text) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            switch (event) {
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    text.append(reader.getText());
+                    break;
+                case XMLStreamConstants.START_ELEMENT:
+                    if (isElement(reader, TEXT_NS, "s")) {
+                        String count = reader.getAttributeValue(TEXT_NS, "c");
+                        int spaces = count == null ? 1 : Integer.parseInt(count);
+                        for (int i = 0; i < spaces; i++) {
+                            text.append(' ');
+                        }
+                    } else if (isElement(reader, TEXT_NS, "tab")) {
+                        text.append('\t');
+                    } else if (isElement(reader, TEXT_NS, "line-break")) {
+                        text.append('\n');
+                    } else if (isElement(reader, OFFICE_NS, "annotation")) {
+                        skipElement(reader);
+                        break;
+                    }
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private static int getRepeated(XMLStreamReader reader, String attribute) {
+        String repeated = reader.getAttributeValue(TABLE_NS, attribute);
+        if (repeated == null) {
+            return 1;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(repeated.trim()));
+        } catch (NumberFormatException ex) {
+            return 1;
+        }
+    }
+
+    private static boolean isElement(XMLStreamReader reader, String namespace, String localName) {
+        return localName.equals(reader.getLocalName()) && namespace.equals(reader.getNamespaceURI());
+    }
+}
@@ -0,0 +1,763 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.forge.spreadsheetcategorymanager.utils;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.opennms.forge.spreadsheetcategorymanager.utils.OdsTableStreamParser.CONTENT_XML;
+import static org.opennms.forge.spreadsheetcategorymanager.utils.OdsTableStreamParser.OFFICE_NS;
+import static org.opennms.forge.spreadsheetcategorymanager.utils.OdsTableStreamParser.TABLE_NS;
+
+/**
+ * <p>OdsTableStreamWriter class.</p>
+ * <p/>
+ * Writes an ODS file without building a DOM. All entries of the template (styles, meta, settings, manifest, ...) are
+ * copied into the output zip, the content.xml is rewritten on the fly. The tables of the template are replaced in order
+ * by the given {@link TableSource}s, which write their rows one by one straight into the zip. Column definitions and
+ * the row and cell styles of the first two template rows are kept, so the layout of the template survives.
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+public final class OdsTableStreamWriter {
+
+    /**
+     * Name of the zip entry which has to be the first and uncompressed entry of the ODS file
+     */
+    private static final String MIMETYPE = "mimetype";
+
+    /**
+     * Size of the character buffer in front of the deflater
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Rows of one table in the generated spreadsheet, written one after the other.
+     */
+    public interface TableRows {
+
+        /**
+         * Start a new row, has to be closed with {@link #endRow()}.
+         *
+         * @throws IOException if writing went wrong
+         */
+        void startRow() throws IOException;
+
+        /**
+         * Write a single cell into the current row.
+         *
+         * @param text Display text of the cell, an empty string creates an empty cell
+         * @throws IOException if writing went wrong
+         */
+        void writeCell(String text) throws IOException;
+
+        /**
+         * Write a run of empty cells into the current row, a content.xml gets one repeated cell for the whole run.
+         *
+         * @param count Amount of empty cells, nothing is written for 0
+         * @throws IOException if writing went wrong
+         */
+        void skipCells(int count) throws IOException;
+
+        /**
+         * Close the current row.
+         *
+         * @throws IOException if writing went wrong
+         */
+        void endRow() throws IOException;
+    }
+
+    /**
+     * Content of one table in the generated spreadsheet.
+     */
+    public interface TableSource {
+
+        /**
+         * @return Name of the table as {@link java.lang.String}
+         */
+        String getTableName();
+
+        /**
+         * Write all rows of the table. The first row gets the style of the template header row, all other rows
+         * get the style of the second template row.
+         *
+         * @param rows Writer for the rows as {@link TableRows}
+         * @throws IOException if writing into the content.xml went wrong
+         */
+        void writeRows(TableRows rows) throws IOException;
+
+        /**
+         * @return Index of a column which is written hidden, a negative index if all columns are visible
+         */
+        int getHiddenColumn();
+    }
+
+    /** Suppress default constructor for noninstantiability */
+    private OdsTableStreamWriter() {
+    }
+
+    /**
+     * <p>write</p>
+     * <p/>
+     * Write an ODS file based on a template into the output stream.
+     *
+     * @param template ODS template as {@link java.io.InputStream}
+     * @param output   Stream for the generated ODS file as {@link java.io.OutputStream}, it is finished but not closed
+     * @param tables   Content for the tables of the template in order as {@link java.util.List}
+     * @throws IOException        if reading the template or writing the output went wrong
+     * @throws XMLStreamException if the template content.xml is not well formed
+     */
+    public static void write(InputStream template, OutputStream output, List<? extends TableSource> tables) throws IOException, XMLStreamException {
+        ZipInputStream templateZip = new ZipInputStream(template);
+        ZipOutputStream odsZip = new ZipOutputStream(output);
+
+        ZipEntry templateEntry;
+        while ((templateEntry = templateZip.getNextEntry()) != null) {
+            String entryName = templateEntry.getName();
+            if (CONTENT_XML.equals(entryName)) {
+                odsZip.putNextEntry(new ZipEntry(CONTENT_XML));
+                writeContent(templateZip, odsZip, tables);
+            } else if (MIMETYPE.equals(entryName)) {
+                // the mimetype has to be stored uncompressed, so size and checksum are required upfront
+                byte[] mimetype = readFully(templateZip);
+                CRC32 crc = new CRC32();
+                crc.update(mimetype);
+                ZipEntry mimetypeEntry = new ZipEntry(MIMETYPE);
+                mimetypeEntry.setMethod(ZipEntry.STORED);
+                mimetypeEntry.setSize(mimetype.length);
+                mimetypeEntry.setCompressedSize(mimetype.length);
+                mimetypeEntry.setCrc(crc.getValue());
+                odsZip.putNextEntry(mimetypeEntry);
+                odsZip.write(mimetype);
+            } else {
+                odsZip.putNextEntry(new ZipEntry(entryName));
+                copy(templateZip, odsZip);
+            }
+            odsZip.closeEntry();
+        }
+        odsZip.finish();
+        odsZip.flush();
+    }
+
+    private static void writeContent(InputStream templateContent, OutputStream content, List<? extends TableSource> tables) throws IOException, XMLStreamException {
+        XMLStreamReader reader = OdsTableStreamParser.INPUT_FACTORY.createXMLStreamReader(new UnclosableInputStream(templateContent));
+        XmlOutput writer = new XmlOutput(new BufferedWriter(new OutputStreamWriter(content, "UTF-8"), BUFFER_SIZE));
+
+        int tableIndex = 0;
+        writer.writeDeclaration();
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (isElement(reader, TABLE_NS, "table")) {
+                    if (tableIndex < tables.size()) {
+                        writeTable(reader, writer, tables.get(tableIndex));
+                    } else {
+                        copyElement(reader, writer, null);
+                    }
+                    tableIndex++;
+                } else if (isElement(reader, TABLE_NS, "named-expressions") || isElement(reader, TABLE_NS, "database-ranges")) {
+                    // tables not covered by the template are appended after the last template table
+                    for (; tableIndex < tables.size(); tableIndex++) {
+                        writeTable(null, writer, tables.get(tableIndex));
+                    }
+                    copyElement(reader, writer, null);
+                } else {
+                    writeStartElement(reader, writer);
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (isElement(reader, OFFICE_NS, "spreadsheet")) {
+                    for (; tableIndex < tables.size(); tableIndex++) {
+                        writeTable(null, writer, tables.get(tableIndex));
+                    }
+                }
+                writer.endElement();
+            } else {
+                writeCharacters(reader, writer);
+            }
+        }
+        reader.close();
+        writer.flush();
+    }
+
+    /**
+     * Replace a template table, a template table reader of null writes a table without template layout.
+     */
+    private static void writeTable(XMLStreamReader reader, XmlOutput writer, TableSource table) throws IOException, XMLStreamException {
+        XmlTableRows rows = new XmlTableRows(writer);
+        writer.startElement("table:table");
+        writer.attribute("table:name", table.getTableName());
+
+        if (reader != null) {
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                if (!(TABLE_NS.equals(reader.getAttributeNamespace(i)) && "name".equals(reader.getAttributeLocalName(i)))) {
+                    writer.attribute(qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)), reader.getAttributeValue(i));
+                }
+            }
+
+            boolean rowsWritten = false;
+            while (reader.next() != XMLStreamConstants.END_ELEMENT) {
+                if (reader.getEventType() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                if (isRowContainer(reader)) {
+                    writeHiddenColumn(writer, table, rows);
+                    readRowStyles(reader, rows);
+                } else if (isElement(reader, TABLE_NS, "named-expressions")) {
+                    if (!rowsWritten) {
+                        writeHiddenColumn(writer, table, rows);
+                        writeRows(table, rows);
+                        rowsWritten = true;
+                    }
+                    copyElement(reader, writer, null);
+                } else if (isColumnContainer(reader)) {
+                    copyColumns(reader, writer, table, rows);
+                } else {
+                    copyElement(reader, writer, null);
+                }
+            }
+            if (!rowsWritten) {
+                writeHiddenColumn(writer, table, rows);
+                writeRows(table, rows);
+            }
+        } else {
+            writeHiddenColumn(writer, table, rows);
+            writeRows(table, rows);
+        }
+        writer.endElement();
+    }
+
+    private static boolean isColumnContainer(XMLStreamReader reader) {
+        return isElement(reader, TABLE_NS, "table-column")
+                || isElement(reader, TABLE_NS, "table-columns")
+                || isElement(reader, TABLE_NS, "table-header-columns")
+                || isElement(reader, TABLE_NS, "table-column-group");
+    }
+
+    /**
+     * Copy the template columns and count them. A repeated column which covers the hidden column of the table is split,
+     * so only the hidden column gets the collapse visibility.
+     */
+    private static void copyColumns(XMLStreamReader reader, XmlOutput writer, TableSource table, XmlTableRows rows) throws IOException, XMLStreamException {
+        if (!isElement(reader, TABLE_NS, "table-column")) {
+            writeStartElement(reader, writer);
+            while (reader.next() != XMLStreamConstants.END_ELEMENT) {
+                if (reader.getEventType() == XMLStreamConstants.START_ELEMENT) {
+                    copyColumns(reader, writer, table, rows);
+                }
+            }
+            writer.endElement();
+            return;
+        }
+
+        String repeatedValue = reader.getAttributeValue(TABLE_NS, "number-columns-repeated");
+        int repeated = repeatedValue == null ? 1 : Integer.parseInt(repeatedValue.trim());
+        int hiddenColumn = table.getHiddenColumn();
+        int firstColumn = rows.m_columnCount;
+        if (hiddenColumn < firstColumn || hiddenColumn >= firstColumn + repeated) {
+            copyElement(reader, writer, rows);
+            return;
+        }
+
+        writeColumn(reader, writer, hiddenColumn - firstColumn, null);
+        writeColumn(reader, writer, 1, "collapse");
+        writeColumn(reader, writer, firstColumn + repeated - hiddenColumn - 1, null);
+        rows.m_columnCount += repeated;
+        // skip the end of the empty template column element
+        while (reader.next() != XMLStreamConstants.END_ELEMENT) {
+            if (reader.getEventType() == XMLStreamConstants.START_ELEMENT) {
+                throw new XMLStreamException("Unexpected content in table column", reader.getLocation());
+            }
+        }
+    }
+
+    /**
+     * Write a copy of the current template column with another repetition and visibility.
+     */
+    private static void writeColumn(XMLStreamReader reader, XmlOutput writer, int repeated, String visibility) throws IOException {
+        if (repeated <= 0) {
+            return;
+        }
+        writer.startElement("table:table-column");
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String localName = reader.getAttributeLocalName(i);
+            if (!(TABLE_NS.equals(reader.getAttributeNamespace(i)) && ("number-columns-repeated".equals(localName) || (visibility != null && "visibility".equals(localName))))) {
+                writer.attribute(qualifiedName(reader.getAttributePrefix(i), localName), reader.getAttributeValue(i));
+            }
+        }
+        if (visibility != null) {
+            writer.attribute("table:visibility", visibility);
+        }
+        if (repeated > 1) {
+            writer.attribute("table:number-columns-repeated", String.valueOf(repeated));
+        }
+        writer.endElement();
+    }
+
+    /**
+     * Append the hidden column of the table if the template columns don't cover it, called once before the rows.
+     */
+    private static void writeHiddenColumn(XmlOutput writer, TableSource table, XmlTableRows rows) throws IOException {
+        int hiddenColumn = table.getHiddenColumn();
+        if (rows.m_hiddenColumnWritten || hiddenColumn < 0) {
+            return;
+        }
+        rows.m_hiddenColumnWritten = true;
+        if (hiddenColumn < rows.m_columnCount) {
+            return;
+        }
+        if (hiddenColumn > rows.m_columnCount) {
+            writer.startElement("table:table-column");
+            writer.attribute("table:number-columns-repeated", String.valueOf(hiddenColumn - rows.m_columnCount));
+            writer.endElement();
+        }
+        writer.startElement("table:table-column");
+        writer.attribute("table:visibility", "collapse");
+        writer.endElement();
+        rows.m_columnCount = hiddenColumn + 1;
+    }
+
+    /**
+     * Spreadsheet applications and odfdom expect at least one empty cell and one empty row after the content.
+     */
+    private static void writeRows(TableSource table, TableRows rows) throws IOException {
+        table.writeRows(rows);
+        rows.startRow();
+        rows.endRow();
+    }
+
+    private static boolean isRowContainer(XMLStreamReader reader) {
+        return isElement(reader, TABLE_NS, "table-row")
+                || isElement(reader, TABLE_NS, "table-rows")
+                || isElement(reader, TABLE_NS, "table-header-rows")
+                || isElement(reader, TABLE_NS, "table-row-group");
+    }
+
+    /**
+     * Remember row and cell styles of the first two template rows and drop the template rows.
+     */
+    private static void readRowStyles(XMLStreamReader reader, XmlTableRows rows) throws XMLStreamException {
+        if (isElement(reader, TABLE_NS, "table-row")) {
+            String rowStyle = reader.getAttributeValue(TABLE_NS, "style-name");
+            String cellStyle = null;
+            int depth = 1;
+            while (depth > 0) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    if (depth == 1 && cellStyle == null && isElement(reader, TABLE_NS, "table-cell")) {
+                        cellStyle = reader.getAttributeValue(TABLE_NS, "style-name");
+                    }
+                    depth++;
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                }
+            }
+            rows.addTemplateRowStyle(rowStyle, cellStyle);
+        } else {
+            while (reader.next() != XMLStreamConstants.END_ELEMENT) {
+                if (reader.getEventType() == XMLStreamConstants.START_ELEMENT) {
+                    readRowStyles(reader, rows);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy the current element with all children, table columns are counted if a table rows writer is given.
+     */
+    private static void copyElement(XMLStreamReader reader, XmlOutput writer, XmlTableRows columnCounter) throws IOException, XMLStreamException {
+        countColumns(reader, columnCounter);
+        writeStartElement(reader, writer);
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                countColumns(reader, columnCounter);
+                writeStartElement(reader, writer);
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                writer.endElement();
+                depth--;
+            } else {
+                writeCharacters(reader, writer);
+            }
+        }
+    }
+
+    private static void countColumns(XMLStreamReader reader, XmlTableRows columnCounter) {
+        if (columnCounter != null && isElement(reader, TABLE_NS, "table-column")) {
+            String repeated = reader.getAttributeValue(TABLE_NS, "number-columns-repeated");
+            columnCounter.m_columnCount += repeated == null ? 1 : Integer.parseInt(repeated.trim());
+        }
+    }
+
+    private static void writeStartElement(XMLStreamReader reader, XmlOutput writer) throws IOException {
+        writer.startElement(qualifiedName(reader.getPrefix(), reader.getLocalName()));
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            String namespacePrefix = reader.getNamespacePrefix(i);
+            writer.attribute(namespacePrefix == null || namespacePrefix.isEmpty() ? "xmlns" : "xmlns:" + namespacePrefix, reader.getNamespaceURI(i));
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            writer.attribute(qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)), reader.getAttributeValue(i));
+        }
+    }
+
+    private static void writeCharacters(XMLStreamReader reader, XmlOutput writer) throws IOException {
+        switch (reader.getEventType()) {
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.SPACE:
+            case XMLStreamConstants.CDATA:
+                writer.text(reader.getText());
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static String qualifiedName(String prefix, String localName) {
+        return prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName;
+    }
+
+    private static boolean isElement(XMLStreamReader reader, String namespace, String localName) {
+        return localName.equals(reader.getLocalName()) && namespace.equals(reader.getNamespaceURI());
+    }
+
+    private static byte[] readFully(InputStream input) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        copy(input, bytes);
+        return bytes.toByteArray();
+    }
+
+    private static void copy(InputStream input, OutputStream output) throws IOException {
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+    }
+
+    /**
+     * <p>XmlTableRows class.</p>
+     * <p/>
+     * Writes rows and cells of one table into the content.xml. The first row uses the header row style of the template,
+     * all following rows the style of the second template row. Every row is padded with empty cells up to the column
+     * count of the template.
+     */
+    private static final class XmlTableRows implements TableRows {
+
+        private final XmlOutput m_writer;
+
+        private String m_headerRowStyle;
+        private String m_headerCellStyle;
+        private String m_rowStyle;
+        private String m_cellStyle;
+        private int m_templateRows = 0;
+
+        private int m_columnCount = 0;
+        private boolean m_hiddenColumnWritten = false;
+        private int m_rowCount = 0;
+        private int m_cellCount = 0;
+        private int m_pendingEmptyCells = 0;
+        private String m_currentCellStyle;
+
+        private XmlTableRows(XmlOutput writer) {
+            this.m_writer = writer;
+        }
+
+        private void addTemplateRowStyle(String rowStyle, String cellStyle) {
+            if (m_templateRows == 0) {
+                m_headerRowStyle = rowStyle;
+                m_headerCellStyle = cellStyle;
+                m_rowStyle = rowStyle;
+                m_cellStyle = cellStyle;
+            } else if (m_templateRows == 1) {
+                m_rowStyle = rowStyle;
+                m_cellStyle = cellStyle;
+            }
+            m_templateRows++;
+        }
+
+        @Override
+        public void startRow() throws IOException {
+            String rowStyle = m_rowCount == 0 ? m_headerRowStyle : m_rowStyle;
+            m_currentCellStyle = m_rowCount == 0 ? m_headerCellStyle : m_cellStyle;
+            m_writer.startElement("table:table-row");
+            if (rowStyle != null) {
+                m_writer.attribute("table:style-name", rowStyle);
+            }
+            m_rowCount++;
+            m_cellCount = 0;
+        }
+
+        @Override
+        public void writeCell(String text) throws IOException {
+            if (text == null || text.isEmpty()) {
+                skipCells(1);
+                return;
+            }
+            writeEmptyCells(m_pendingEmptyCells);
+            m_pendingEmptyCells = 0;
+            m_cellCount++;
+            m_writer.startElement("table:table-cell");
+            writeCellStyle();
+            m_writer.attribute("office:value-type", "string");
+            m_writer.startElement("text:p");
+            m_writer.paragraphText(text);
+            m_writer.endElement();
+            m_writer.endElement();
+        }
+
+        @Override
+        public void skipCells(int count) {
+            // Empty cells are collected and written as one repeated cell in front of the next not empty cell
+            m_pendingEmptyCells += count;
+            m_cellCount += count;
+        }
+
+        @Override
+        public void endRow() throws IOException {
+            // The trailing empty cells and the remaining template columns share one repeated cell
+            writeEmptyCells(Math.max(1, m_pendingEmptyCells + Math.max(0, m_columnCount - m_cellCount)));
+            m_pendingEmptyCells = 0;
+            m_writer.endElement();
+        }
+
+        private void writeEmptyCells(int count) throws IOException {
+            if (count < 1) {
+                return;
+            }
+            m_writer.startElement("table:table-cell");
+            writeCellStyle();
+            if (count > 1) {
+                m_writer.attribute("table:number-columns-repeated", String.valueOf(count));
+            }
+            m_writer.endElement();
+        }
+
+        private void writeCellStyle() throws IOException {
+            if (m_currentCellStyle != null) {
+                m_writer.attribute("table:style-name", m_currentCellStyle);
+            }
+        }
+    }
+
+    /**
+     * Minimal XML serializer, elements without children are written as empty elements.
+     */
+    private static final class XmlOutput {
+
+        private final Writer m_writer;
+        private final Deque<String> m_openElements = new ArrayDeque<>();
+        private boolean m_startTagOpen = false;
+
+        private XmlOutput(Writer writer) {
+            this.m_writer = writer;
+        }
+
+        private void writeDeclaration() throws IOException {
+            m_writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        }
+
+        private void startElement(String name) throws IOException {
+            closeStartTag();
+            m_writer.write('<');
+            m_writer.write(name);
+            m_openElements.push(name);
+            m_startTagOpen = true;
+        }
+
+        private void attribute(String name, String value) throws IOException {
+            m_writer.write(' ');
+            m_writer.write(name);
+            m_writer.write("=\"");
+            escape(value, true);
+            m_writer.write('"');
+        }
+
+        private void text(String text) throws IOException {
+            closeStartTag();
+            escape(text, false);
+        }
+
+        /**
+         * Write the text of a paragraph the way ODF keeps its white space: a run of spaces inside the text is one
+         * space and a text:s for the others, leading and trailing spaces are text:s only, tabs and line breaks become
+         * text:tab and text:line-break.
+         */
+        private void paragraphText(String paragraph) throws IOException {
+            closeStartTag();
+            String text = removeInvalidChars(paragraph);
+            int start = 0;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                    continue;
+                }
+                escape(text.substring(start, i), false);
+                if (c == ' ') {
+                    int end = i;
+                    while (end < text.length() && text.charAt(end) == ' ') {
+                        end++;
+                    }
+                    int spaces = end - i;
+                    if (i > 0 && end < text.length()) {
+                        m_writer.write(' ');
+                        spaces--;
+                    }
+                    if (spaces == 1) {
+                        m_writer.write("<text:s/>");
+                    } else if (spaces > 1) {
+                        m_writer.write("<text:s text:c=\"" + spaces + "\"/>");
+                    }
+                    i = end - 1;
+                } else if (c == '\t') {
+                    m_writer.write("<text:tab/>");
+                } else {
+                    if (c == '\r' && i + 1 < text.length() && text.charAt(i + 1) == '\n') {
+                        i++;
+                    }
+                    m_writer.write("<text:line-break/>");
+                }
+                start = i + 1;
+            }
+            escape(text.substring(start), false);
+        }
+
+        private void endElement() throws IOException {
+            String name = m_openElements.pop();
+            if (m_startTagOpen) {
+                m_writer.write("/>");
+                m_startTagOpen = false;
+            } else {
+                m_writer.write("</");
+                m_writer.write(name);
+                m_writer.write('>');
+            }
+        }
+
+        private void flush() throws IOException {
+            m_writer.flush();
+        }
+
+        private void closeStartTag() throws IOException {
+            if (m_startTagOpen) {
+                m_writer.write('>');
+                m_startTagOpen = false;
+            }
+        }
+
+        private void escape(String value, boolean attribute) throws IOException {
+            String text = removeInvalidChars(value);
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                switch (c) {
+                    case '<':
+                        m_writer.write("&lt;");
+                        break;
+                    case '>':
+                        m_writer.write("&gt;");
+                        break;
+                    case '&':
+                        m_writer.write("&amp;");
+                        break;
+                    case '"':
+                        m_writer.write(attribute ? "&quot;" : "\"");
+                        break;
+                    case '\n':
+                    case '\r':
+                    case '\t':
+                        if (attribute) {
+                            m_writer.write("&#" + (int) c + ";");
+                        } else {
+                            m_writer.write(c);
+                        }
+                        break;
+                    default:
+                        m_writer.write(c);
+                        break;
+                }
+            }
+        }
+
+        /**
+         * Drop the characters XML can't hold, like control characters and unpaired surrogates.
+         */
+        private static String removeInvalidChars(String text) {
+            StringBuilder valid = null;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                boolean pair = Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1));
+                boolean validChar = pair || c == '\t' || c == '\n' || c == '\r' || (c >= 0x20 && c < 0xD800) || (c >= 0xE000 && c <= 0xFFFD);
+                if (!validChar && valid == null) {
+                    valid = new StringBuilder(text.length()).append(text, 0, i);
+                } else if (validChar && valid != null) {
+                    valid.append(c);
+                    if (pair) {
+                        valid.append(text.charAt(i + 1));
+                    }
+                }
+                if (pair) {
+                    i++;
+                }
+            }
+            return valid == null ? text : valid.toString();
+        }
+    }
+
+    /**
+     * Keeps the XML parser from closing the zip stream of the template.
+     */
+    private static final class UnclosableInputStream extends FilterInputStream {
+
+        private UnclosableInputStream(InputStream input) {
+            super(input);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,289 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.forge.spreadsheetcategorymanager.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <p>PhaseMetrics class.</p>
+ * <p/>
+ * Wall time of the phases of imports and exports and counters of the processed rows, nodes, categories and bytes. A
+ * phase run on several foreign sources concurrently adds up the time of every run, so the total can be larger than
+ * the wall time of the process. The peak heap is the sum of the peaks of the heap memory pools. The metrics are
+ * written as JSON and in the Prometheus text format, the Prometheus file is replaced atomically for the node_exporter
+ * textfile collector.
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+public class PhaseMetrics {
+
+    private static Logger logger = LoggerFactory.getLogger(PhaseMetrics.class);
+
+    /**
+     * Fetch of requisitions from OpenNMS
+     */
+    public static final String DOWNLOAD = "download";
+
+    /**
+     * Read of the node to category mappings from a spreadsheet
+     */
+    public static final String PARSE = "parse";
+
+    /**
+     * Match of the category rules on the nodes of a requisition
+     */
+    public static final String RULES = "rules";
+
+    /**
+     * Comparison of the mappings with the requisition
+     */
+    public static final String DIFF = "diff";
+
+    /**
+     * Send of the changes to OpenNMS
+     */
+    public static final String UPLOAD = "upload";
+
+    /**
+     * Synchronize of a requisition on OpenNMS
+     */
+    public static final String SYNCHRONIZE = "synchronize";
+
+    /**
+     * Write of a requisition into a spreadsheet
+     */
+    public static final String WRITE = "write";
+
+    public static final String ROWS_PARSED = "rows_parsed";
+
+    public static final String NODES_EXPORTED = "nodes_exported";
+
+    public static final String NODES_CHANGED = "nodes_changed";
+
+    public static final String SOURCES_UNCHANGED = "sources_unchanged";
+
+    public static final String SYNCS_COALESCED = "syncs_coalesced";
+
+    public static final String CATEGORIES_ADDED = "categories_added";
+
+    public static final String CATEGORIES_REMOVED = "categories_removed";
+
+    public static final String BYTES_SENT = "bytes_sent";
+
+    public static final String BYTES_RECEIVED = "bytes_received";
+
+    /**
+     * Prefix of all Prometheus metric names
+     */
+    private static final String PROMETHEUS_PREFIX = "sscm_";
+
+    private static PhaseMetrics s_default;
+
+    /**
+     * Runs, total and maximal nanoseconds by phase
+     */
+    private final Map<String, long[]> m_phases = new TreeMap<>();
+
+    private final Map<String, Long> m_counters = new TreeMap<>();
+
+    /**
+     * <p>getDefault</p>
+     *
+     * @return Metrics shared by the whole process as {@link PhaseMetrics}
+     */
+    public static synchronized PhaseMetrics getDefault() {
+        if (s_default == null) {
+            s_default = new PhaseMetrics();
+        }
+        return s_default;
+    }
+
+    /**
+     * <p>recordPhase</p>
+     * <p/>
+     * Add a run of a phase which started at the given time.
+     *
+     * @param phase      name of the phase as {@link java.lang.String}
+     * @param startNanos {@link System#nanoTime()} at the start of the run
+     */
+    public synchronized void recordPhase(String phase, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        long[] phaseTimes = m_phases.get(phase);
+        if (phaseTimes == null) {
+            phaseTimes = new long[3];
+            m_phases.put(phase, phaseTimes);
+        }
+        phaseTimes[0]++;
+        phaseTimes[1] += nanos;
+        phaseTimes[2] = Math.max(phaseTimes[2], nanos);
+    }
+
+    /**
+     * <p>increment</p>
+     *
+     * @param counter name of the counter as {@link java.lang.String}
+     * @param delta   amount to add
+     */
+    public synchronized void increment(String counter, long delta) {
+        Long value = m_counters.get(counter);
+        m_counters.put(counter, value == null ? delta : value + delta);
+    }
+
+    /**
+     * @param counter name of the counter as {@link java.lang.String}
+     * @return current value, 0 for a counter never incremented
+     */
+    public synchronized long getCounter(String counter) {
+        Long value = m_counters.get(counter);
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * @param phase name of the phase as {@link java.lang.String}
+     * @return amount of recorded runs of the phase
+     */
+    public synchronized long getPhaseCount(String phase) {
+        long[] phaseTimes = m_phases.get(phase);
+        return phaseTimes == null ? 0 : phaseTimes[0];
+    }
+
+    /**
+     * <p>getPeakHeap</p>
+     *
+     * @return Sum of the peak usage of all heap memory pools in bytes
+     */
+    public long getPeakHeap() {
+        long peakHeap = 0;
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (memoryPool.getType() == MemoryType.HEAP && memoryPool.getPeakUsage() != null) {
+                peakHeap += memoryPool.getPeakUsage().getUsed();
+            }
+        }
+        return peakHeap;
+    }
+
+    /**
+     * <p>writeJson</p>
+     *
+     * @param jsonFile File to write as {@link java.io.File}
+     * @throws IOException if the file can't be written
+     */
+    public synchronized void writeJson(File jsonFile) throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"timestamp\": ").append(System.currentTimeMillis()).append(",\n  \"phases\": {");
+        String separator = "\n";
+        for (Map.Entry<String, long[]> phase : m_phases.entrySet()) {
+            json.append(separator).append("    \"").append(phase.getKey()).append("\": {\"count\": ").append(phase.getValue()[0])
+                    .append(", \"seconds_total\": ").append(toSeconds(phase.getValue()[1]))
+                    .append(", \"seconds_max\": ").append(toSeconds(phase.getValue()[2])).append("}");
+            separator = ",\n";
+        }
+        json.append(m_phases.isEmpty() ? "},\n" : "\n  },\n").append("  \"counters\": {");
+        separator = "\n";
+        for (Map.Entry<String, Long> counter : m_counters.entrySet()) {
+            json.append(separator).append("    \"").append(counter.getKey()).append("\": ").append(counter.getValue());
+            separator = ",\n";
+        }
+        json.append(m_counters.isEmpty() ? "},\n" : "\n  },\n").append("  \"heap_peak_bytes\": ").append(getPeakHeap()).append("\n}\n");
+        writeAtomically(jsonFile, json.toString());
+    }
+
+    /**
+     * <p>writePrometheus</p>
+     * <p/>
+     * Write the metrics in the Prometheus text exposition format.
+     *
+     * @param prometheusFile File to write, for the textfile collector it has to end with .prom, as {@link java.io.File}
+     * @throws IOException if the file can't be written
+     */
+    public synchronized void writePrometheus(File prometheusFile) throws IOException {
+        StringBuilder text = new StringBuilder();
+        if (!m_phases.isEmpty()) {
+            appendHeader(text, "phase_runs_total", "counter", "Runs of an import or export phase");
+            for (Map.Entry<String, long[]> phase : m_phases.entrySet()) {
+                text.append(PROMETHEUS_PREFIX).append("phase_runs_total{phase=\"").append(phase.getKey()).append("\"} ").append(phase.getValue()[0]).append('\n');
+            }
+            appendHeader(text, "phase_seconds_total", "counter", "Time spent in an import or export phase");
+            for (Map.Entry<String, long[]> phase : m_phases.entrySet()) {
+                text.append(PROMETHEUS_PREFIX).append("phase_seconds_total{phase=\"").append(phase.getKey()).append("\"} ").append(toSeconds(phase.getValue()[1])).append('\n');
+            }
+            appendHeader(text, "phase_seconds_max", "gauge", "Longest run of an import or export phase");
+            for (Map.Entry<String, long[]> phase : m_phases.entrySet()) {
+                text.append(PROMETHEUS_PREFIX).append("phase_seconds_max{phase=\"").append(phase.getKey()).append("\"} ").append(toSeconds(phase.getValue()[2])).append('\n');
+            }
+        }
+        for (Map.Entry<String, Long> counter : m_counters.entrySet()) {
+            appendHeader(text, counter.getKey() + "_total", "counter", "Amount of " + counter.getKey().replace('_', ' '));
+            text.append(PROMETHEUS_PREFIX).append(counter.getKey()).append("_total ").append(counter.getValue()).append('\n');
+        }
+        appendHeader(text, "heap_peak_bytes", "gauge", "Sum of the peak usage of the heap memory pools");
+        text.append(PROMETHEUS_PREFIX).append("heap_peak_bytes ").append(getPeakHeap()).append('\n');
+        writeAtomically(prometheusFile, text.toString());
+    }
+
+    private static void appendHeader(StringBuilder text, String name, String type, String help) {
+        text.append("# HELP ").append(PROMETHEUS_PREFIX).append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(PROMETHEUS_PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static String toSeconds(long nanos) {
+        return String.format(Locale.ROOT, "%.6f", nanos / 1e9);
+    }
+
+    /**
+     * Write into a temporary file next to the target and rename it, readers never see a half written file.
+     */
+    private static void writeAtomically(File file, String content) throws IOException {
+        File absoluteFile = file.getAbsoluteFile();
+        File temporaryFile = new File(absoluteFile.getParentFile(), "." + absoluteFile.getName() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(temporaryFile), "UTF-8")) {
+            writer.write(content);
+        }
+        Files.move(temporaryFile.toPath(), absoluteFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.debug("Metrics written to '{}'", absoluteFile);
+    }
+}
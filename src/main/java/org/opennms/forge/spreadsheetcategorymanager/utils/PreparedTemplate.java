@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.forge.spreadsheetcategorymanager.utils;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>PreparedTemplate class.</p>
+ * <p/>
+ * ODS template read once for any number of exports: the bytes of the template file and the preset categories of the
+ * header rows of its first two tables, the threshold and the surveillance category table. Instances are immutable and
+ * can be shared by concurrent exports, every export reads its own stream of the template bytes.
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+public final class PreparedTemplate {
+
+    private final byte[] m_templateBytes;
+
+    private final List<String> m_thresholdCategories;
+
+    private final List<String> m_categories;
+
+    private PreparedTemplate(byte[] templateBytes, List<String> thresholdCategories, List<String> categories) {
+        this.m_templateBytes = templateBytes;
+        this.m_thresholdCategories = Collections.unmodifiableList(thresholdCategories);
+        this.m_categories = Collections.unmodifiableList(categories);
+    }
+
+    /**
+     * <p>read</p>
+     * <p/>
+     * Read the template and the categories of the header rows of its first two tables.
+     *
+     * @param template ODS template as {@link java.io.InputStream}, it is closed
+     * @return Template for any number of exports as {@link PreparedTemplate}
+     * @throws IOException if the template can't be read or is no ODS file
+     */
+    public static PreparedTemplate read(InputStream template) throws IOException {
+        byte[] templateBytes;
+        try (InputStream templateStream = template) {
+            ByteArrayOutputStream templateOutput = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = templateStream.read(buffer)) != -1) {
+                templateOutput.write(buffer, 0, read);
+            }
+            templateBytes = templateOutput.toByteArray();
+        }
+
+        final List<List<String>> presetCategories = new ArrayList<>();
+        try {
+            OdsTableStreamParser.parseOds(new ByteArrayInputStream(templateBytes), new OdsTableStreamParser.RowHandler() {
+                @Override
+                public void startTable(String tableName) {
+                    presetCategories.add(new ArrayList<String>());
+                }
+
+                @Override
+                public boolean row(SparseRow cells) {
+                    List<String> tableCategories = presetCategories.get(presetCategories.size() - 1);
+                    for (int catIndex = 1; catIndex < cells.size() && !cells.get(catIndex).isEmpty(); catIndex++) {
+                        tableCategories.add(cells.get(catIndex).trim());
+                    }
+                    return false;
+                }
+
+                @Override
+                public void endTable(String tableName) {
+                }
+            });
+        } catch (XMLStreamException e) {
+            throw new IOException("Template content is not well formed", e);
+        }
+
+        return new PreparedTemplate(templateBytes,
+                presetCategories.size() > 0 ? presetCategories.get(0) : new ArrayList<String>(),
+                presetCategories.size() > 1 ? presetCategories.get(1) : new ArrayList<String>());
+    }
+
+    /**
+     * @return New stream of the template file as {@link java.io.InputStream}
+     */
+    public InputStream openStream() {
+        return new ByteArrayInputStream(m_templateBytes);
+    }
+
+    /**
+     * @return Preset categories of the header row of the threshold table in column order
+     */
+    public List<String> getThresholdCategories() {
+        return m_thresholdCategories;
+    }
+
+    /**
+     * @return Preset categories of the header row of the surveillance category table in column order
+     */
+    public List<String> getCategories() {
+        return m_categories;
+    }
+}
@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.forge.spreadsheetcategorymanager.utils;
+
+import org.opennms.netmgt.provision.persist.requisition.Requisition;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionNode;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * <p>RequisitionNodeIndex class.</p>
+ * <p/>
+ * Hash index over the nodes of a requisition by node label and by foreign id, built once so every spreadsheet row is
+ * resolved in constant time instead of scanning the node list. The index references the node objects of the
+ * requisition, changes on a looked up node change the requisition. Labels used by more than one node are collected as
+ * duplicates and are not resolved, the foreign id is the unambiguous key for such nodes.
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+public class RequisitionNodeIndex {
+
+    private final Map<String, RequisitionNode> m_nodesByLabel = new HashMap<>();
+    private final Map<String, RequisitionNode> m_nodesByForeignId = new HashMap<>();
+    private final Set<String> m_duplicateLabels = new TreeSet<>();
+
+    /**
+     * @param requisition Requisition with the nodes to index as {@link org.opennms.netmgt.provision.persist.requisition.Requisition}
+     */
+    public RequisitionNodeIndex(Requisition requisition) {
+        for (RequisitionNode requisitionNode : requisition.getNodes()) {
+            if (requisitionNode.getForeignId() != null) {
+                m_nodesByForeignId.put(requisitionNode.getForeignId(), requisitionNode);
+            }
+            String nodeLabel = requisitionNode.getNodeLabel();
+            if (nodeLabel != null && !m_duplicateLabels.contains(nodeLabel) && m_nodesByLabel.put(nodeLabel, requisitionNode) != null) {
+                m_nodesByLabel.remove(nodeLabel);
+                m_duplicateLabels.add(nodeLabel);
+            }
+        }
+    }
+
+    /**
+     * @param nodeLabel Label of the node as {@link java.lang.String}
+     * @return Node with the label or null if the label is unknown or used by more than one node
+     */
+    public RequisitionNode getByLabel(String nodeLabel) {
+        return m_nodesByLabel.get(nodeLabel);
+    }
+
+    /**
+     * @param foreignId Foreign id of the node as {@link java.lang.String}
+     * @return Node with the foreign id or null if the foreign id is unknown
+     */
+    public RequisitionNode getByForeignId(String foreignId) {
+        return m_nodesByForeignId.get(foreignId);
+    }
+
+    /**
+     * @param nodeKey     Label or foreign id of the node as {@link java.lang.String}
+     * @param byForeignId true if the key is a foreign id
+     * @return Node with the key or null if it is unknown or ambiguous
+     */
+    public RequisitionNode get(String nodeKey, boolean byForeignId) {
+        return byForeignId ? getByForeignId(nodeKey) : getByLabel(nodeKey);
+    }
+
+    public boolean isDuplicateLabel(String nodeLabel) {
+        return m_duplicateLabels.contains(nodeLabel);
+    }
+
+    /**
+     * @return Sorted labels which are used by more than one node
+     */
+    public Set<String> getDuplicateLabels() {
+        return Collections.unmodifiableSet(m_duplicateLabels);
+    }
+}
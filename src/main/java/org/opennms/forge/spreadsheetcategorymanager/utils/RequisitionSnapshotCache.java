@@ -0,0 +1,287 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.forge.spreadsheetcategorymanager.utils;
+
+import org.opennms.netmgt.provision.persist.requisition.Requisition;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionCollection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.bind.JAXB;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * <p>RequisitionSnapshotCache class.</p>
+ * <p/>
+ * Local cache of requisitions fetched from OpenNMS, keyed by base URL and foreign source. Every snapshot is one gzip
+ * compressed file with the time it was fetched. A snapshot older than the time to live is treated as missing, the
+ * last modification time of a file is its last access, the least recently used snapshots are evicted as soon as the
+ * cache grows above its size limit.
+ * <p/>
+ * The REST API has no cheap way to ask for the date stamp of a requisition, so a snapshot isn't validated against the
+ * server. Changes made on OpenNMS are only seen after the time to live, which is why the cache has to be enabled.
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+public class RequisitionSnapshotCache {
+
+    private static Logger logger = LoggerFactory.getLogger(RequisitionSnapshotCache.class);
+
+    /**
+     * Default time to live of a snapshot, one hour
+     */
+    public static final long DEFAULT_TTL = 60L * 60L * 1000L;
+
+    /**
+     * Default size limit of all snapshot files, 256 MB
+     */
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024L * 1024L;
+
+    private static final int MAGIC = 0x53534331;
+    private static final String SUFFIX = ".snapshot";
+
+    /**
+     * Key of the collection with all requisitions of an OpenNMS
+     */
+    private static final String ALL_REQUISITIONS = "\u0000all";
+
+    private final File m_directory;
+    private final long m_ttl;
+    private final long m_maxBytes;
+
+    /**
+     * @param directory Directory of the snapshot files as {@link java.io.File}, created if it doesn't exist
+     * @param ttl       Time to live of a snapshot in milliseconds
+     * @param maxBytes  Size limit of all snapshot files in bytes
+     */
+    public RequisitionSnapshotCache(File directory, long ttl, long maxBytes) {
+        this.m_directory = directory;
+        this.m_ttl = ttl;
+        this.m_maxBytes = maxBytes;
+    }
+
+    /**
+     * @return Default directory of the snapshot files in the temp directory
+     */
+    public static File getDefaultDirectory() {
+        return new File(System.getProperty("java.io.tmpdir"), "SSCM_Cache");
+    }
+
+    public Requisition getRequisition(String baseUrl, String foreignSource) {
+        byte[] snapshot = get(baseUrl, foreignSource);
+        return snapshot != null ? JAXB.unmarshal(new ByteArrayInputStream(snapshot), Requisition.class) : null;
+    }
+
+    public void putRequisition(String baseUrl, Requisition requisition) {
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        JAXB.marshal(requisition, snapshot);
+        put(baseUrl, requisition.getForeignSource(), snapshot.toByteArray());
+    }
+
+    public RequisitionCollection getAllRequisitions(String baseUrl) {
+        byte[] snapshot = get(baseUrl, ALL_REQUISITIONS);
+        return snapshot != null ? JAXB.unmarshal(new ByteArrayInputStream(snapshot), RequisitionCollection.class) : null;
+    }
+
+    public void putAllRequisitions(String baseUrl, RequisitionCollection requisitions) {
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        JAXB.marshal(requisitions, snapshot);
+        put(baseUrl, ALL_REQUISITIONS, snapshot.toByteArray());
+        for (Requisition requisition : requisitions) {
+            putRequisition(baseUrl, requisition);
+        }
+    }
+
+    /**
+     * Drop the snapshot of a changed foreign source and the collection with all requisitions.
+     *
+     * @param baseUrl       Base URL of the OpenNMS as {@link java.lang.String}
+     * @param foreignSource name of the changed foreign source as {@link java.lang.String}
+     */
+    public synchronized void invalidate(String baseUrl, String foreignSource) {
+        deleteSnapshot(getSnapshotFile(baseUrl, foreignSource));
+        deleteSnapshot(getSnapshotFile(baseUrl, ALL_REQUISITIONS));
+    }
+
+    /**
+     * <p>get</p>
+     * <p/>
+     * Read a snapshot, expired and unreadable snapshots are removed.
+     *
+     * @param baseUrl       Base URL of the OpenNMS as {@link java.lang.String}
+     * @param foreignSource name of the foreign source as {@link java.lang.String}
+     * @return Content of the snapshot or null if there is no fresh snapshot
+     */
+    public synchronized byte[] get(String baseUrl, String foreignSource) {
+        File snapshotFile = getSnapshotFile(baseUrl, foreignSource);
+        if (!snapshotFile.isFile()) {
+            return null;
+        }
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)))) {
+            if (input.readInt() != MAGIC) {
+                throw new IOException("Not a snapshot file");
+            }
+            long fetched = input.readLong();
+            if (System.currentTimeMillis() - fetched <= m_ttl) {
+                ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+                try (GZIPInputStream content = new GZIPInputStream(input)) {
+                    byte[] buffer = new byte[8192];
+                    for (int read = content.read(buffer); read != -1; read = content.read(buffer)) {
+                        snapshot.write(buffer, 0, read);
+                    }
+                }
+                snapshotFile.setLastModified(System.currentTimeMillis());
+                logger.info("Using cached snapshot of '{}' from '{}'", foreignSource, baseUrl);
+                return snapshot.toByteArray();
+            }
+        } catch (IOException e) {
+            logger.warn("Cached snapshot '{}' is unreadable and is removed", snapshotFile, e);
+            deleteSnapshot(snapshotFile);
+            return null;
+        }
+
+        // the file is closed before an expired snapshot is removed
+        logger.debug("Snapshot of '{}' from '{}' expired", foreignSource, baseUrl);
+        deleteSnapshot(snapshotFile);
+        return null;
+    }
+
+    /**
+     * <p>put</p>
+     * <p/>
+     * Store a snapshot fetched right now and evict the least recently used snapshots above the size limit. A failing
+     * write only disables caching of this snapshot.
+     *
+     * @param baseUrl       Base URL of the OpenNMS as {@link java.lang.String}
+     * @param foreignSource name of the foreign source as {@link java.lang.String}
+     * @param snapshot      Content of the snapshot
+     */
+    public synchronized void put(String baseUrl, String foreignSource, byte[] snapshot) {
+        File snapshotFile = getSnapshotFile(baseUrl, foreignSource);
+        File partFile = new File(m_directory, snapshotFile.getName() + ".part");
+        try {
+            if (!m_directory.isDirectory() && !m_directory.mkdirs()) {
+                throw new IOException("Cannot create cache directory " + m_directory);
+            }
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partFile)))) {
+                output.writeInt(MAGIC);
+                output.writeLong(System.currentTimeMillis());
+                OutputStream content = new GZIPOutputStream(output);
+                content.write(snapshot);
+                content.close();
+            }
+            deleteSnapshot(snapshotFile);
+            if (!partFile.renameTo(snapshotFile)) {
+                throw new IOException("Cannot rename " + partFile + " to " + snapshotFile);
+            }
+        } catch (IOException e) {
+            logger.warn("Caching snapshot of '{}' from '{}' went wrong", foreignSource, baseUrl, e);
+            deleteSnapshot(partFile);
+            return;
+        }
+        evict();
+    }
+
+    private void evict() {
+        File[] snapshotFiles = m_directory.listFiles();
+        if (snapshotFiles == null) {
+            return;
+        }
+
+        List<File> snapshots = new ArrayList<>();
+        long totalBytes = 0;
+        for (File snapshotFile : snapshotFiles) {
+            if (snapshotFile.getName().endsWith(SUFFIX)) {
+                snapshots.add(snapshotFile);
+                totalBytes += snapshotFile.length();
+            }
+        }
+        if (totalBytes <= m_maxBytes) {
+            return;
+        }
+
+        Collections.sort(snapshots, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                long firstAccess = first.lastModified();
+                long secondAccess = second.lastModified();
+                return firstAccess < secondAccess ? -1 : firstAccess == secondAccess ? 0 : 1;
+            }
+        });
+        for (File snapshot : snapshots) {
+            if (totalBytes <= m_maxBytes) {
+                break;
+            }
+            totalBytes -= snapshot.length();
+            logger.debug("Evicting least recently used snapshot '{}'", snapshot);
+            deleteSnapshot(snapshot);
+        }
+    }
+
+    private File getSnapshotFile(String baseUrl, String foreignSource) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest((baseUrl + "\n" + foreignSource).getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder();
+            for (byte hashByte : hash) {
+                name.append(Character.forDigit((hashByte >> 4) & 0xf, 16)).append(Character.forDigit(hashByte & 0xf, 16));
+            }
+            return new File(m_directory, name.append(SUFFIX).toString());
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new IllegalStateException("SHA-1 with UTF-8 is required by every Java platform", e);
+        }
+    }
+
+    private static void deleteSnapshot(File snapshotFile) {
+        if (snapshotFile.exists() && !snapshotFile.delete()) {
+            logger.warn("Cannot delete cached snapshot '{}'", snapshotFile);
+        }
+    }
+}
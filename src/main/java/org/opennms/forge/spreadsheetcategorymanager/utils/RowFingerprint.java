@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.forge.spreadsheetcategorymanager.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>RowFingerprint class.</p>
+ * <p/>
+ * Fingerprint of a spreadsheet row: a 64 bit FNV-1a hash over the node key and the sorted names of the categories
+ * marked in the row. The exporter writes the fingerprint into a hidden column, on import a row with the same
+ * fingerprint is unchanged since the export. The column order doesn't change the fingerprint.
+ * It is a noninstantiable utility class.
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+public final class RowFingerprint {
+
+    /**
+     * Header of the fingerprint column, it follows the last category column
+     */
+    public static final String HEADER = "#FINGERPRINT";
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** Suppress default constructor for noninstantiability */
+    private RowFingerprint() {
+    }
+
+    /**
+     * @param nodeKey    Node label or foreign id of the row as {@link java.lang.String}
+     * @param categories Names of the categories marked in the row as {@link java.util.Collection}
+     * @return Fingerprint as hex {@link java.lang.String}
+     */
+    public static String of(String nodeKey, Collection<String> categories) {
+        List<String> sortedCategories = new ArrayList<>(categories);
+        Collections.sort(sortedCategories);
+
+        long hash = hash(FNV_OFFSET_BASIS, nodeKey);
+        for (String category : sortedCategories) {
+            hash = hash(hash, "\n");
+            hash = hash(hash, category);
+        }
+        return Long.toHexString(hash);
+    }
+
+    private static long hash(long hash, String text) {
+        for (int index = 0; index < text.length(); index++) {
+            char character = text.charAt(index);
+            hash = (hash ^ (character & 0xff)) * FNV_PRIME;
+            hash = (hash ^ (character >>> 8)) * FNV_PRIME;
+        }
+        return hash;
+    }
+}
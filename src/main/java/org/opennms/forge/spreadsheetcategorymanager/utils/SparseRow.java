@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.forge.spreadsheetcategorymanager.utils;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+
+/**
+ * <p>SparseRow class.</p>
+ * <p/>
+ * Read only row of a spreadsheet table which keeps only the not empty cells with their column index. Runs of empty
+ * cells, also collapsed runs of repeated cells in a content.xml, cost nothing. As {@link java.util.List} it has the
+ * display texts of all cells up to the last not empty cell, empty cells read as empty strings. Handlers which care
+ * about marked cells only iterate {@link #getCellCount()} cells with {@link #getColumn(int)} and {@link #getText(int)}.
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+public final class SparseRow extends AbstractList<String> {
+
+    private int[] m_columns = new int[8];
+    private String[] m_texts = new String[8];
+    private int m_cellCount = 0;
+
+    /**
+     * Append a not empty cell, columns have to be appended in ascending order.
+     *
+     * @param column Index of the column
+     * @param text   Display text of the cell, empty texts are ignored
+     */
+    void append(int column, String text) {
+        if (text.isEmpty()) {
+            return;
+        }
+        if (m_cellCount > 0 && column <= m_columns[m_cellCount - 1]) {
+            throw new IllegalArgumentException("Column " + column + " is not after column " + m_columns[m_cellCount - 1]);
+        }
+        if (m_cellCount == m_columns.length) {
+            m_columns = Arrays.copyOf(m_columns, m_cellCount * 2);
+            m_texts = Arrays.copyOf(m_texts, m_cellCount * 2);
+        }
+        m_columns[m_cellCount] = column;
+        m_texts[m_cellCount] = text;
+        m_cellCount++;
+    }
+
+    /**
+     * @return Amount of not empty cells
+     */
+    public int getCellCount() {
+        return m_cellCount;
+    }
+
+    /**
+     * @param cellIndex Index of the not empty cell, from 0 to {@link #getCellCount()} - 1
+     * @return Column of the cell
+     */
+    public int getColumn(int cellIndex) {
+        checkCellIndex(cellIndex);
+        return m_columns[cellIndex];
+    }
+
+    /**
+     * @param cellIndex Index of the not empty cell, from 0 to {@link #getCellCount()} - 1
+     * @return Display text of the cell as {@link java.lang.String}
+     */
+    public String getText(int cellIndex) {
+        checkCellIndex(cellIndex);
+        return m_texts[cellIndex];
+    }
+
+    @Override
+    public String get(int column) {
+        if (column < 0 || column >= size()) {
+            throw new IndexOutOfBoundsException("Column: " + column + ", Size: " + size());
+        }
+        int cellIndex = Arrays.binarySearch(m_columns, 0, m_cellCount, column);
+        return cellIndex >= 0 ? m_texts[cellIndex] : "";
+    }
+
+    @Override
+    public int size() {
+        return m_cellCount == 0 ? 0 : m_columns[m_cellCount - 1] + 1;
+    }
+
+    private void checkCellIndex(int cellIndex) {
+        if (cellIndex < 0 || cellIndex >= m_cellCount) {
+            throw new IndexOutOfBoundsException("Cell: " + cellIndex + ", Cells: " + m_cellCount);
+        }
+    }
+}
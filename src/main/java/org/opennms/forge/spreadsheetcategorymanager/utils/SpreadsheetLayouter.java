@@ -40,12 +40,7 @@ public class SpreadsheetLayouter {
 
         try {
             OdfSpreadsheetDocument spreadsheet = OdfSpreadsheetDocument.loadDocument(generatedOdsFile);
-
-            List<OdfTable> tableList = spreadsheet.getTableList();
-            for (OdfTable table : tableList) {
-                table = formatCategories(table);
-                table = formatNodes(table);
-            }
+            layoutSpreadsheet(spreadsheet);
             spreadsheet.save(odsOutFile);
         } catch (Exception ex) {
             logger.error("Layouting of the OdsFile went wrong.", ex);
@@ -53,9 +48,22 @@ public class SpreadsheetLayouter {
         return odsOutFile;
     }
 
+    /**
+     * Layout all tables of a spreadsheet in memory, the writer calls it right before the spreadsheet is saved.
+     *
+     * @param spreadsheet Generated spreadsheet as {@link org.odftoolkit.odfdom.doc.OdfSpreadsheetDocument}
+     */
+    public static void layoutSpreadsheet(OdfSpreadsheetDocument spreadsheet) {
+        List<OdfTable> tableList = spreadsheet.getTableList();
+        for (OdfTable table : tableList) {
+            table = formatCategories(table);
+            table = formatNodes(table);
+        }
+    }
+
     private static OdfTable formatCategories(OdfTable table) {
         OdfTableRow categoryRow = table.getRowByIndex(0);
-        logger.info("CellCount for Row 0 '{}'", categoryRow.getCellCount());
+        logger.debug("CellCount for Row 0 '{}'", categoryRow.getCellCount());
         return table;
     }
 
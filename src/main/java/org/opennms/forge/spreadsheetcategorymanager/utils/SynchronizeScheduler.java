@@ -0,0 +1,560 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.forge.spreadsheetcategorymanager.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>SynchronizeScheduler class.</p>
+ * <p/>
+ * Coalesces the synchronize requests of the foreign sources of one OpenNMS. A request waits for the window, all
+ * requests for the same foreign source which arrive in the meantime are served by one synchronize. A request which
+ * arrives while a synchronize runs gets another one after the window. At most a fixed number of synchronizes run at
+ * the same time and failed synchronizes are retried with an exponential backoff.
+ * <p/>
+ * The schedule is kept in a state file guarded by a file lock, so separate invocations of the tool share it. Every
+ * request gets a sequence number of its foreign source. A synchronize covers all requests up to the sequence number
+ * seen at its start, a request is served once a covering synchronize succeeded or gave up. The first waiting request
+ * claims and runs the synchronize, the others keep waiting for its result. A claim is a short lease renewed by a
+ * heartbeat while the synchronize runs, if its invocation dies the lease expires and a waiting request takes over.
+ * The concurrency slots are file locks too.
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+public class SynchronizeScheduler {
+
+    private static Logger logger = LoggerFactory.getLogger(SynchronizeScheduler.class);
+
+    /**
+     * Default time requests for the same foreign source are collected, no waiting
+     */
+    public static final long DEFAULT_WINDOW = 0L;
+
+    /**
+     * Default amount of synchronizes running at the same time per OpenNMS
+     */
+    public static final int DEFAULT_MAX_CONCURRENT = 2;
+
+    /**
+     * Default amount of attempts of a synchronize
+     */
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    /**
+     * Default wait after the first failed attempt, doubled for every further failure
+     */
+    public static final long DEFAULT_RETRY_DELAY = 10000L;
+
+    /**
+     * Default time a claim stays valid without heartbeat
+     */
+    public static final long DEFAULT_CLAIM_LEASE = 30000L;
+
+    /**
+     * Longest wait between two attempts
+     */
+    private static final long MAX_RETRY_DELAY = 5L * 60L * 1000L;
+
+    /**
+     * Finished foreign sources without request are dropped from the state after this time
+     */
+    private static final long RETENTION = 60L * 60L * 1000L;
+
+    /**
+     * Interval to check the state and the slots while waiting
+     */
+    private static final long POLL_INTERVAL = 200L;
+
+    /**
+     * Guards the state file against the threads of this process, the file lock only works between processes
+     */
+    private static final Object STATE_LOCK = new Object();
+
+    private static final String OWNER = ManagementFactory.getRuntimeMXBean().getName();
+
+    /**
+     * Renews the claims of the running synchronizes of this process
+     */
+    private static final ScheduledExecutorService HEARTBEAT = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "synchronize-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final File m_stateFile;
+    private final File m_lockFile;
+    private final File[] m_slotFiles;
+    private final long m_window;
+    private final int m_maxAttempts;
+    private final long m_retryDelay;
+    private final long m_claimLease;
+
+    /**
+     * Runs the synchronize of a foreign source.
+     */
+    public interface Synchronizer {
+
+        /**
+         * @param foreignSource name of the foreign source to synchronize as {@link java.lang.String}
+         * @throws Exception if the synchronize failed and should be retried
+         */
+        void synchronize(String foreignSource) throws Exception;
+    }
+
+    /**
+     * Schedule of one foreign source.
+     */
+    private static final class Entry {
+        /**
+         * Sequence number of the last request
+         */
+        private long m_requested;
+        /**
+         * Last request covered by the running or last started synchronize
+         */
+        private long m_started;
+        /**
+         * Last request covered by a successful synchronize
+         */
+        private long m_done;
+        /**
+         * Last request covered by a synchronize which gave up
+         */
+        private long m_failed;
+        private long m_due;
+        private String m_claimedBy = "";
+        private long m_claimedUntil;
+        private long m_finished;
+
+        private boolean isPending() {
+            return m_requested > Math.max(m_done, m_failed);
+        }
+
+        private boolean isClaimed(long now) {
+            return !m_claimedBy.isEmpty() && m_claimedUntil > now;
+        }
+    }
+
+    /**
+     * Change of the schedule made while the state file is locked.
+     */
+    private interface StateUpdate<T> {
+        T update(Map<String, Entry> entries, long now);
+    }
+
+    /**
+     * @param directory     Directory of the state and slot files as {@link java.io.File}, created if it doesn't exist
+     * @param baseUrl       Base URL of the OpenNMS, every OpenNMS has its own schedule, as {@link java.lang.String}
+     * @param window        Milliseconds requests for the same foreign source are collected before the synchronize
+     * @param maxConcurrent Amount of synchronizes running at the same time on the OpenNMS
+     * @param maxAttempts   Amount of attempts of a synchronize before it is given up
+     * @param retryDelay    Milliseconds to wait after the first failed attempt, doubled for every further failure
+     */
+    public SynchronizeScheduler(File directory, String baseUrl, long window, int maxConcurrent, int maxAttempts, long retryDelay) {
+        this(directory, baseUrl, window, maxConcurrent, maxAttempts, retryDelay, DEFAULT_CLAIM_LEASE);
+    }
+
+    /**
+     * @param directory     Directory of the state and slot files as {@link java.io.File}, created if it doesn't exist
+     * @param baseUrl       Base URL of the OpenNMS, every OpenNMS has its own schedule, as {@link java.lang.String}
+     * @param window        Milliseconds requests for the same foreign source are collected before the synchronize
+     * @param maxConcurrent Amount of synchronizes running at the same time on the OpenNMS
+     * @param maxAttempts   Amount of attempts of a synchronize before it is given up
+     * @param retryDelay    Milliseconds to wait after the first failed attempt, doubled for every further failure
+     * @param claimLease    Milliseconds a claim stays valid without heartbeat, the heartbeat runs three times per lease
+     */
+    public SynchronizeScheduler(File directory, String baseUrl, long window, int maxConcurrent, int maxAttempts, long retryDelay, long claimLease) {
+        String name = hash(baseUrl);
+        this.m_stateFile = new File(directory, name + ".state");
+        this.m_lockFile = new File(directory, name + ".lock");
+        this.m_slotFiles = new File[Math.max(1, maxConcurrent)];
+        for (int slot = 0; slot < m_slotFiles.length; slot++) {
+            m_slotFiles[slot] = new File(directory, name + ".slot" + slot);
+        }
+        this.m_window = window;
+        this.m_maxAttempts = Math.max(1, maxAttempts);
+        this.m_retryDelay = retryDelay;
+        this.m_claimLease = Math.max(3L, claimLease);
+    }
+
+    /**
+     * @return Default directory of the schedules in the temp directory
+     */
+    public static File getDefaultDirectory() {
+        return new File(System.getProperty("java.io.tmpdir"), "SSCM_Sync");
+    }
+
+    /**
+     * <p>synchronize</p>
+     * <p/>
+     * Request a synchronize of the foreign source and wait until a synchronize started after the request succeeded or
+     * gave up, no matter which thread or invocation ran it.
+     *
+     * @param foreignSource name of the foreign source as {@link java.lang.String}
+     * @param synchronizer  Runs the synchronize if this call has to do it as {@link Synchronizer}
+     * @return false if the synchronize covering the request gave up after all attempts
+     * @throws IOException          if the state file can't be used
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public boolean synchronize(final String foreignSource, Synchronizer synchronizer) throws IOException, InterruptedException {
+        final String claimant = OWNER + "#" + Thread.currentThread().getId();
+        final long request = updateState(new StateUpdate<Long>() {
+            @Override
+            public Long update(Map<String, Entry> entries, long now) {
+                Entry entry = entries.get(foreignSource);
+                if (entry == null) {
+                    entry = new Entry();
+                    entries.put(foreignSource, entry);
+                }
+                if (!entry.isPending()) {
+                    entry.m_due = now + m_window;
+                } else {
+                    logger.info("Synchronize of '{}' is already requested, the request is coalesced", foreignSource);
+                }
+                entry.m_requested++;
+                return entry.m_requested;
+            }
+        });
+
+        boolean synchronizedHere = false;
+        while (true) {
+            // > 0: wait, 0: run the synchronize, -1: done, -2: given up
+            long wait = updateState(new StateUpdate<Long>() {
+                @Override
+                public Long update(Map<String, Entry> entries, long now) {
+                    Entry entry = getEntry(entries, foreignSource, request);
+                    if (entry.m_done >= request) {
+                        return -1L;
+                    }
+                    if (entry.m_failed >= request) {
+                        return -2L;
+                    }
+                    if (entry.isClaimed(now)) {
+                        return POLL_INTERVAL;
+                    }
+                    if (entry.m_due > now) {
+                        return entry.m_due - now;
+                    }
+                    if (!entry.m_claimedBy.isEmpty()) {
+                        logger.warn("Claim of '{}' on the synchronize of '{}' expired, taking it over", entry.m_claimedBy, foreignSource);
+                    }
+                    entry.m_claimedBy = claimant;
+                    entry.m_claimedUntil = now + m_claimLease;
+                    return 0L;
+                }
+            });
+
+            if (wait == -1L) {
+                if (!synchronizedHere) {
+                    PhaseMetrics.getDefault().increment(PhaseMetrics.SYNCS_COALESCED, 1);
+                }
+                return true;
+            } else if (wait == -2L) {
+                logger.error("Synchronize of '{}' covering this request gave up", foreignSource);
+                return false;
+            } else if (wait > 0) {
+                Thread.sleep(Math.min(wait, POLL_INTERVAL));
+            } else {
+                runWithRetries(foreignSource, synchronizer, claimant);
+                synchronizedHere = true;
+            }
+        }
+    }
+
+    /**
+     * Run the claimed synchronize in a free slot until it succeeds or all attempts failed. The claim is renewed by the
+     * heartbeat until the result is recorded.
+     */
+    private void runWithRetries(final String foreignSource, Synchronizer synchronizer, final String claimant) throws IOException, InterruptedException {
+        long heartbeatInterval = m_claimLease / 3;
+        ScheduledFuture<?> heartbeat = HEARTBEAT.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    renewClaim(foreignSource, claimant, false);
+                } catch (IOException e) {
+                    logger.warn("Renewing the claim on the synchronize of '{}' failed", foreignSource, e);
+                }
+            }
+        }, heartbeatInterval, heartbeatInterval, TimeUnit.MILLISECONDS);
+        try {
+            for (int attempt = 1; ; attempt++) {
+                Exception failure = null;
+                final long covered;
+                FileLock slot = acquireSlot();
+                try {
+                    covered = updateState(new StateUpdate<Long>() {
+                        @Override
+                        public Long update(Map<String, Entry> entries, long now) {
+                            Entry entry = getEntry(entries, foreignSource, 0L);
+                            entry.m_started = entry.m_requested;
+                            return entry.m_started;
+                        }
+                    });
+                    logger.info("Synchronizing '{}', attempt {} of {}", foreignSource, attempt, m_maxAttempts);
+                    try {
+                        synchronizer.synchronize(foreignSource);
+                    } catch (Exception e) {
+                        failure = e;
+                    }
+                } finally {
+                    releaseSlot(slot);
+                }
+
+                if (failure == null) {
+                    finish(foreignSource, claimant, covered, true);
+                    return;
+                }
+                if (attempt >= m_maxAttempts) {
+                    logger.error("Synchronize of '{}' failed {} times and is given up", foreignSource, attempt, failure);
+                    finish(foreignSource, claimant, covered, false);
+                    return;
+                }
+
+                long delay = Math.min(MAX_RETRY_DELAY, m_retryDelay << Math.min(attempt - 1, 20));
+                logger.warn("Synchronize of '{}' failed, retry in {} ms", foreignSource, delay, failure);
+                Thread.sleep(delay);
+            }
+        } finally {
+            heartbeat.cancel(false);
+            // an interrupted or broken run leaves its requests to the next claimant
+            renewClaim(foreignSource, claimant, true);
+        }
+    }
+
+    /**
+     * Record the result of a synchronize covering the requests up to a sequence number and release the claim.
+     */
+    private void finish(final String foreignSource, final String claimant, final long covered, final boolean success) throws IOException {
+        updateState(new StateUpdate<Void>() {
+            @Override
+            public Void update(Map<String, Entry> entries, long now) {
+                Entry entry = getEntry(entries, foreignSource, 0L);
+                if (success) {
+                    entry.m_done = Math.max(entry.m_done, covered);
+                } else {
+                    entry.m_failed = Math.max(entry.m_failed, covered);
+                }
+                entry.m_finished = now;
+                if (entry.isPending()) {
+                    // requested again while running, the new changes need another synchronize
+                    entry.m_due = now + m_window;
+                }
+                if (entry.m_claimedBy.equals(claimant)) {
+                    entry.m_claimedBy = "";
+                    entry.m_claimedUntil = 0L;
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Extend the claim by one lease, or release it, if it is still held by the claimant.
+     */
+    private void renewClaim(final String foreignSource, final String claimant, final boolean release) throws IOException {
+        updateState(new StateUpdate<Void>() {
+            @Override
+            public Void update(Map<String, Entry> entries, long now) {
+                Entry entry = entries.get(foreignSource);
+                if (entry != null && entry.m_claimedBy.equals(claimant)) {
+                    if (release) {
+                        entry.m_claimedBy = "";
+                        entry.m_claimedUntil = 0L;
+                    } else {
+                        entry.m_claimedUntil = now + m_claimLease;
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * The entry of the foreign source, it is restored with the request if the state file was removed in the meantime.
+     */
+    private static Entry getEntry(Map<String, Entry> entries, String foreignSource, long request) {
+        Entry entry = entries.get(foreignSource);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(foreignSource, entry);
+        }
+        entry.m_requested = Math.max(entry.m_requested, request);
+        return entry;
+    }
+
+    /**
+     * Wait for one of the slots, a slot is free if no thread of any invocation holds its file lock.
+     */
+    private FileLock acquireSlot() throws IOException, InterruptedException {
+        createDirectory();
+        while (true) {
+            for (File slotFile : m_slotFiles) {
+                FileChannel channel = new RandomAccessFile(slotFile, "rw").getChannel();
+                FileLock lock = null;
+                try {
+                    lock = channel.tryLock();
+                } catch (OverlappingFileLockException e) {
+                    // held by another thread of this process
+                }
+                if (lock != null) {
+                    return lock;
+                }
+                channel.close();
+            }
+            Thread.sleep(POLL_INTERVAL);
+        }
+    }
+
+    private static void releaseSlot(FileLock slot) throws IOException {
+        FileChannel channel = slot.channel();
+        slot.release();
+        channel.close();
+    }
+
+    private <T> T updateState(StateUpdate<T> update) throws IOException {
+        synchronized (STATE_LOCK) {
+            createDirectory();
+            try (FileChannel lockChannel = new RandomAccessFile(m_lockFile, "rw").getChannel()) {
+                FileLock lock = lockChannel.lock();
+                try {
+                    long now = System.currentTimeMillis();
+                    Map<String, Entry> entries = readState();
+                    T result = update.update(entries, now);
+                    for (Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext(); ) {
+                        Entry entry = iterator.next();
+                        if (!entry.isPending() && !entry.isClaimed(now) && now - entry.m_finished > RETENTION) {
+                            iterator.remove();
+                        }
+                    }
+                    writeState(entries);
+                    return result;
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    private Map<String, Entry> readState() throws IOException {
+        Map<String, Entry> entries = new TreeMap<>();
+        if (!m_stateFile.isFile()) {
+            return entries;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(m_stateFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length != 9) {
+                    logger.warn("Ignoring malformed line '{}' in '{}'", line, m_stateFile);
+                    continue;
+                }
+                try {
+                    Entry entry = new Entry();
+                    entry.m_requested = Long.parseLong(fields[1]);
+                    entry.m_started = Long.parseLong(fields[2]);
+                    entry.m_done = Long.parseLong(fields[3]);
+                    entry.m_failed = Long.parseLong(fields[4]);
+                    entry.m_due = Long.parseLong(fields[5]);
+                    entry.m_claimedBy = fields[6];
+                    entry.m_claimedUntil = Long.parseLong(fields[7]);
+                    entry.m_finished = Long.parseLong(fields[8]);
+                    entries.put(fields[0], entry);
+                } catch (NumberFormatException e) {
+                    logger.warn("Ignoring malformed line '{}' in '{}'", line, m_stateFile);
+                }
+            }
+        }
+        return entries;
+    }
+
+    private void writeState(Map<String, Entry> entries) throws IOException {
+        File partFile = new File(m_stateFile.getPath() + ".part");
+        try (BufferedWriter writer = Files.newBufferedWriter(partFile.toPath(), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                Entry schedule = entry.getValue();
+                writer.write(entry.getKey() + "\t" + schedule.m_requested + "\t" + schedule.m_started + "\t" + schedule.m_done
+                        + "\t" + schedule.m_failed + "\t" + schedule.m_due + "\t" + schedule.m_claimedBy
+                        + "\t" + schedule.m_claimedUntil + "\t" + schedule.m_finished);
+                writer.newLine();
+            }
+        }
+        Files.move(partFile.toPath(), m_stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void createDirectory() throws IOException {
+        File directory = m_stateFile.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Cannot create schedule directory " + directory);
+        }
+    }
+
+    private static String hash(String baseUrl) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(baseUrl.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (byte hashByte : hash) {
+                name.append(Character.forDigit((hashByte >> 4) & 0xf, 16)).append(Character.forDigit(hashByte & 0xf, 16));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is required by every Java platform", e);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.forge.spreadsheetcategorymanager;
+
+import org.junit.Test;
+import org.opennms.forge.spreadsheetcategorymanager.utils.CategoryDelta;
+import org.opennms.forge.spreadsheetcategorymanager.utils.CategoryPlan;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * <p>CategoryPlanTest class.</p>
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+public class CategoryPlanTest {
+
+    @Test
+    public void testWrittenPlanReadsBack() throws IOException {
+        CategoryPlan categoryPlan = new CategoryPlan();
+        CategoryDelta swap = new CategoryDelta("1", "Node\t1");
+        swap.addCategory("Production");
+        swap.removeCategory("Dev\\Test");
+        categoryPlan.addChange("First", swap);
+        categoryPlan.addUnknownNode("First", "Node\n2");
+        categoryPlan.addForeignSource("Unchanged");
+
+        File planFile = File.createTempFile("CategoryPlanTest", ".plan");
+        planFile.deleteOnExit();
+        categoryPlan.write(planFile);
+        CategoryPlan readPlan = CategoryPlan.read(planFile);
+
+        assertEquals(Arrays.asList("First", "Unchanged"), Arrays.asList(readPlan.getForeignSources().toArray()));
+        assertEquals("Amount of planned node changes", 1, readPlan.getChanges("First").size());
+        CategoryDelta readSwap = readPlan.getChanges("First").get(0);
+        assertEquals("1", readSwap.getForeignId());
+        assertEquals("Node\t1", readSwap.getNodeLabel());
+        assertEquals(Collections.singletonList("Production"), readSwap.getAddedCategories());
+        assertEquals(Collections.singletonList("Dev\\Test"), readSwap.getRemovedCategories());
+        assertEquals(Collections.singletonList("Node\n2"), readPlan.getUnknownNodes("First"));
+        assertEquals(Collections.<CategoryDelta>emptyList(), readPlan.getChanges("Unchanged"));
+    }
+
+    @Test
+    public void testInvalidPlanFails() throws IOException {
+        File planFile = File.createTempFile("CategoryPlanTest", ".plan");
+        planFile.deleteOnExit();
+        try (FileOutputStream output = new FileOutputStream(planFile)) {
+            output.write("add\tProduction\n".getBytes("UTF-8"));
+        }
+        try {
+            CategoryPlan.read(planFile);
+            fail("A category without a node has to fail");
+        } catch (IOException e) {
+            assertEquals("Invalid line 1 in plan " + planFile + ": add\tProduction", e.getMessage());
+        }
+    }
+}
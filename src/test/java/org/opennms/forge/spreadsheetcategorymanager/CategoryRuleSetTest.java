@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.forge.spreadsheetcategorymanager;
+
+import org.junit.Test;
+import org.opennms.forge.spreadsheetcategorymanager.utils.CategoryDelta;
+import org.opennms.forge.spreadsheetcategorymanager.utils.CategoryPlan;
+import org.opennms.forge.spreadsheetcategorymanager.utils.CategoryRuleSet;
+import org.opennms.forge.spreadsheetcategorymanager.utils.NodeToCategoryMapping;
+import org.opennms.netmgt.provision.persist.requisition.Requisition;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionAsset;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionCategory;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionInterface;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionNode;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * <p>CategoryRuleSetTest class.</p>
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+public class CategoryRuleSetTest {
+
+    private static final String RULES = ""
+            + "# category rules\n"
+            + "match\tlabel\tprefix\tweb-\n"
+            + "add\tWeb\n"
+            + "remove\tLegacy\n"
+            + "\n"
+            + "match\tlabel\tequals\tweb-01\n"
+            + "add\tPrimary\n"
+            + "match\tforeign-id\tregex\t^db[0-9]+$\n"
+            + "add\tDatabase\n"
+            + "match\tip\tcidr\t10.1.0.0/16\n"
+            + "add\tDatacenter-A\n"
+            + "match\tip\tcidr\t10.1.2.0/24\n"
+            + "add\tRack-2\n"
+            + "match\tip\tcidr\t2001:db8::/32\n"
+            + "add\tIPv6\n"
+            + "match\tasset:building\tequals\tHQ\n"
+            + "add\tHeadquarter\n"
+            + "remove\tWeb\n";
+
+    @Test
+    public void testRulesMatchEveryField() throws IOException {
+        CategoryRuleSet ruleSet = CategoryRuleSet.read(new StringReader(RULES), "test");
+        assertEquals(7, ruleSet.getRuleCount());
+
+        assertEquals(rules(0, 1), ruleSet.match(createNode("web-01", "w1", null, null)));
+        assertEquals(rules(0), ruleSet.match(createNode("web-02", "w2", null, null)));
+        assertEquals(rules(), ruleSet.match(createNode("we", "w3", null, null)));
+        assertEquals(rules(2), ruleSet.match(createNode("mysql", "db42", null, null)));
+        assertEquals(rules(), ruleSet.match(createNode("mysql", "db42a", null, null)));
+        assertEquals(rules(3), ruleSet.match(createNode("host", "h1", "10.1.3.4", null)));
+        assertEquals(rules(3, 4), ruleSet.match(createNode("host", "h2", "10.1.2.255", null)));
+        assertEquals(rules(), ruleSet.match(createNode("host", "h3", "10.2.0.1", null)));
+        assertEquals(rules(5), ruleSet.match(createNode("host", "h4", "2001:DB8:0:1::1", null)));
+        assertEquals(rules(), ruleSet.match(createNode("host", "h5", "not-an-address", null)));
+        assertEquals(rules(6), ruleSet.match(createNode("host", "h6", null, "HQ")));
+    }
+
+    @Test
+    public void testMappingsFeedTheImport() throws IOException {
+        CategoryRuleSet ruleSet = CategoryRuleSet.read(new StringReader(RULES), "test");
+        Requisition requisition = new Requisition("Servers");
+        RequisitionNode web = createNode("web-01", "1", "10.1.2.3", "HQ");
+        web.setCategories(new ArrayList<>(Arrays.asList(new RequisitionCategory("Legacy"), new RequisitionCategory("Web"))));
+        requisition.setNodes(new ArrayList<>(Arrays.asList(web, createNode("web-01", "2", null, null), createNode("other", "3", null, null))));
+
+        List<NodeToCategoryMapping> mappings = ruleSet.getNodeToCategoryMappings(requisition);
+        assertEquals(2, mappings.size());
+
+        // the duplicate label doesn't matter, the mappings are keyed by foreign id
+        List<CategoryDelta> categoryDeltas = RestCategoryProvisioner.changeNodeToCategoryMappingsInManagedRequisition(mappings, requisition, "Servers", new CategoryPlan(), true);
+        assertEquals(2, categoryDeltas.size());
+        assertEquals("1", categoryDeltas.get(0).getForeignId());
+        // the building rule removes Web again, a remove wins over an add
+        assertEquals(Arrays.asList("Datacenter-A", "Headquarter", "Primary", "Rack-2"), sortedNames(web.getCategories()));
+        assertEquals(Arrays.asList("Legacy", "Web"), sorted(categoryDeltas.get(0).getRemovedCategories()));
+    }
+
+    @Test
+    public void testInvalidRulesAreRejected() {
+        for (String rules : Arrays.asList("add\tWeb\n", "match\tlabel\tsuffix\tx\n", "match\thost\tequals\tx\n",
+                "match\tip\tcidr\t10.0.0.0/33\n", "match\tip\tequals\t10.0.0.1\n", "match\tlabel\tregex\t(\n")) {
+            try {
+                CategoryRuleSet.read(new StringReader(rules), "test");
+                fail("Rules should be invalid: " + rules);
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid line 1 in rules test"));
+            }
+        }
+    }
+
+    @Test
+    public void testManyRulesOnManyNodes() throws IOException {
+        StringBuilder rules = new StringBuilder();
+        for (int rule = 0; rule < 500; rule++) {
+            switch (rule % 4) {
+                case 0:
+                    rules.append("match\tlabel\tprefix\tnode-").append(rule / 4 % 10).append('\n');
+                    break;
+                case 1:
+                    rules.append("match\tip\tcidr\t10.").append(rule % 256).append(".0.0/16\n");
+                    break;
+                case 2:
+                    rules.append("match\tforeign-id\tequals\t").append(rule * 100).append('\n');
+                    break;
+                default:
+                    rules.append("match\tasset:rack\tequals\tR").append(rule).append('\n');
+            }
+            rules.append("add\tCategory-").append(rule).append('\n');
+        }
+        CategoryRuleSet ruleSet = CategoryRuleSet.read(new StringReader(rules.toString()), "test");
+
+        Requisition requisition = new Requisition("Servers");
+        List<RequisitionNode> nodes = new ArrayList<>();
+        for (int node = 0; node < 100000; node++) {
+            nodes.add(createNode("node-" + node, String.valueOf(node), "10." + (node % 256) + ".1.1", "R" + (node % 1000)));
+        }
+        requisition.setNodes(nodes);
+
+        // the matching time is measured by CategoryRuleBenchmark
+        List<NodeToCategoryMapping> mappings = ruleSet.getNodeToCategoryMappings(requisition);
+        assertEquals(100000, mappings.size());
+        for (int node = 0; node < nodes.size(); node += 997) {
+            assertEquals(String.valueOf(node), mappings.get(node).getNodeLabel());
+            assertEquals(ruleSet.match(nodes.get(node)).cardinality(), mappings.get(node).getAddCategories().size());
+        }
+        // node-0 matches the prefix rules 0, 40, ..., 480 and nothing else
+        assertEquals(13, mappings.get(0).getAddCategories().size());
+    }
+
+    private static RequisitionNode createNode(String nodeLabel, String foreignId, String ipAddress, String building) {
+        RequisitionNode node = new RequisitionNode();
+        node.setNodeLabel(nodeLabel);
+        node.setForeignId(foreignId);
+        if (ipAddress != null) {
+            RequisitionInterface requisitionInterface = new RequisitionInterface();
+            requisitionInterface.setIpAddr(ipAddress);
+            node.putInterface(requisitionInterface);
+        }
+        if (building != null) {
+            node.putAsset(new RequisitionAsset("building", building));
+            node.putAsset(new RequisitionAsset("rack", building));
+        }
+        return node;
+    }
+
+    private static BitSet rules(int... ruleIds) {
+        BitSet rules = new BitSet();
+        for (int ruleId : ruleIds) {
+            rules.set(ruleId);
+        }
+        return rules;
+    }
+
+    private static List<String> sortedNames(List<RequisitionCategory> categories) {
+        List<String> names = new ArrayList<>();
+        for (RequisitionCategory category : categories) {
+            names.add(category.getName());
+        }
+        return sorted(names);
+    }
+
+    private static List<String> sorted(Iterable<String> values) {
+        List<String> sorted = new ArrayList<>();
+        for (String value : values) {
+            sorted.add(value);
+        }
+        Collections.sort(sorted);
+        return sorted;
+    }
+}
@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.forge.spreadsheetcategorymanager;
+
+import org.junit.Test;
+import org.opennms.forge.spreadsheetcategorymanager.utils.DelimitedTableStreamParser;
+import org.opennms.forge.spreadsheetcategorymanager.utils.NodeToCategoryMapping;
+import org.opennms.forge.spreadsheetcategorymanager.utils.OdsTableStreamParser;
+import org.opennms.forge.spreadsheetcategorymanager.utils.SparseRow;
+import org.opennms.netmgt.provision.persist.requisition.Requisition;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionCategory;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+
+public class DelimitedTableStreamTest {
+
+    @Test
+    public void testDelimitedExportMatchesOdsExport() throws IOException {
+        Requisition requisition = generateTestRequisition();
+        File odsFile = File.createTempFile("DelimitedTest", ".ods");
+        odsFile.deleteOnExit();
+        new SpreadsheetWriter(true).getSpreadsheetFromRequisition(requisition, odsFile.getAbsolutePath(), null);
+        Map<String, String> odsMappings = toSortedMap(new SpreadsheetReader(odsFile).getNodeToCategoryMappingsFromFile());
+
+        for (String extension : new String[]{".csv", ".tsv"}) {
+            File delimitedFile = File.createTempFile("DelimitedTest", extension);
+            delimitedFile.deleteOnExit();
+            new SpreadsheetWriter().getSpreadsheetFromRequisition(requisition, delimitedFile.getAbsolutePath(), null);
+
+            assertEquals("Mappings of " + extension, odsMappings, toSortedMap(new SpreadsheetReader(delimitedFile).getNodeToCategoryMappingsFromFile()));
+            assertEquals("Foreign sources of " + extension, Collections.singleton("TestRequisition"), new SpreadsheetReader(delimitedFile).getNodeToCategoryMappingsByForeignSource().keySet());
+        }
+
+        File csvFile = File.createTempFile("DelimitedTest", ".csv");
+        csvFile.deleteOnExit();
+        new SpreadsheetWriter().getSpreadsheetFromRequisition(requisition, csvFile.getAbsolutePath(), null);
+        assertEquals("TestRequisition,Category-A,Category-B,TH-CPU-80\r\n"
+                + "\"Node \"\"A\"\", Rack 1\",X,,X\r\n"
+                + "Node-B,,X,\r\n", new String(Files.readAllBytes(csvFile.toPath()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testFingerprintSkipsUnchangedRows() throws IOException {
+        File csvFile = File.createTempFile("DelimitedFingerprintTest", ".csv");
+        csvFile.deleteOnExit();
+        new SpreadsheetWriter(false, false, true).getSpreadsheetFromRequisition(generateTestRequisition(), csvFile.getAbsolutePath(), null);
+        assertEquals("Unchanged rows", 0, new SpreadsheetReader(csvFile, true, 1, true).getNodeToCategoryMappingsFromFile().size());
+
+        // Node-B gets Category-A added
+        String content = new String(Files.readAllBytes(csvFile.toPath()), StandardCharsets.UTF_8);
+        Files.write(csvFile.toPath(), content.replace("Node-B,,X", "Node-B,X,X").getBytes(StandardCharsets.UTF_8));
+        Map<String, String> changedRows = toSortedMap(new SpreadsheetReader(csvFile, true, 1, true).getNodeToCategoryMappingsFromFile());
+        assertEquals("Changed rows", Collections.singleton("Node-B"), changedRows.keySet());
+    }
+
+    @Test
+    public void testParseQuotedCells() throws IOException {
+        final List<List<String>> rows = new ArrayList<>();
+        String csv = "\uFEFFfs,\"Cat,A\",Cat B\r\n\"multi\nline\",\"say \"\"hi\"\"\",,\n\r\nlast,X";
+        DelimitedTableStreamParser.parse(new StringReader(csv), ',', "table", new OdsTableStreamParser.RowHandler() {
+            @Override
+            public void startTable(String tableName) {
+                assertEquals("table", tableName);
+            }
+
+            @Override
+            public boolean row(SparseRow cells) {
+                rows.add(new ArrayList<>(cells));
+                return true;
+            }
+
+            @Override
+            public void endTable(String tableName) {
+            }
+        });
+
+        assertEquals(Arrays.asList(
+                Arrays.asList("fs", "Cat,A", "Cat B"),
+                Arrays.asList("multi\nline", "say \"hi\""),
+                Collections.<String>emptyList(),
+                Arrays.asList("last", "X")), rows);
+    }
+
+    private Map<String, String> toSortedMap(Collection<NodeToCategoryMapping> nodeToCategoryMappings) {
+        Map<String, String> sortedMappings = new TreeMap<>();
+        for (NodeToCategoryMapping nodeToCategoryMapping : nodeToCategoryMappings) {
+            sortedMappings.put(nodeToCategoryMapping.getNodeLabel(), "add=" + toSortedNames(nodeToCategoryMapping.getAddCategories()) + " remove=" + toSortedNames(nodeToCategoryMapping.getRemoveCategories()));
+        }
+        return sortedMappings;
+    }
+
+    /**
+     * The delimited file has one table for threshold and surveillance categories, so the order differs from ODS
+     */
+    private Set<String> toSortedNames(Collection<RequisitionCategory> categories) {
+        Set<String> names = new TreeSet<>();
+        for (RequisitionCategory category : categories) {
+            names.add(category.getName());
+        }
+        return names;
+    }
+
+    private Requisition generateTestRequisition() {
+        Requisition requisition = new Requisition("TestRequisition");
+        List<RequisitionNode> reqNodes = new ArrayList<>();
+
+        RequisitionNode reqNodeA = new RequisitionNode();
+        reqNodeA.setNodeLabel("Node \"A\", Rack 1");
+        reqNodeA.setForeignId("ForeignId-A");
+        reqNodeA.setCategories(new ArrayList<>(Arrays.asList(new RequisitionCategory("Category-A"), new RequisitionCategory("TH-CPU-80"))));
+        reqNodes.add(reqNodeA);
+
+        RequisitionNode reqNodeB = new RequisitionNode();
+        reqNodeB.setNodeLabel("Node-B");
+        reqNodeB.setForeignId("ForeignId-B");
+        reqNodeB.setCategories(new ArrayList<>(Collections.singletonList(new RequisitionCategory("Category-B"))));
+        reqNodes.add(reqNodeB);
+
+        requisition.setNodes(reqNodes);
+        return requisition;
+    }
+}
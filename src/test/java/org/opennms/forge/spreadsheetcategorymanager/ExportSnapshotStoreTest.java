@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.forge.spreadsheetcategorymanager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.forge.spreadsheetcategorymanager.utils.ExportSnapshotStore;
+import org.opennms.netmgt.provision.persist.requisition.Requisition;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionCategory;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p>ExportSnapshotStoreTest class.</p>
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+public class ExportSnapshotStoreTest {
+
+    private static final String BASE_URL = "http://localhost:8980/opennms/";
+
+    private static final String SETTINGS = new SpreadsheetWriter().getSettings(null);
+
+    private File m_directory;
+
+    @Before
+    public void setUp() throws IOException {
+        m_directory = File.createTempFile("ExportSnapshotStoreTest", "");
+        m_directory.delete();
+    }
+
+    @After
+    public void tearDown() {
+        File[] snapshotFiles = m_directory.listFiles();
+        if (snapshotFiles != null) {
+            for (File snapshotFile : snapshotFiles) {
+                snapshotFile.delete();
+            }
+        }
+        m_directory.delete();
+    }
+
+    @Test
+    public void testDiffAgainstLastExport() {
+        ExportSnapshotStore store = new ExportSnapshotStore(m_directory);
+        Requisition requisition = generateRequisition(200, 100);
+        assertNull("No snapshot before the first export", store.diff(BASE_URL, requisition, false, SETTINGS));
+
+        store.put(BASE_URL, requisition, false, SETTINGS);
+        assertTrue("Unchanged requisition", store.diff(BASE_URL, generateRequisition(200, 100), false, SETTINGS).isUnchanged());
+        assertNull("Other node keys", store.diff(BASE_URL, requisition, true, SETTINGS));
+        assertNull("Other OpenNMS", store.diff("http://other:8980/opennms/", requisition, false, SETTINGS));
+
+        Requisition changed = generateRequisition(200, 100);
+        changed.getNodes().get(7).getCategories().remove(0);
+        changed.getNodes().get(42).getCategories().add(new RequisitionCategory("Category-99"));
+        changed.getNodes().get(43).getCategories().add(new RequisitionCategory("New-Category"));
+        changed.getNodes().remove(150);
+        RequisitionNode newNode = new RequisitionNode();
+        newNode.setNodeLabel("Node-\u00e4\u20ac");
+        newNode.setForeignId("ForeignId-new");
+        changed.getNodes().add(newNode);
+
+        ExportSnapshotStore.SnapshotDiff diff = store.diff(BASE_URL, changed, false, SETTINGS);
+        assertEquals(Arrays.asList("Node-7", "Node-42", "Node-43", "Node-\u00e4\u20ac"), new ArrayList<>(diff.getChangedNodes()));
+        assertEquals("Removed nodes", 1, diff.getRemovedNodes());
+
+        store.put(BASE_URL, changed, false, SETTINGS);
+        assertTrue("Unchanged after the next export", store.diff(BASE_URL, changed, false, SETTINGS).isUnchanged());
+    }
+
+    @Test
+    public void testUnreadableSnapshotMeansFullExport() throws IOException {
+        ExportSnapshotStore store = new ExportSnapshotStore(m_directory);
+        Requisition requisition = generateRequisition(3, 3);
+        store.put(BASE_URL, requisition, false, SETTINGS);
+
+        File[] snapshotFiles = m_directory.listFiles();
+        assertEquals(1, snapshotFiles.length);
+        Files.write(snapshotFiles[0].toPath(), new byte[]{1, 2, 3});
+        assertNull(store.diff(BASE_URL, requisition, false, SETTINGS));
+    }
+
+    @Test
+    public void testFailedExportKeepsLastSnapshot() {
+        ExportSnapshotStore store = new ExportSnapshotStore(m_directory);
+        Requisition requisition = generateRequisition(3, 3);
+        // the file name lies in a missing folder, so writing the file fails
+        SpreadsheetWriter failingWriter = new SpreadsheetWriter(true, false, false, File.separator + "missing.ods");
+        SpreadsheetWriter writer = new SpreadsheetWriter(true, false, false, ".ods");
+
+        assertNull(RestCategoryReader.writeOdsFile(failingWriter, requisition, null, BASE_URL, store));
+        assertNull("No snapshot of a failed export", store.diff(BASE_URL, requisition, false, writer.getSettings(null)));
+
+        File odsFile = RestCategoryReader.writeOdsFile(writer, requisition, null, BASE_URL, store);
+        assertTrue(odsFile != null && odsFile.isFile());
+        odsFile.delete();
+        assertTrue(store.diff(BASE_URL, requisition, false, writer.getSettings(null)).isUnchanged());
+
+        requisition.getNodes().get(0).getCategories().add(new RequisitionCategory("Category-New"));
+        assertNull(RestCategoryReader.writeOdsFile(failingWriter, requisition, null, BASE_URL, store));
+        assertEquals("Changed node is exported again", 1, store.diff(BASE_URL, requisition, false, writer.getSettings(null)).getChangedNodes().size());
+    }
+
+    @Test
+    public void testOtherWriterSettingsMeanFullExport() {
+        ExportSnapshotStore store = new ExportSnapshotStore(m_directory);
+        Requisition requisition = generateRequisition(3, 3);
+        SpreadsheetWriter odsWriter = new SpreadsheetWriter(true, false, false, ".ods");
+        SpreadsheetWriter csvWriter = new SpreadsheetWriter(true, false, false, ".csv");
+        SpreadsheetWriter fingerprintWriter = new SpreadsheetWriter(true, false, true, ".ods");
+
+        File odsFile = RestCategoryReader.writeOdsFile(odsWriter, requisition, null, BASE_URL, store);
+        assertTrue(odsFile != null && odsFile.isFile());
+        odsFile.delete();
+        assertNull("Unchanged with the same settings", RestCategoryReader.writeOdsFile(odsWriter, requisition, null, BASE_URL, store));
+
+        File csvFile = RestCategoryReader.writeOdsFile(csvWriter, requisition, null, BASE_URL, store);
+        assertTrue("Other format is a full export", csvFile != null && csvFile.getName().endsWith(".csv"));
+        csvFile.delete();
+        assertTrue(store.diff(BASE_URL, requisition, false, csvWriter.getSettings(null)).isUnchanged());
+        assertNull("Fingerprints", store.diff(BASE_URL, requisition, false, fingerprintWriter.getSettings(null)));
+        assertNull("Template", store.diff(BASE_URL, requisition, false, csvWriter.getSettings(new File("template.ods"))));
+    }
+
+    private Requisition generateRequisition(int nodes, int categories) {
+        Requisition requisition = new Requisition("TestRequisition");
+        List<RequisitionNode> reqNodes = new ArrayList<>();
+        for (int nodeIndex = 0; nodeIndex < nodes; nodeIndex++) {
+            RequisitionNode reqNode = new RequisitionNode();
+            reqNode.setNodeLabel("Node-" + nodeIndex);
+            reqNode.setForeignId("ForeignId-" + nodeIndex);
+            List<RequisitionCategory> reqCategories = new ArrayList<>();
+            for (int categoryIndex = nodeIndex % 7; categoryIndex < categories; categoryIndex += 7) {
+                reqCategories.add(new RequisitionCategory("Category-" + categoryIndex));
+            }
+            reqNode.setCategories(reqCategories);
+            reqNodes.add(reqNode);
+        }
+        requisition.setNodes(reqNodes);
+        return requisition;
+    }
+}
@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.forge.spreadsheetcategorymanager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>LoadTestDriver class.</p>
+ * <p/>
+ * Runs the {@link Starter} end to end against an {@link OpenNmsRestStub} with generated requisitions and reports the
+ * wall time, the requests and the transferred bytes of every phase:
+ * <ul>
+ * <li>export: all requisitions into ODS files</li>
+ * <li>import: every ODS file with the whole requisition sent back and synchronized</li>
+ * <li>import-delta: every ODS file with only the category changes sent</li>
+ * </ul>
+ * The stub changes the categories of every node after the export, so both imports change every node. Arguments are
+ * nodes, categories, foreign sources, latency in milliseconds, padding bytes per node and threads:
+ * <pre>
+ * mvn test-compile org.codehaus.mojo:exec-maven-plugin:1.6.0:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.opennms.forge.spreadsheetcategorymanager.LoadTestDriver -Dexec.args="100000 100 2 5 0 4"
+ * </pre>
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+public final class LoadTestDriver {
+
+    private static final String FOREIGN_SOURCE_PREFIX = "LoadTest-";
+
+    private final OpenNmsRestStub m_stub;
+
+    private final int m_nodes;
+
+    private final int m_categories;
+
+    private final int m_threads;
+
+    private final List<String> m_foreignSources = new ArrayList<>();
+
+    private final List<String> m_report = new ArrayList<>();
+
+    private long m_phaseStart;
+
+    private LoadTestDriver(OpenNmsRestStub stub, int nodes, int categories, int foreignSources, int threads) {
+        this.m_stub = stub;
+        this.m_nodes = nodes;
+        this.m_categories = categories;
+        this.m_threads = threads;
+        for (int i = 0; i < foreignSources; i++) {
+            m_foreignSources.add(FOREIGN_SOURCE_PREFIX + i);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int nodes = getArgument(args, 0, 10000);
+        int categories = getArgument(args, 1, 100);
+        int foreignSources = getArgument(args, 2, 2);
+        int latency = getArgument(args, 3, 0);
+        int paddingBytes = getArgument(args, 4, 0);
+        int threads = getArgument(args, 5, 4);
+
+        // The export writes into the temporary folder
+        File workDirectory = File.createTempFile("LoadTestDriver", "");
+        workDirectory.delete();
+        workDirectory.mkdirs();
+        System.setProperty("java.io.tmpdir", workDirectory.getAbsolutePath());
+
+        try (OpenNmsRestStub stub = new OpenNmsRestStub(Math.max(4, threads * 2))) {
+            stub.setLatency(latency);
+            stub.setPaddingBytes(paddingBytes);
+            LoadTestDriver driver = new LoadTestDriver(stub, nodes, categories, foreignSources, threads);
+            driver.run(workDirectory);
+
+            System.out.println();
+            System.out.println(String.format("%d foreign sources with %d nodes and %d categories, %d ms latency, %d padding bytes, %d threads", foreignSources, nodes, categories, latency, paddingBytes, threads));
+            System.out.println(String.format("%-14s %12s %10s %16s %16s", "phase", "wall ms", "requests", "bytes received", "bytes sent"));
+            for (String line : driver.m_report) {
+                System.out.println(line);
+            }
+        }
+    }
+
+    private void run(File workDirectory) {
+        long start = System.currentTimeMillis();
+        for (String foreignSource : m_foreignSources) {
+            m_stub.generateRequisition(foreignSource, m_nodes, m_categories, 0);
+        }
+        m_report.add(String.format("%-14s %12d %10d %16d %16d", "generate", System.currentTimeMillis() - start, 0, 0, 0));
+
+        startPhase();
+        runStarter("-genods", "-afs", "-stream", "-th", Integer.toString(m_threads));
+        endPhase("export");
+
+        changeRequisitions();
+        startPhase();
+        for (String foreignSource : m_foreignSources) {
+            runStarter("-fs", foreignSource, "-odssrc", getOdsFile(workDirectory, foreignSource), "-stream", "-sync");
+        }
+        endPhase("import");
+
+        changeRequisitions();
+        startPhase();
+        for (String foreignSource : m_foreignSources) {
+            runStarter("-fs", foreignSource, "-odssrc", getOdsFile(workDirectory, foreignSource), "-stream", "-d", "-dt", "1", "-th", Integer.toString(m_threads));
+        }
+        endPhase("import-delta");
+    }
+
+    private void startPhase() {
+        m_stub.resetCounters();
+        m_phaseStart = System.currentTimeMillis();
+    }
+
+    private void endPhase(String phase) {
+        long wallTime = System.currentTimeMillis() - m_phaseStart;
+        m_report.add(String.format("%-14s %12d %10d %16d %16d", phase, wallTime, m_stub.getRequests(), m_stub.getBytesReceived(), m_stub.getBytesSent()));
+    }
+
+    /**
+     * Move the categories of every node on the stub, the exported spreadsheets differ from every node afterwards.
+     */
+    private void changeRequisitions() {
+        for (String foreignSource : m_foreignSources) {
+            m_stub.generateRequisition(foreignSource, m_nodes, m_categories, 1);
+        }
+    }
+
+    private void runStarter(String... arguments) {
+        List<String> starterArguments = new ArrayList<>(Arrays.asList("-url", m_stub.getBaseUrl(), "-u", "admin", "-p", "admin"));
+        starterArguments.addAll(Arrays.asList(arguments));
+        new Starter().doMain(starterArguments.toArray(new String[starterArguments.size()]));
+    }
+
+    private static String getOdsFile(File workDirectory, String foreignSource) {
+        return new File(workDirectory, foreignSource + ".ods").getAbsolutePath();
+    }
+
+    private static int getArgument(String[] args, int index, int defaultValue) {
+        return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+    }
+}
@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.forge.spreadsheetcategorymanager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.forge.spreadsheetcategorymanager.utils.OdsFolderWatcher;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * <p>OdsFolderWatcherTest class.</p>
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+public class OdsFolderWatcherTest {
+
+    private static final long DEBOUNCE = 300L;
+
+    private File m_directory;
+
+    private OdsFolderWatcher m_watcher;
+
+    private Thread m_watcherThread;
+
+    private final BlockingQueue<File> m_handledFiles = new LinkedBlockingQueue<>();
+
+    /**
+     * Holds the watcher in the handler of Blocker.ods, events pile up meanwhile
+     */
+    private final CountDownLatch m_unblock = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws IOException {
+        m_directory = File.createTempFile("OdsFolderWatcherTest", "");
+        m_directory.delete();
+        m_directory.mkdirs();
+
+        m_watcher = new OdsFolderWatcher(m_directory, DEBOUNCE, new OdsFolderWatcher.OdsFileHandler() {
+            @Override
+            public void handle(File odsFile) {
+                m_handledFiles.add(odsFile);
+                if (odsFile.getName().equals("Blocker.ods")) {
+                    try {
+                        m_unblock.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        });
+        m_watcherThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                m_watcher.run();
+            }
+        });
+        m_watcherThread.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_unblock.countDown();
+        m_watcher.close();
+        m_watcherThread.join(10000L);
+        File[] files = m_directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        m_directory.delete();
+    }
+
+    @Test
+    public void testFileWrittenInPartsIsHandledOnce() throws Exception {
+        File odsFile = new File(m_directory, "Servers.ods");
+        try (OutputStream odsOutput = new FileOutputStream(odsFile)) {
+            for (int part = 0; part < 4; part++) {
+                odsOutput.write(new byte[1024]);
+                odsOutput.flush();
+                Thread.sleep(DEBOUNCE / 3);
+            }
+        }
+
+        assertEquals(odsFile.getAbsoluteFile(), m_handledFiles.poll(10, TimeUnit.SECONDS).getAbsoluteFile());
+        assertNull("Handled only once", m_handledFiles.poll(DEBOUNCE * 3, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testOtherFilesAreIgnored() throws Exception {
+        new FileOutputStream(new File(m_directory, "notes.txt")).close();
+        new FileOutputStream(new File(m_directory, ".Servers.ods")).close();
+        File odsFile = new File(m_directory, "Routers.ods");
+        new FileOutputStream(odsFile).close();
+
+        assertEquals(odsFile.getAbsoluteFile(), m_handledFiles.poll(10, TimeUnit.SECONDS).getAbsoluteFile());
+        assertNull("Only the visible ODS file", m_handledFiles.poll(DEBOUNCE * 3, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testLostEventsDontHandOverUnchangedFiles() throws Exception {
+        File handledFile = new File(m_directory, "Servers.ods");
+        writeFile(handledFile, 1024);
+        assertEquals(handledFile.getAbsoluteFile(), m_handledFiles.poll(10, TimeUnit.SECONDS).getAbsoluteFile());
+
+        File blockerFile = new File(m_directory, "Blocker.ods");
+        writeFile(blockerFile, 16);
+        assertEquals(blockerFile.getAbsoluteFile(), m_handledFiles.poll(10, TimeUnit.SECONDS).getAbsoluteFile());
+
+        // more events than a watch key keeps while the watcher is busy, the watch service reports them as lost
+        File changedFile = new File(m_directory, "Routers.ods");
+        writeFile(changedFile, 2048);
+        for (int note = 0; note < 1000; note++) {
+            new FileOutputStream(new File(m_directory, "note-" + note + ".txt")).close();
+        }
+        m_unblock.countDown();
+
+        assertEquals(changedFile.getAbsoluteFile(), m_handledFiles.poll(10, TimeUnit.SECONDS).getAbsoluteFile());
+        assertNull("Unchanged files are not handed over again", m_handledFiles.poll(DEBOUNCE * 3, TimeUnit.MILLISECONDS));
+    }
+
+    private static void writeFile(File file, int size) throws IOException {
+        try (OutputStream output = new FileOutputStream(file)) {
+            output.write(new byte[size]);
+        }
+    }
+}
@@ -0,0 +1,326 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.forge.spreadsheetcategorymanager;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>OpenNmsRestStub class.</p>
+ * <p/>
+ * Embedded HTTP server on a free local port which serves the requisition endpoints of the OpenNMS REST API:
+ * <ul>
+ * <li>GET of all requisitions and of one requisition</li>
+ * <li>POST and PUT of a requisition, which replaces the served requisition</li>
+ * <li>PUT of an import, which synchronizes a requisition</li>
+ * <li>POST and DELETE of single node categories</li>
+ * </ul>
+ * Requisitions are generated with a given amount of nodes and categories. Every response is delayed by the latency and
+ * every node can be padded to simulate larger responses. Requests and transferred bytes are counted.
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+public class OpenNmsRestStub implements Closeable {
+
+    private static final String CONTEXT = "/opennms/rest/requisitions";
+
+    private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n";
+
+    private static final String MODEL_IMPORT_NS = "http://xmlns.opennms.org/xsd/config/model-import";
+
+    private static final Pattern FOREIGN_SOURCE = Pattern.compile("foreign-source=\"([^\"]*)\"");
+
+    private final HttpServer m_server;
+
+    private final ExecutorService m_executor;
+
+    /**
+     * Requisition XML without declaration by foreign source
+     */
+    private final Map<String, byte[]> m_requisitions = new ConcurrentSkipListMap<>();
+
+    private final ConcurrentMap<String, AtomicLong> m_imports = new ConcurrentHashMap<>();
+
+    private final AtomicLong m_requests = new AtomicLong();
+
+    private final AtomicLong m_bytesReceived = new AtomicLong();
+
+    private final AtomicLong m_bytesSent = new AtomicLong();
+
+    private final AtomicLong m_categoryChanges = new AtomicLong();
+
+    private volatile long m_latency = 0;
+
+    private volatile int m_paddingBytes = 0;
+
+    /**
+     * @param threads amount of requests served concurrently
+     * @throws IOException if no local port is free
+     */
+    public OpenNmsRestStub(int threads) throws IOException {
+        m_server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        m_executor = Executors.newFixedThreadPool(threads);
+        m_server.setExecutor(m_executor);
+        m_server.createContext(CONTEXT, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    handleRequest(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        m_server.start();
+    }
+
+    /**
+     * @return Base URL of the stub like the one of an OpenNMS as {@link java.lang.String}
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + m_server.getAddress().getPort() + "/opennms/";
+    }
+
+    /**
+     * @param latency milliseconds every response is delayed
+     */
+    public void setLatency(long latency) {
+        m_latency = latency;
+    }
+
+    /**
+     * @param paddingBytes bytes of an additional asset on every generated node
+     */
+    public void setPaddingBytes(int paddingBytes) {
+        m_paddingBytes = paddingBytes;
+    }
+
+    /**
+     * <p>generateRequisition</p>
+     * <p/>
+     * Serve a generated requisition. Node i has the categories c with (i + c + shift) % 4 == 0, so a different shift
+     * changes the categories of every node.
+     *
+     * @param foreignSource name of the foreign source
+     * @param nodes         amount of nodes
+     * @param categories    amount of surveillance categories
+     * @param shift         shift of the category assignment
+     */
+    public void generateRequisition(String foreignSource, int nodes, int categories, int shift) {
+        StringBuilder padding = new StringBuilder();
+        for (int i = 0; i < m_paddingBytes; i++) {
+            padding.append('x');
+        }
+
+        StringBuilder xml = new StringBuilder(nodes * (64 + categories * 8 + m_paddingBytes));
+        xml.append("<model-import xmlns=\"").append(MODEL_IMPORT_NS).append("\" foreign-source=\"").append(escapeXml(foreignSource)).append("\">");
+        for (int node = 0; node < nodes; node++) {
+            xml.append("<node foreign-id=\"").append(node).append("\" node-label=\"node-").append(node).append("\">");
+            for (int category = 0; category < categories; category++) {
+                if ((node + category + shift) % 4 == 0) {
+                    xml.append("<category name=\"Category-").append(category).append("\"/>");
+                }
+            }
+            if (m_paddingBytes > 0) {
+                xml.append("<asset name=\"comment\" value=\"").append(padding).append("\"/>");
+            }
+            xml.append("</node>");
+        }
+        xml.append("</model-import>");
+        m_requisitions.put(foreignSource, xml.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param foreignSource name of the foreign source
+     * @return Served requisition XML without declaration, null if the foreign source is unknown
+     */
+    public byte[] getRequisitionXml(String foreignSource) {
+        return m_requisitions.get(foreignSource);
+    }
+
+    /**
+     * @param foreignSource name of the foreign source
+     * @return Amount of imports of the foreign source
+     */
+    public long getImports(String foreignSource) {
+        AtomicLong imports = m_imports.get(foreignSource);
+        return imports == null ? 0 : imports.get();
+    }
+
+    public long getRequests() {
+        return m_requests.get();
+    }
+
+    public long getBytesReceived() {
+        return m_bytesReceived.get();
+    }
+
+    public long getBytesSent() {
+        return m_bytesSent.get();
+    }
+
+    public long getCategoryChanges() {
+        return m_categoryChanges.get();
+    }
+
+    /**
+     * Set all counters back to zero, the requisitions are kept.
+     */
+    public void resetCounters() {
+        m_requests.set(0);
+        m_bytesReceived.set(0);
+        m_bytesSent.set(0);
+        m_categoryChanges.set(0);
+        m_imports.clear();
+    }
+
+    @Override
+    public void close() {
+        m_server.stop(0);
+        m_executor.shutdownNow();
+    }
+
+    private void handleRequest(HttpExchange exchange) throws IOException {
+        m_requests.incrementAndGet();
+        byte[] body = readBody(exchange);
+        if (m_latency > 0) {
+            try {
+                Thread.sleep(m_latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        String method = exchange.getRequestMethod();
+        String[] path = getPath(exchange);
+        if ("GET".equals(method) && path.length == 0) {
+            ByteArrayOutputStream xml = new ByteArrayOutputStream();
+            xml.write((XML_DECLARATION + "<model-imports xmlns=\"" + MODEL_IMPORT_NS + "\" count=\"" + m_requisitions.size() + "\">").getBytes(StandardCharsets.UTF_8));
+            for (byte[] requisition : m_requisitions.values()) {
+                xml.write(requisition);
+            }
+            xml.write("</model-imports>".getBytes(StandardCharsets.UTF_8));
+            respond(exchange, 200, xml.toByteArray());
+        } else if ("GET".equals(method) && path.length == 1) {
+            byte[] requisition = m_requisitions.get(path[0]);
+            if (requisition == null) {
+                respond(exchange, 404, null);
+            } else {
+                ByteArrayOutputStream xml = new ByteArrayOutputStream();
+                xml.write(XML_DECLARATION.getBytes(StandardCharsets.UTF_8));
+                xml.write(requisition);
+                respond(exchange, 200, xml.toByteArray());
+            }
+        } else if (("POST".equals(method) || "PUT".equals(method)) && path.length <= 1 && body.length > 0) {
+            String requisition = new String(body, StandardCharsets.UTF_8).replaceFirst("^<\\?xml[^>]*\\?>\\s*", "");
+            Matcher foreignSource = FOREIGN_SOURCE.matcher(requisition);
+            if (foreignSource.find()) {
+                m_requisitions.put(foreignSource.group(1), requisition.getBytes(StandardCharsets.UTF_8));
+                respond(exchange, 200, null);
+            } else {
+                respond(exchange, 400, null);
+            }
+        } else if ("PUT".equals(method) && path.length == 2 && "import".equals(path[1])) {
+            m_imports.putIfAbsent(path[0], new AtomicLong());
+            m_imports.get(path[0]).incrementAndGet();
+            respond(exchange, 200, null);
+        } else if (path.length >= 4 && "nodes".equals(path[1]) && "categories".equals(path[3]) && ("POST".equals(method) || "DELETE".equals(method))) {
+            m_categoryChanges.incrementAndGet();
+            respond(exchange, 200, null);
+        } else {
+            respond(exchange, 405, null);
+        }
+    }
+
+    private byte[] readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream input = exchange.getRequestBody()) {
+            byte[] buffer = new byte[8192];
+            for (int read = input.read(buffer); read != -1; read = input.read(buffer)) {
+                body.write(buffer, 0, read);
+            }
+        }
+        m_bytesReceived.addAndGet(body.size());
+        return body.toByteArray();
+    }
+
+    private void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/xml");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+        m_bytesSent.addAndGet(body.length);
+    }
+
+    /**
+     * Decoded path segments below the requisitions resource.
+     */
+    private static String[] getPath(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getRawPath().substring(CONTEXT.length());
+        String[] segments = path.replaceAll("^/+|/+$", "").split("/");
+        if (segments.length == 1 && segments[0].isEmpty()) {
+            return new String[0];
+        }
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = URLDecoder.decode(segments[i].replace("+", "%2B"), "UTF-8");
+        }
+        return segments;
+    }
+
+    private static String escapeXml(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
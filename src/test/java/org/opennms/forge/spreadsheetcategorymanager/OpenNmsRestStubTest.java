@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.forge.spreadsheetcategorymanager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.forge.restclient.utils.OnmsRestConnectionParameter;
+import org.opennms.forge.spreadsheetcategorymanager.utils.CategoryDelta;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p>OpenNmsRestStubTest class.</p>
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+public class OpenNmsRestStubTest {
+
+    private OpenNmsRestStub m_stub;
+
+    private OnmsRestConnectionParameter m_connection;
+
+    @Before
+    public void setUp() throws IOException {
+        m_stub = new OpenNmsRestStub(2);
+        m_connection = new OnmsRestConnectionParameter(m_stub.getBaseUrl(), "admin", "admin");
+    }
+
+    @After
+    public void tearDown() {
+        m_stub.close();
+    }
+
+    @Test
+    public void testServesGeneratedRequisitions() throws IOException {
+        m_stub.generateRequisition("Servers", 4, 4, 0);
+        m_stub.generateRequisition("Routers", 2, 2, 0);
+
+        String servers = request("GET", "rest/requisitions/Servers", null);
+        assertTrue(servers, servers.contains("foreign-source=\"Servers\""));
+        assertTrue(servers, servers.contains("<node foreign-id=\"1\" node-label=\"node-1\"><category name=\"Category-3\"/></node>"));
+
+        String all = request("GET", "rest/requisitions", null);
+        assertTrue(all, all.contains("count=\"2\"") && all.contains("foreign-source=\"Routers\""));
+        assertEquals(2, m_stub.getRequests());
+        assertEquals(servers.length() + all.length(), m_stub.getBytesSent());
+    }
+
+    @Test
+    public void testStoresSentRequisitionsAndCountsImports() throws IOException {
+        String requisition = "<model-import foreign-source=\"Servers\"><node foreign-id=\"1\" node-label=\"node-1\"/></model-import>";
+        request("POST", "rest/requisitions", "<?xml version=\"1.0\"?>" + requisition);
+        request("PUT", "rest/requisitions/Servers/import", null);
+
+        assertEquals(requisition, new String(m_stub.getRequisitionXml("Servers"), "UTF-8"));
+        assertEquals(1, m_stub.getImports("Servers"));
+        assertEquals(requisition.length() + 21, m_stub.getBytesReceived());
+    }
+
+    @Test
+    public void testAcceptsCategoryDeltas() throws IOException {
+        CategoryDelta categoryDelta = new CategoryDelta("1", "node-1");
+        categoryDelta.addCategory("Production");
+        categoryDelta.removeCategory("Dev/Test");
+        new RestCategoryDeltaSender(m_connection, "Servers").sendCategoryDeltas(Collections.singletonList(categoryDelta), 1);
+
+        assertEquals(2, m_stub.getCategoryChanges());
+    }
+
+    private String request(String method, String path, String body) throws IOException {
+        HttpURLConnection connection = RestClientFactory.getDefault().openConnection(m_connection, path, method);
+        if (body != null) {
+            connection.setDoOutput(true);
+            try (OutputStream output = connection.getOutputStream()) {
+                output.write(body.getBytes("UTF-8"));
+            }
+        }
+        assertEquals(200, connection.getResponseCode());
+
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        try (InputStream input = connection.getInputStream()) {
+            byte[] buffer = new byte[1024];
+            for (int read = input.read(buffer); read != -1; read = input.read(buffer)) {
+                response.write(buffer, 0, read);
+            }
+        }
+        return response.toString("UTF-8");
+    }
+}
@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.forge.spreadsheetcategorymanager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.forge.spreadsheetcategorymanager.utils.PhaseMetrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p>PhaseMetricsTest class.</p>
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+public class PhaseMetricsTest {
+
+    private final PhaseMetrics m_metrics = new PhaseMetrics();
+
+    private File m_metricsFile;
+
+    @Before
+    public void setUp() throws IOException {
+        m_metricsFile = File.createTempFile("PhaseMetricsTest", ".prom");
+
+        m_metrics.recordPhase(PhaseMetrics.DOWNLOAD, System.nanoTime() - 2000000000L);
+        m_metrics.recordPhase(PhaseMetrics.DOWNLOAD, System.nanoTime() - 1000000000L);
+        m_metrics.recordPhase(PhaseMetrics.PARSE, System.nanoTime());
+        m_metrics.increment(PhaseMetrics.ROWS_PARSED, 100);
+        m_metrics.increment(PhaseMetrics.ROWS_PARSED, 20);
+        m_metrics.increment(PhaseMetrics.NODES_CHANGED, 3);
+    }
+
+    @After
+    public void tearDown() {
+        m_metricsFile.delete();
+    }
+
+    @Test
+    public void testPhasesAndCountersAddUp() {
+        assertEquals(2, m_metrics.getPhaseCount(PhaseMetrics.DOWNLOAD));
+        assertEquals(0, m_metrics.getPhaseCount(PhaseMetrics.UPLOAD));
+        assertEquals(120, m_metrics.getCounter(PhaseMetrics.ROWS_PARSED));
+        assertEquals(0, m_metrics.getCounter(PhaseMetrics.BYTES_SENT));
+        assertTrue(m_metrics.getPeakHeap() > 0);
+    }
+
+    @Test
+    public void testPrometheusTextFormat() throws IOException {
+        m_metrics.writePrometheus(m_metricsFile);
+        String text = new String(Files.readAllBytes(m_metricsFile.toPath()), "UTF-8");
+
+        assertTrue(text, text.contains("# TYPE sscm_phase_seconds_total counter\n"));
+        assertTrue(text, text.contains("sscm_phase_runs_total{phase=\"download\"} 2\n"));
+        assertTrue(text, text.matches("(?s).*sscm_phase_seconds_total\\{phase=\"download\"\\} 3\\.0\\d+\n.*"));
+        assertTrue(text, text.matches("(?s).*sscm_phase_seconds_max\\{phase=\"download\"\\} 2\\.0\\d+\n.*"));
+        assertTrue(text, text.contains("# TYPE sscm_rows_parsed_total counter\nsscm_rows_parsed_total 120\n"));
+        assertTrue(text, text.contains("sscm_nodes_changed_total 3\n"));
+        assertTrue(text, text.contains("# TYPE sscm_heap_peak_bytes gauge\n"));
+    }
+
+    @Test
+    public void testJsonFormat() throws IOException {
+        m_metrics.writeJson(m_metricsFile);
+        String json = new String(Files.readAllBytes(m_metricsFile.toPath()), "UTF-8");
+
+        assertTrue(json, json.matches("(?s).*\"download\": \\{\"count\": 2, \"seconds_total\": 3\\.0\\d+, \"seconds_max\": 2\\.0\\d+\\}.*"));
+        assertTrue(json, json.contains("\"rows_parsed\": 120"));
+        assertTrue(json, json.contains("\"heap_peak_bytes\": "));
+        assertTrue(json, json.trim().startsWith("{") && json.trim().endsWith("}"));
+    }
+}
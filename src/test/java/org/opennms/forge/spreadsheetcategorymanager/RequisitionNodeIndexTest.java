@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.forge.spreadsheetcategorymanager;
+
+import org.junit.Test;
+import org.opennms.forge.spreadsheetcategorymanager.utils.RequisitionNodeIndex;
+import org.opennms.netmgt.provision.persist.requisition.Requisition;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionNode;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p>RequisitionNodeIndexTest class.</p>
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+public class RequisitionNodeIndexTest {
+
+    @Test
+    public void testLookupByLabelAndForeignId() {
+        Requisition requisition = new Requisition("IndexTest");
+        RequisitionNode first = addNode(requisition, "1", "Node-A");
+        RequisitionNode second = addNode(requisition, "2", "Node-B");
+        RequisitionNode third = addNode(requisition, "3", "Node-B");
+
+        RequisitionNodeIndex nodeIndex = new RequisitionNodeIndex(requisition);
+
+        assertSame(first, nodeIndex.getByLabel("Node-A"));
+        assertSame(first, nodeIndex.get("1", true));
+        assertSame(second, nodeIndex.getByForeignId("2"));
+        assertSame(third, nodeIndex.getByForeignId("3"));
+        assertNull("Unknown label", nodeIndex.getByLabel("Node-C"));
+
+        assertNull("Ambiguous label", nodeIndex.getByLabel("Node-B"));
+        assertTrue(nodeIndex.isDuplicateLabel("Node-B"));
+        assertFalse(nodeIndex.isDuplicateLabel("Node-A"));
+        assertEquals(Collections.singleton("Node-B"), nodeIndex.getDuplicateLabels());
+    }
+
+    private RequisitionNode addNode(Requisition requisition, String foreignId, String nodeLabel) {
+        RequisitionNode requisitionNode = new RequisitionNode();
+        requisitionNode.setForeignId(foreignId);
+        requisitionNode.setNodeLabel(nodeLabel);
+        requisition.getNodes().add(requisitionNode);
+        return requisitionNode;
+    }
+}
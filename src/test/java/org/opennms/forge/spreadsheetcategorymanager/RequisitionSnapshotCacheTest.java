@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.forge.spreadsheetcategorymanager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.forge.spreadsheetcategorymanager.utils.RequisitionSnapshotCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * <p>RequisitionSnapshotCacheTest class.</p>
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+public class RequisitionSnapshotCacheTest {
+
+    private static final String BASE_URL = "http://localhost:8980/opennms/";
+
+    private File m_directory;
+
+    @Before
+    public void setUp() throws IOException {
+        m_directory = File.createTempFile("RequisitionSnapshotCacheTest", "");
+        m_directory.delete();
+    }
+
+    @After
+    public void tearDown() {
+        File[] snapshotFiles = m_directory.listFiles();
+        if (snapshotFiles != null) {
+            for (File snapshotFile : snapshotFiles) {
+                snapshotFile.delete();
+            }
+        }
+        m_directory.delete();
+    }
+
+    @Test
+    public void testSnapshotIsKeyedByBaseUrlAndForeignSource() {
+        RequisitionSnapshotCache cache = new RequisitionSnapshotCache(m_directory, RequisitionSnapshotCache.DEFAULT_TTL, RequisitionSnapshotCache.DEFAULT_MAX_BYTES);
+        cache.put(BASE_URL, "Servers", "servers".getBytes());
+
+        assertArrayEquals("servers".getBytes(), cache.get(BASE_URL, "Servers"));
+        assertNull(cache.get(BASE_URL, "Routers"));
+        assertNull(cache.get("http://other:8980/opennms/", "Servers"));
+
+        cache.invalidate(BASE_URL, "Servers");
+        assertNull(cache.get(BASE_URL, "Servers"));
+    }
+
+    @Test
+    public void testExpiredSnapshotIsMissing() throws InterruptedException {
+        RequisitionSnapshotCache cache = new RequisitionSnapshotCache(m_directory, 0, RequisitionSnapshotCache.DEFAULT_MAX_BYTES);
+        cache.put(BASE_URL, "Servers", "servers".getBytes());
+        Thread.sleep(5);
+        assertNull(cache.get(BASE_URL, "Servers"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedSnapshotIsEvicted() {
+        byte[] snapshot = new byte[4096];
+        new Random(42).nextBytes(snapshot);
+        RequisitionSnapshotCache cache = new RequisitionSnapshotCache(m_directory, RequisitionSnapshotCache.DEFAULT_TTL, 10000);
+
+        cache.put(BASE_URL, "First", snapshot);
+        cache.put(BASE_URL, "Second", snapshot);
+        // last access times of the files are used for the eviction order
+        for (File snapshotFile : m_directory.listFiles()) {
+            snapshotFile.setLastModified(System.currentTimeMillis() - 60000);
+        }
+        cache.get(BASE_URL, "First");
+        cache.put(BASE_URL, "Third", snapshot);
+
+        assertArrayEquals(snapshot, cache.get(BASE_URL, "First"));
+        assertNull(cache.get(BASE_URL, "Second"));
+        assertArrayEquals(snapshot, cache.get(BASE_URL, "Third"));
+    }
+}
@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.forge.spreadsheetcategorymanager;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.forge.restclient.utils.OnmsRestConnectionParameter;
+import org.opennms.forge.spreadsheetcategorymanager.utils.CategoryDelta;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * <p>RestCategoryDeltaSenderTest class.</p>
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+public class RestCategoryDeltaSenderTest {
+
+    private HttpServer m_server;
+
+    private final List<String> m_requests = Collections.synchronizedList(new ArrayList<String>());
+
+    private int m_responseCode = 200;
+
+    @Before
+    public void setUp() throws IOException {
+        m_server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        m_server.createContext("/opennms/rest/requisitions/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                try (InputStream input = exchange.getRequestBody()) {
+                    byte[] buffer = new byte[1024];
+                    for (int read = input.read(buffer); read != -1; read = input.read(buffer)) {
+                        body.write(buffer, 0, read);
+                    }
+                }
+                m_requests.add(exchange.getRequestMethod() + " " + exchange.getRequestURI().getRawPath() + " " + body.toString("UTF-8") + " " + exchange.getRequestHeaders().getFirst("Authorization"));
+                exchange.sendResponseHeaders(m_responseCode, -1);
+                exchange.close();
+            }
+        });
+        m_server.start();
+    }
+
+    @After
+    public void tearDown() {
+        m_server.stop(0);
+    }
+
+    private RestCategoryDeltaSender createSender() throws IOException {
+        String baseUrl = "http://127.0.0.1:" + m_server.getAddress().getPort() + "/opennms/";
+        return new RestCategoryDeltaSender(new OnmsRestConnectionParameter(baseUrl, "admin", "admin"), "Test Source");
+    }
+
+    @Test
+    public void testSendOnlyChangedCategoriesOfChangedNodes() throws IOException {
+        CategoryDelta firstNode = new CategoryDelta("1", "Node-1");
+        firstNode.addCategory("Production");
+        firstNode.removeCategory("Dev/Test");
+        CategoryDelta secondNode = new CategoryDelta("2", "Node-2");
+        secondNode.addCategory("A&B");
+
+        createSender().sendCategoryDeltas(Arrays.asList(firstNode, secondNode), 2);
+
+        List<String> requests = new ArrayList<>(m_requests);
+        Collections.sort(requests);
+        assertEquals(Arrays.asList(
+                "DELETE /opennms/rest/requisitions/Test%20Source/nodes/1/categories/Dev%2FTest  Basic YWRtaW46YWRtaW4=",
+                "POST /opennms/rest/requisitions/Test%20Source/nodes/1/categories <category name=\"Production\"/> Basic YWRtaW46YWRtaW4=",
+                "POST /opennms/rest/requisitions/Test%20Source/nodes/2/categories <category name=\"A&amp;B\"/> Basic YWRtaW46YWRtaW4="), requests);
+    }
+
+    @Test
+    public void testRejectedDeltaFails() throws IOException {
+        m_responseCode = 500;
+        CategoryDelta categoryDelta = new CategoryDelta("1", "Node-1");
+        categoryDelta.addCategory("Production");
+        try {
+            createSender().sendCategoryDeltas(Collections.singletonList(categoryDelta), 1);
+            fail("A rejected delta has to fail");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("1 of 1 node deltas"));
+        }
+    }
+}
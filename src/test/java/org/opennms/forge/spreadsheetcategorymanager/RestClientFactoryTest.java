@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.forge.spreadsheetcategorymanager;
+
+import org.junit.Test;
+import org.opennms.forge.restclient.utils.OnmsRestConnectionParameter;
+
+import java.net.HttpURLConnection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * <p>RestClientFactoryTest class.</p>
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+public class RestClientFactoryTest {
+
+    private final RestClientFactory m_restClientFactory = new RestClientFactory(1000, 2000);
+
+    @Test
+    public void testRequisitionProviderIsSharedPerBaseUrl() throws Exception {
+        OnmsRestConnectionParameter demo = new OnmsRestConnectionParameter("http://demo:8980/opennms/", "admin", "admin");
+        OnmsRestConnectionParameter demoAgain = new OnmsRestConnectionParameter("http://demo:8980/opennms/", "admin", "admin");
+        OnmsRestConnectionParameter other = new OnmsRestConnectionParameter("http://other:8980/opennms/", "admin", "admin");
+
+        assertSame(m_restClientFactory.getRequisitionProvider(demo), m_restClientFactory.getRequisitionProvider(demoAgain));
+        assertNotSame(m_restClientFactory.getRequisitionProvider(demo), m_restClientFactory.getRequisitionProvider(other));
+    }
+
+    @Test
+    public void testConnectionUsesTimeouts() throws Exception {
+        OnmsRestConnectionParameter demo = new OnmsRestConnectionParameter("http://demo:8980/opennms", "admin", "admin");
+        HttpURLConnection connection = m_restClientFactory.openConnection(demo, "rest/requisitions", "GET");
+
+        assertEquals("http://demo:8980/opennms/rest/requisitions", connection.getURL().toString());
+        assertEquals(1000, connection.getConnectTimeout());
+        assertEquals(2000, connection.getReadTimeout());
+    }
+}
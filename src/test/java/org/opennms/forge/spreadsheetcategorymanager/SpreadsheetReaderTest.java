@@ -30,11 +30,24 @@ package org.opennms.forge.spreadsheetcategorymanager;
 import org.junit.Before;
 import org.junit.Test;
 import org.opennms.forge.spreadsheetcategorymanager.utils.NodeToCategoryMapping;
+import org.opennms.netmgt.provision.persist.requisition.Requisition;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionCategory;
+import org.opennms.netmgt.provision.persist.requisition.RequisitionNode;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import static org.junit.Assert.assertEquals;
 
@@ -63,4 +76,139 @@ public class SpreadsheetReaderTest {
 //            logger.info("NodeToCategoryMapping for '{}' found addCategory size is '{}' found remove Category size is '{}'", nodeToCategoryMapping.getNodeLabel(), nodeToCategoryMapping.getAddCategories().size(), nodeToCategoryMapping.getRemoveCategories().size());
 //        }
     }
+
+    @Test
+    public void testStreamingReaderMatchesDomReader() throws IOException {
+        SpreadsheetReader streamingReader = new SpreadsheetReader(new File("src/test/resources/ImportTest.ods"), true);
+        assertEquals("Streaming and DOM reader results", toSortedMap(reader.getNodeToCategoryMappingsFromFile()), toSortedMap(streamingReader.getNodeToCategoryMappingsFromFile()));
+    }
+
+    @Test
+    public void testConcurrentReaderMatchesSequentialReader() throws IOException {
+        SpreadsheetReader concurrentReader = new SpreadsheetReader(new File("src/test/resources/ImportTest.ods"), false, 4);
+        assertEquals("Concurrent and sequential reader results", reader.getNodeToCategoryMappingsFromFile().toString(), concurrentReader.getNodeToCategoryMappingsFromFile().toString());
+    }
+
+    @Test
+    public void testStreamingReaderHonorsRepeatedCellsAndRows() throws IOException {
+        String content = "<office:document-content xmlns:office=\"urn:oasis:names:tc:opendocument:xmlns:office:1.0\""
+                + " xmlns:table=\"urn:oasis:names:tc:opendocument:xmlns:table:1.0\" xmlns:text=\"urn:oasis:names:tc:opendocument:xmlns:text:1.0\">"
+                + "<office:body><office:spreadsheet><table:table table:name=\"Repeated\">"
+                + "<table:table-row><table:table-cell><text:p>Repeated</text:p></table:table-cell>"
+                + "<table:table-cell><text:p>Cat-A</text:p></table:table-cell><table:table-cell><text:p>Cat-B</text:p></table:table-cell>"
+                + "<table:table-cell><text:p>Cat-C</text:p></table:table-cell><table:table-cell table:number-columns-repeated=\"1020\"/></table:table-row>"
+                + "<table:table-row><table:table-cell><text:p>Node-A</text:p></table:table-cell><table:table-cell table:number-columns-repeated=\"2\"/>"
+                + "<table:table-cell><text:p>X</text:p></table:table-cell><table:table-cell table:number-columns-repeated=\"1020\"/></table:table-row>"
+                + "<table:table-row table:number-rows-repeated=\"2\"><table:table-cell><text:p>Node-B</text:p></table:table-cell>"
+                + "<table:table-cell table:number-columns-repeated=\"2\"><text:p>X</text:p></table:table-cell></table:table-row>"
+                + "<table:table-row table:number-rows-repeated=\"1048571\"><table:table-cell table:number-columns-repeated=\"1024\"/></table:table-row>"
+                + "</table:table></office:spreadsheet></office:body></office:document-content>";
+        File odsFile = writeContentXml("RepeatedTest", content);
+
+        Map<String, String> mappings = toSortedMap(new SpreadsheetReader(odsFile, true).getNodeToCategoryMappingsFromFile());
+        assertEquals("Amount of found NodeToCategory Entries", 2, mappings.size());
+        assertEquals("add=[Cat-C] remove=[Cat-A, Cat-B]", mappings.get("Node-A"));
+        assertEquals("add=[Cat-A, Cat-B] remove=[Cat-C]", mappings.get("Node-B"));
+    }
+
+    @Test
+    public void testGroupByForeignSourceOfFirstCell() throws IOException {
+        for (boolean streaming : new boolean[]{false, true}) {
+            Map<String, Collection<NodeToCategoryMapping>> mappingsByForeignSource = new SpreadsheetReader(new File("src/test/resources/ImportTest.ods"), streaming).getNodeToCategoryMappingsByForeignSource();
+            assertEquals("Foreign sources of the workbook", Collections.singleton("Testing"), mappingsByForeignSource.keySet());
+            assertEquals("Mappings of the foreign source", toSortedMap(reader.getNodeToCategoryMappingsFromFile()), toSortedMap(mappingsByForeignSource.get("Testing")));
+        }
+    }
+
+    @Test
+    public void testStreamingReaderGroupsTablesByForeignSource() throws IOException {
+        String content = "<office:document-content xmlns:office=\"urn:oasis:names:tc:opendocument:xmlns:office:1.0\""
+                + " xmlns:table=\"urn:oasis:names:tc:opendocument:xmlns:table:1.0\" xmlns:text=\"urn:oasis:names:tc:opendocument:xmlns:text:1.0\">"
+                + "<office:body><office:spreadsheet>"
+                + "<table:table table:name=\"First\"><table:table-row><table:table-cell><text:p>FS-A</text:p></table:table-cell>"
+                + "<table:table-cell><text:p>Cat-A</text:p></table:table-cell></table:table-row>"
+                + "<table:table-row><table:table-cell><text:p>Node-A</text:p></table:table-cell><table:table-cell><text:p>X</text:p></table:table-cell></table:table-row></table:table>"
+                + "<table:table table:name=\"Second\"><table:table-row><table:table-cell><text:p>FS-B</text:p></table:table-cell>"
+                + "<table:table-cell><text:p>Cat-B</text:p></table:table-cell></table:table-row>"
+                + "<table:table-row><table:table-cell><text:p>Node-A</text:p></table:table-cell><table:table-cell><text:p>X</text:p></table:table-cell></table:table-row></table:table>"
+                + "<table:table table:name=\"Unassigned\"><table:table-row><table:table-cell/>"
+                + "<table:table-cell><text:p>Cat-C</text:p></table:table-cell></table:table-row>"
+                + "<table:table-row><table:table-cell><text:p>Node-C</text:p></table:table-cell><table:table-cell><text:p>X</text:p></table:table-cell></table:table-row></table:table>"
+                + "<table:table table:name=\"Third\"><table:table-row><table:table-cell><text:p>FS-A</text:p></table:table-cell>"
+                + "<table:table-cell><text:p>Cat-B</text:p></table:table-cell></table:table-row>"
+                + "<table:table-row><table:table-cell><text:p>Node-B</text:p></table:table-cell></table:table-row></table:table>"
+                + "</office:spreadsheet></office:body></office:document-content>";
+        File odsFile = writeContentXml("GroupTest", content);
+
+        Map<String, Collection<NodeToCategoryMapping>> mappingsByForeignSource = new SpreadsheetReader(odsFile, true).getNodeToCategoryMappingsByForeignSource();
+        assertEquals("Foreign sources in order of their first table", Arrays.asList("FS-A", "FS-B"), new ArrayList<>(mappingsByForeignSource.keySet()));
+
+        Map<String, String> foreignSourceA = toSortedMap(mappingsByForeignSource.get("FS-A"));
+        assertEquals("Amount of found NodeToCategory Entries", 2, foreignSourceA.size());
+        assertEquals("add=[Cat-A] remove=[]", foreignSourceA.get("Node-A"));
+        assertEquals("add=[] remove=[Cat-B]", foreignSourceA.get("Node-B"));
+
+        Map<String, String> foreignSourceB = toSortedMap(mappingsByForeignSource.get("FS-B"));
+        assertEquals("Amount of found NodeToCategory Entries", 1, foreignSourceB.size());
+        assertEquals("add=[Cat-B] remove=[]", foreignSourceB.get("Node-A"));
+    }
+
+    @Test
+    public void testParseLargeSpreadsheet() throws IOException {
+        // the parse time over the row count is measured by SpreadsheetBenchmark
+        Map<String, String> mappings = toSortedMap(new SpreadsheetReader(generateOdsFile(4000, 20)).getNodeToCategoryMappingsFromFile());
+        assertEquals("Amount of found NodeToCategory Entries", 4000, mappings.size());
+        assertEquals(mappings.get("Node-0"), mappings.get("Node-3999"));
+    }
+
+    private File writeContentXml(String prefix, String content) throws IOException {
+        File odsFile = File.createTempFile(prefix, ".ods");
+        odsFile.deleteOnExit();
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(odsFile))) {
+            zip.putNextEntry(new ZipEntry("content.xml"));
+            zip.write(content.getBytes("UTF-8"));
+            zip.closeEntry();
+        }
+        return odsFile;
+    }
+
+    private File generateOdsFile(int nodeCount, int categoryCount) throws IOException {
+        Requisition requisition = new Requisition("ParseTimeTest");
+        List<RequisitionNode> reqNodes = new ArrayList<>();
+        for (int nodeIndex = 0; nodeIndex < nodeCount; nodeIndex++) {
+            RequisitionNode reqNode = new RequisitionNode();
+            reqNode.setNodeLabel("Node-" + nodeIndex);
+            reqNode.setForeignId("ForeignId-" + nodeIndex);
+            List<RequisitionCategory> reqCategories = new ArrayList<>();
+            for (int categoryIndex = 0; categoryIndex < categoryCount; categoryIndex++) {
+                if ((nodeIndex + categoryIndex) % 3 == 0) {
+                    reqCategories.add(new RequisitionCategory("Category-" + categoryIndex));
+                }
+            }
+            reqNode.setCategories(reqCategories);
+            reqNodes.add(reqNode);
+        }
+        requisition.setNodes(reqNodes);
+
+        File odsFile = File.createTempFile("ParseTimeTest", ".ods");
+        odsFile.deleteOnExit();
+        new SpreadsheetWriter(true).getSpreadsheetFromRequisition(requisition, odsFile.getAbsolutePath(), null);
+        return odsFile;
+    }
+
+    private Map<String, String> toSortedMap(Collection<NodeToCategoryMapping> nodeToCategoryMappings) {
+        Map<String, String> sortedMappings = new TreeMap<>();
+        for (NodeToCategoryMapping nodeToCategoryMapping : nodeToCategoryMappings) {
+            TreeSet<String> addCategories = new TreeSet<>();
+            for (RequisitionCategory category : nodeToCategoryMapping.getAddCategories()) {
+                addCategories.add(category.getName());
+            }
+            TreeSet<String> removeCategories = new TreeSet<>();
+            for (RequisitionCategory category : nodeToCategoryMapping.getRemoveCategories()) {
+                removeCategories.add(category.getName());
+            }
+            sortedMappings.put(nodeToCategoryMapping.getNodeLabel(), "add=" + addCategories + " remove=" + removeCategories);
+        }
+        return sortedMappings;
+    }
 }
@@ -30,13 +30,33 @@ package org.opennms.forge.spreadsheetcategorymanager;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.Ignore;
+import org.odftoolkit.odfdom.doc.OdfSpreadsheetDocument;
+import org.odftoolkit.odfdom.doc.table.OdfTable;
+import org.opennms.forge.spreadsheetcategorymanager.utils.NodeToCategoryMapping;
+import org.opennms.forge.spreadsheetcategorymanager.utils.PreparedTemplate;
+import org.opennms.forge.spreadsheetcategorymanager.utils.RowFingerprint;
 import org.opennms.netmgt.provision.persist.requisition.Requisition;
 import org.opennms.netmgt.provision.persist.requisition.RequisitionCategory;
 import org.opennms.netmgt.provision.persist.requisition.RequisitionNode;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author Markus@OpenNMS.org
@@ -59,6 +79,241 @@ public class SpreadsheetWriterTest {
         writer.getSpreadsheetFromRequisition(generateTestRequisition(), null);
     }
 
+    @Test
+    public void testStreamingWriterMatchesDomWriter() throws IOException {
+        File domFile = File.createTempFile("DomWriterTest", ".ods");
+        domFile.deleteOnExit();
+        File streamingFile = File.createTempFile("StreamingWriterTest", ".ods");
+        streamingFile.deleteOnExit();
+
+        writer.getSpreadsheetFromRequisition(generateTestRequisition(), domFile.getAbsolutePath(), null);
+        new SpreadsheetWriter(true).getSpreadsheetFromRequisition(generateTestRequisition(), streamingFile.getAbsolutePath(), null);
+
+        Map<String, String> domMappings = toSortedMap(new SpreadsheetReader(domFile).getNodeToCategoryMappingsFromFile());
+        assertEquals("Amount of exported nodes", 2, domMappings.size());
+        assertEquals("DOM and streaming writer results", domMappings, toSortedMap(new SpreadsheetReader(streamingFile).getNodeToCategoryMappingsFromFile()));
+    }
+
+    @Test
+    public void testThresholdAndCategorySheetContent() throws Exception {
+        Requisition requisition = generateTestRequisition();
+        requisition.getNodes().get(0).getCategories().add(new RequisitionCategory("TH-CPU-80"));
+        requisition.getNodes().get(1).getCategories().add(new RequisitionCategory("TH-CPU-90"));
+        requisition.getNodes().get(1).getCategories().add(new RequisitionCategory("Category-A"));
+
+        File odsFile = File.createTempFile("SheetContentTest", ".ods");
+        odsFile.deleteOnExit();
+        writer.getSpreadsheetFromRequisition(requisition, odsFile.getAbsolutePath(), null);
+
+        OdfSpreadsheetDocument spreadsheet = OdfSpreadsheetDocument.loadDocument(odsFile);
+        assertSheetContent(spreadsheet.getTableList().get(0), "TestRequisition TH", new String[][]{
+                {"TestRequisition", "TH-CPU-80", "TH-CPU-90"},
+                {"Node-A", "X", ""},
+                {"Node-B", "", "X"}});
+        assertSheetContent(spreadsheet.getTableList().get(1), "TestRequisition CATEGORIES", new String[][]{
+                {"TestRequisition", "Category-A", "Category-B"},
+                {"Node-A", "X", ""},
+                {"Node-B", "X", "X"}});
+    }
+
+    @Test
+    public void testNodesWithDuplicateLabelKeyedByForeignId() throws IOException {
+        Requisition requisition = generateTestRequisition();
+        requisition.getNodes().get(1).setNodeLabel("Node-A");
+
+        for (boolean streaming : new boolean[]{false, true}) {
+            File odsFile = File.createTempFile("ForeignIdKeyTest", ".ods");
+            odsFile.deleteOnExit();
+            new SpreadsheetWriter(streaming, true).getSpreadsheetFromRequisition(requisition, odsFile.getAbsolutePath(), null);
+
+            Map<String, String> addCategories = new TreeMap<>();
+            for (NodeToCategoryMapping nodeToCategoryMapping : new SpreadsheetReader(odsFile).getNodeToCategoryMappingsFromFile()) {
+                StringBuilder categoryNames = new StringBuilder();
+                for (RequisitionCategory category : nodeToCategoryMapping.getAddCategories()) {
+                    categoryNames.append(category.getName());
+                }
+                addCategories.put(nodeToCategoryMapping.getNodeLabel(), categoryNames.toString());
+            }
+            assertEquals("Amount of exported nodes", 2, addCategories.size());
+            assertEquals("Category-A", addCategories.get("ForeignId-A"));
+            assertEquals("Category-B", addCategories.get("ForeignId-B"));
+        }
+    }
+
+    @Test
+    public void testFingerprintSkipsUnchangedRows() throws Exception {
+        for (boolean streaming : new boolean[]{false, true}) {
+            File odsFile = File.createTempFile("FingerprintTest", ".ods");
+            odsFile.deleteOnExit();
+            new SpreadsheetWriter(streaming, false, true).getSpreadsheetFromRequisition(generateTestRequisition(), odsFile.getAbsolutePath(), null);
+
+            OdfSpreadsheetDocument spreadsheet = OdfSpreadsheetDocument.loadDocument(odsFile);
+            OdfTable categoryTable = spreadsheet.getTableList().get(1);
+            assertEquals("Fingerprint header", RowFingerprint.HEADER, categoryTable.getRowByIndex(0).getCellByIndex(3).getDisplayText());
+            assertEquals("Fingerprint column visibility", "collapse", categoryTable.getColumnByIndex(3).getOdfElement().getTableVisibilityAttribute());
+            assertEquals("Visible category column", "visible", categoryTable.getColumnByIndex(2).getOdfElement().getTableVisibilityAttribute());
+
+            Map<String, String> allRows = toSortedMap(new SpreadsheetReader(odsFile).getNodeToCategoryMappingsFromFile());
+            assertEquals("Fingerprints are no categories", toSortedMap(new SpreadsheetReader(odsFile, streaming, 1, false).getNodeToCategoryMappingsFromFile()), allRows);
+            assertEquals("Amount of exported nodes", 2, allRows.size());
+            assertEquals("Unchanged rows", 0, new SpreadsheetReader(odsFile, streaming, 1, true).getNodeToCategoryMappingsFromFile().size());
+
+            // Node-B gets Category-A added
+            categoryTable.getRowByIndex(2).getCellByIndex(1).setDisplayText("X");
+            spreadsheet.save(odsFile);
+            for (boolean streamingReader : new boolean[]{false, true}) {
+                Map<String, String> changedRows = toSortedMap(new SpreadsheetReader(odsFile, streamingReader, 1, true).getNodeToCategoryMappingsFromFile());
+                assertEquals("Changed rows", Collections.singleton("Node-B"), changedRows.keySet());
+            }
+        }
+    }
+
+    @Test
+    public void testPreparedTemplateIsReadOnce() throws Exception {
+        File templateFile = File.createTempFile("PresetTemplate", ".ods");
+        templateFile.deleteOnExit();
+        OdfSpreadsheetDocument template = OdfSpreadsheetDocument.loadDocument(getClass().getClassLoader().getResourceAsStream("template.ods"));
+        template.getTableList().get(0).getRowByIndex(0).getCellByIndex(1).setDisplayText("TH-Preset");
+        template.getTableList().get(1).getRowByIndex(0).getCellByIndex(1).setDisplayText("Preset");
+        template.save(templateFile);
+
+        for (boolean streaming : new boolean[]{false, true}) {
+            SpreadsheetWriter batchWriter = new SpreadsheetWriter(streaming);
+            PreparedTemplate preparedTemplate = batchWriter.getPreparedTemplate(templateFile);
+            assertEquals(Collections.singletonList("TH-Preset"), preparedTemplate.getThresholdCategories());
+            assertEquals(Collections.singletonList("Preset"), preparedTemplate.getCategories());
+            assertSame("Template is read once", preparedTemplate, batchWriter.getPreparedTemplate(templateFile));
+            assertSame("Default template is read once", batchWriter.getPreparedTemplate(null), batchWriter.getPreparedTemplate(null));
+
+            for (int export = 0; export < 2; export++) {
+                File odsFile = File.createTempFile("PreparedTemplateTest", ".ods");
+                odsFile.deleteOnExit();
+                batchWriter.getSpreadsheetFromRequisition(generateTestRequisition(), odsFile.getAbsolutePath(), templateFile);
+
+                OdfSpreadsheetDocument spreadsheet = OdfSpreadsheetDocument.loadDocument(odsFile);
+                assertSheetContent(spreadsheet.getTableList().get(1), "TestRequisition CATEGORIES", new String[][]{
+                        {"TestRequisition", "Category-A", "Category-B", "Preset"},
+                        {"Node-A", "X", "", ""},
+                        {"Node-B", "", "X", ""}});
+            }
+            assertEquals("Preset categories are not changed by exports", Collections.singletonList("Preset"), preparedTemplate.getCategories());
+        }
+    }
+
+    @Test
+    public void testWriteSpreadsheetIntoStream() throws Exception {
+        for (boolean streaming : new boolean[]{false, true}) {
+            SpreadsheetWriter streamWriter = new SpreadsheetWriter(streaming);
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            streamWriter.writeSpreadsheet(generateTestRequisition(), output, streamWriter.getPreparedTemplate(null));
+
+            File odsFile = File.createTempFile("StreamOutputTest", ".ods");
+            odsFile.deleteOnExit();
+            Files.write(odsFile.toPath(), output.toByteArray());
+            File expectedFile = File.createTempFile("FileOutputTest", ".ods");
+            expectedFile.deleteOnExit();
+            streamWriter.getSpreadsheetFromRequisition(generateTestRequisition(), expectedFile.getAbsolutePath(), null);
+            assertEquals("Stream and file output", toSortedMap(new SpreadsheetReader(expectedFile).getNodeToCategoryMappingsFromFile()), toSortedMap(new SpreadsheetReader(odsFile).getNodeToCategoryMappingsFromFile()));
+        }
+
+        SpreadsheetWriter csvWriter = new SpreadsheetWriter(true, false, false, ".csv");
+        ByteArrayOutputStream csvOutput = new ByteArrayOutputStream();
+        csvWriter.writeSpreadsheet(generateTestRequisition(), csvOutput, null);
+        assertEquals("TestRequisition,Category-A,Category-B\r\nNode-A,X,\r\nNode-B,,X\r\n", new String(csvOutput.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testStreamingWriterCollapsesEmptyCells() throws Exception {
+        Requisition requisition = generateTestRequisition();
+        for (int categoryIndex = 0; categoryIndex < 200; categoryIndex++) {
+            requisition.getNodes().get(0).getCategories().add(new RequisitionCategory(String.format("Sparse-%03d", categoryIndex)));
+        }
+        requisition.getNodes().get(1).getCategories().add(new RequisitionCategory("Sparse-100"));
+        requisition.getNodes().get(1).getCategories().add(new RequisitionCategory("Sparse-199"));
+
+        File odsFile = File.createTempFile("SparseWriterTest", ".ods");
+        odsFile.deleteOnExit();
+        new SpreadsheetWriter(true).getSpreadsheetFromRequisition(requisition, odsFile.getAbsolutePath(), null);
+
+        String content;
+        try (ZipFile odsZip = new ZipFile(odsFile)) {
+            content = new String(readFully(odsZip.getInputStream(odsZip.getEntry("content.xml"))), StandardCharsets.UTF_8);
+        }
+        // Node-B of the category table: label, 1 empty, X, 100 empty, X, 98 empty, X and the trailing cells
+        int nodeBStart = content.lastIndexOf("Node-B");
+        String nodeBRow = content.substring(nodeBStart, content.indexOf("</table:table-row>", nodeBStart));
+        assertEquals("Cells of the sparse row after the label", 7, nodeBRow.split("<table:table-cell", -1).length - 1);
+        assertTrue("Run of empty cells", nodeBRow.contains("table:number-columns-repeated=\"100\"") && nodeBRow.contains("table:number-columns-repeated=\"98\""));
+
+        OdfSpreadsheetDocument spreadsheet = OdfSpreadsheetDocument.loadDocument(odsFile);
+        OdfTable categoryTable = spreadsheet.getTableList().get(1);
+        assertEquals("Sparse-100", categoryTable.getRowByIndex(0).getCellByIndex(103).getDisplayText());
+        assertEquals("X", categoryTable.getRowByIndex(2).getCellByIndex(103).getDisplayText());
+        assertEquals("", categoryTable.getRowByIndex(2).getCellByIndex(104).getDisplayText());
+        assertEquals("X", categoryTable.getRowByIndex(2).getCellByIndex(202).getDisplayText());
+
+        assertEquals("Streaming and DOM reader", toSortedMap(new SpreadsheetReader(odsFile, false).getNodeToCategoryMappingsFromFile()), toSortedMap(new SpreadsheetReader(odsFile, true).getNodeToCategoryMappingsFromFile()));
+    }
+
+    @Test
+    public void testStreamingWriterEncodesWhiteSpace() throws Exception {
+        Requisition requisition = generateTestRequisition();
+        requisition.getNodes().get(0).setNodeLabel("  Node  A\tB\r\nC ");
+
+        File domFile = File.createTempFile("WhiteSpaceDomTest", ".ods");
+        domFile.deleteOnExit();
+        File streamingFile = File.createTempFile("WhiteSpaceStreamingTest", ".ods");
+        streamingFile.deleteOnExit();
+        writer.getSpreadsheetFromRequisition(requisition, domFile.getAbsolutePath(), null);
+        // the DOM writer rejects control characters, the streaming writer drops them
+        requisition.getNodes().get(0).setNodeLabel("  Node  A\tB\r\nC \u0001");
+        new SpreadsheetWriter(true).getSpreadsheetFromRequisition(requisition, streamingFile.getAbsolutePath(), null);
+
+        String content;
+        try (ZipFile odsZip = new ZipFile(streamingFile)) {
+            content = new String(readFully(odsZip.getInputStream(odsZip.getEntry("content.xml"))), StandardCharsets.UTF_8);
+        }
+        assertTrue(content, content.contains("<text:p><text:s text:c=\"2\"/>Node <text:s/>A<text:tab/>B<text:line-break/>C<text:s/></text:p>"));
+
+        Map<String, String> streamingMappings = toSortedMap(new SpreadsheetReader(streamingFile, true).getNodeToCategoryMappingsFromFile());
+        // the reader trims the label, the white space inside it survives
+        assertTrue(streamingMappings.toString(), streamingMappings.containsKey("Node  A\tB\nC"));
+        assertEquals("Cell text of DOM and streaming writer",
+                OdfSpreadsheetDocument.loadDocument(domFile).getTableList().get(1).getRowByIndex(1).getCellByIndex(0).getDisplayText(),
+                OdfSpreadsheetDocument.loadDocument(streamingFile).getTableList().get(1).getRowByIndex(1).getCellByIndex(0).getDisplayText());
+        assertEquals("Streaming and DOM reader", toSortedMap(new SpreadsheetReader(streamingFile, false).getNodeToCategoryMappingsFromFile()), streamingMappings);
+        assertEquals("DOM and streaming writer", toSortedMap(new SpreadsheetReader(domFile, true).getNodeToCategoryMappingsFromFile()), streamingMappings);
+    }
+
+    private static byte[] readFully(InputStream input) throws IOException {
+        try (InputStream stream = input) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int read = stream.read(buffer); read != -1; read = stream.read(buffer)) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    private void assertSheetContent(OdfTable table, String tableName, String[][] expectedCells) {
+        assertEquals("Table name", tableName, table.getTableName());
+        for (int rowIndex = 0; rowIndex <= expectedCells.length; rowIndex++) {
+            for (int cellIndex = 0; cellIndex <= expectedCells[0].length; cellIndex++) {
+                String expectedText = rowIndex < expectedCells.length && cellIndex < expectedCells[rowIndex].length ? expectedCells[rowIndex][cellIndex] : "";
+                assertEquals("Cell " + rowIndex + ":" + cellIndex + " of " + tableName, expectedText, table.getRowByIndex(rowIndex).getCellByIndex(cellIndex).getDisplayText());
+            }
+        }
+    }
+
+    private Map<String, String> toSortedMap(Collection<NodeToCategoryMapping> nodeToCategoryMappings) {
+        Map<String, String> sortedMappings = new TreeMap<>();
+        for (NodeToCategoryMapping nodeToCategoryMapping : nodeToCategoryMappings) {
+            sortedMappings.put(nodeToCategoryMapping.getNodeLabel(), "add=" + nodeToCategoryMapping.getAddCategories() + " remove=" + nodeToCategoryMapping.getRemoveCategories());
+        }
+        return sortedMappings;
+    }
+
     private Requisition generateTestRequisition() {
         Requisition requisition = new Requisition("TestRequisition");
         List<RequisitionNode> reqNodes = new ArrayList<>();
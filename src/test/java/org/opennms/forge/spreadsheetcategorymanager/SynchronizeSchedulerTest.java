@@ -0,0 +1,285 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2012 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2012 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.forge.spreadsheetcategorymanager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.forge.spreadsheetcategorymanager.utils.SynchronizeScheduler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <p>SynchronizeSchedulerTest class.</p>
+ *
+ * @author <a href="mailto:markus@opennms.org">Markus Neumann</a>
+ * @author <a href="mailto:ronny@opennms.org">Ronny Trommer</a>
+ * @version 1.0-SNAPSHOT
+ * @since 1.0-SNAPSHOT
+ */
+public class SynchronizeSchedulerTest {
+
+    private static final String BASE_URL = "http://localhost:8980/opennms/";
+
+    private File m_directory;
+
+    @Before
+    public void setUp() throws IOException {
+        m_directory = File.createTempFile("SynchronizeSchedulerTest", "");
+        m_directory.delete();
+    }
+
+    @After
+    public void tearDown() {
+        File[] stateFiles = m_directory.listFiles();
+        if (stateFiles != null) {
+            for (File stateFile : stateFiles) {
+                stateFile.delete();
+            }
+        }
+        m_directory.delete();
+    }
+
+    @Test
+    public void testRequestsWithinWindowAreCoalesced() throws Exception {
+        final AtomicInteger synchronizes = new AtomicInteger();
+        final SynchronizeScheduler.Synchronizer synchronizer = new SynchronizeScheduler.Synchronizer() {
+            @Override
+            public void synchronize(String foreignSource) {
+                synchronizes.incrementAndGet();
+            }
+        };
+
+        // every request uses its own scheduler like separate invocations sharing the state directory
+        List<Callable<Boolean>> requests = new ArrayList<>();
+        for (int request = 0; request < 4; request++) {
+            requests.add(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return new SynchronizeScheduler(m_directory, BASE_URL, 500L, 2, 1, 10L).synchronize("Servers", synchronizer);
+                }
+            });
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(requests.size());
+        try {
+            for (Future<Boolean> result : executor.invokeAll(requests)) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, synchronizes.get());
+    }
+
+    @Test
+    public void testFailedSynchronizeIsRetried() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        SynchronizeScheduler scheduler = new SynchronizeScheduler(m_directory, BASE_URL, 0L, 1, 3, 10L);
+
+        assertTrue(scheduler.synchronize("Servers", new SynchronizeScheduler.Synchronizer() {
+            @Override
+            public void synchronize(String foreignSource) {
+                if (attempts.incrementAndGet() < 3) {
+                    throw new IllegalStateException("OpenNMS not reachable");
+                }
+            }
+        }));
+        assertEquals(3, attempts.get());
+
+        attempts.set(0);
+        assertFalse(scheduler.synchronize("Servers", new SynchronizeScheduler.Synchronizer() {
+            @Override
+            public void synchronize(String foreignSource) {
+                attempts.incrementAndGet();
+                throw new IllegalStateException("OpenNMS not reachable");
+            }
+        }));
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void testConcurrentSynchronizesAreLimited() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final SynchronizeScheduler scheduler = new SynchronizeScheduler(m_directory, BASE_URL, 0L, 2, 1, 10L);
+        final SynchronizeScheduler.Synchronizer synchronizer = new SynchronizeScheduler.Synchronizer() {
+            @Override
+            public void synchronize(String foreignSource) throws InterruptedException {
+                int current = running.incrementAndGet();
+                synchronized (maxRunning) {
+                    maxRunning.set(Math.max(maxRunning.get(), current));
+                }
+                Thread.sleep(100L);
+                running.decrementAndGet();
+            }
+        };
+
+        List<Callable<Boolean>> requests = new ArrayList<>();
+        for (int source = 0; source < 6; source++) {
+            final String foreignSource = "Source-" + source;
+            requests.add(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return scheduler.synchronize(foreignSource, synchronizer);
+                }
+            });
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(requests.size());
+        try {
+            for (Future<Boolean> result : executor.invokeAll(requests)) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(2, maxRunning.get());
+    }
+
+    @Test
+    public void testExpiredClaimIsTakenOver() throws Exception {
+        final AtomicInteger synchronizes = new AtomicInteger();
+        SynchronizeScheduler.Synchronizer synchronizer = new SynchronizeScheduler.Synchronizer() {
+            @Override
+            public void synchronize(String foreignSource) {
+                synchronizes.incrementAndGet();
+            }
+        };
+        SynchronizeScheduler scheduler = new SynchronizeScheduler(m_directory, BASE_URL, 0L, 1, 1, 10L, 300L);
+        assertTrue(scheduler.synchronize("Servers", synchronizer));
+
+        // an invocation died after it requested and claimed the synchronize
+        File stateFile = getStateFile();
+        long claimedUntil = System.currentTimeMillis() + 300L;
+        Files.write(stateFile.toPath(), ("Servers\t2\t1\t1\t0\t0\tdead#1\t" + claimedUntil + "\t0\n").getBytes(StandardCharsets.UTF_8));
+
+        long start = System.currentTimeMillis();
+        assertTrue(scheduler.synchronize("Servers", synchronizer));
+        assertTrue(System.currentTimeMillis() >= claimedUntil);
+        assertTrue(System.currentTimeMillis() - start < 5000L);
+        assertEquals(2, synchronizes.get());
+    }
+
+    @Test
+    public void testGivenUpSynchronizeFailsCoalescedRequests() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        final SynchronizeScheduler.Synchronizer synchronizer = new SynchronizeScheduler.Synchronizer() {
+            @Override
+            public void synchronize(String foreignSource) {
+                attempts.incrementAndGet();
+                throw new IllegalStateException("OpenNMS not reachable");
+            }
+        };
+
+        List<Callable<Boolean>> requests = new ArrayList<>();
+        for (int request = 0; request < 3; request++) {
+            requests.add(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return new SynchronizeScheduler(m_directory, BASE_URL, 300L, 2, 2, 10L).synchronize("Servers", synchronizer);
+                }
+            });
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(requests.size());
+        try {
+            for (Future<Boolean> result : executor.invokeAll(requests)) {
+                assertFalse(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void testRequestWhileSynchronizingGetsAnotherSynchronize() throws Exception {
+        final AtomicInteger synchronizes = new AtomicInteger();
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch requested = new CountDownLatch(1);
+        final SynchronizeScheduler scheduler = new SynchronizeScheduler(m_directory, BASE_URL, 0L, 2, 1, 10L);
+        final SynchronizeScheduler.Synchronizer synchronizer = new SynchronizeScheduler.Synchronizer() {
+            @Override
+            public void synchronize(String foreignSource) throws InterruptedException {
+                if (synchronizes.incrementAndGet() == 1) {
+                    running.countDown();
+                    requested.await();
+                    Thread.sleep(300L);
+                }
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Boolean> first = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return scheduler.synchronize("Servers", synchronizer);
+                }
+            });
+            running.await();
+            Future<Boolean> second = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    requested.countDown();
+                    return scheduler.synchronize("Servers", synchronizer);
+                }
+            });
+            assertTrue(first.get());
+            assertTrue(second.get());
+        } finally {
+            executor.shutdown();
+        }
+        // the running synchronize didn't see the changes of the second request
+        assertEquals(2, synchronizes.get());
+    }
+
+    private File getStateFile() {
+        File[] stateFiles = m_directory.listFiles();
+        for (File stateFile : stateFiles) {
+            if (stateFile.getName().endsWith(".state")) {
+                return stateFile;
+            }
+        }
+        throw new IllegalStateException("No state file in " + m_directory);
+    }
+}